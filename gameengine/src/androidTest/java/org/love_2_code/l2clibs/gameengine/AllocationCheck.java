@@ -0,0 +1,318 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import java.lang.reflect.Method;
+
+/**
+ * <h1>Checks that running a game allocates no memory once it gets going</h1>
+ * <p>
+ * Every object allocated during play is garbage the collector must eventually clean up, and on
+ * phones that shows up as dropped frames.  The engine aims to allocate nothing in a normal
+ * frame of update and draw.  This class runs a made-up level with moving, falling, bouncing,
+ * animated and colliding objects, bullets from a pool and a following camera, lets it warm up,
+ * and then counts the bytes allocated by the calling thread over a number of frames.
+ * {@link #measure} does the same for any manager and level.  {@link SteadyStateAllocationTest}
+ * runs it.
+ * </p>
+ * <p>
+ * Allocations are counted with the HotSpot thread allocation counter on a desktop JVM, or
+ * Android's allocation counting on a device.  When neither is available the result says so.
+ * A desktop JVM's compiler sometimes has to re-create objects it had optimized away, which can
+ * show up as a few stray bytes; run it with {@code -Xint} for an exact count.
+ * </p>
+ */
+
+final class AllocationCheck {
+    private static final int STEP_MILLIS = GameViewThread.DEFAULT_STEP_MILLIS;
+    // Long enough for pools, query lists and broadphase buckets to reach their largest sizes
+    private static final int WARMUP_FRAMES = 3000;
+    private static final int SYNTHETIC_IMAGE_ID = 0x7f0a0001;
+
+    /**
+     * Measures the memory allocated by the current thread.
+     */
+    interface Counter {
+        /**
+         * @return total bytes allocated by the calling thread so far, or -1 if unknown
+         */
+        long allocatedBytes();
+    }
+
+    /**
+     * The outcome of a measurement.
+     */
+    static final class Result {
+        /**
+         * Number of frames (an update and a draw) measured
+         */
+        final int frames;
+        /**
+         * Bytes allocated by the thread during those frames, or -1 if they couldn't be counted
+         */
+        final long bytes;
+
+        Result(int frames, long bytes) {
+            this.frames = frames;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return {@code true} if allocations could be counted on this device
+         */
+        boolean isSupported() {
+            return bytes >= 0;
+        }
+
+        @Override
+        public String toString() {
+            if (!isSupported()) {
+                return frames + " frames, allocations not countable here";
+            }
+            return frames + " frames, " + bytes + " bytes allocated ("
+                    + (double) bytes / frames + " per frame)";
+        }
+    }
+
+    private AllocationCheck() {
+    }
+
+    /**
+     * Run the built-in test level and count what the steady state allocates.
+     *
+     * @param canvas the canvas to draw on, for example one backed by a bitmap
+     * @param frames how many frames to measure after warming up
+     * @return the number of bytes allocated, which should be 0
+     */
+    static Result runSyntheticLevel(Canvas canvas, int frames) {
+        GameObjectManager manager = new GameObjectManager(new MessageBus(), null);
+        try {
+            manager.setLevel(new SyntheticLevel());
+            return measure(manager, canvas, WARMUP_FRAMES, frames, defaultCounter());
+        } finally {
+            manager.release();
+        }
+    }
+
+    /**
+     * Run frames of update and draw and count what they allocate.
+     *
+     * @param manager      a manager with a level set
+     * @param canvas       the canvas to draw on
+     * @param warmupFrames frames to run first without counting, so levels get set up, pools
+     *                     and arrays grow to size, and classes get loaded
+     * @param frames       frames to count
+     * @param counter      how to count allocations, usually {@link #defaultCounter()}
+     * @return the number of bytes allocated by the calling thread during the counted frames
+     */
+    static Result measure(GameObjectManager manager, Canvas canvas, int warmupFrames, int frames,
+                          Counter counter) {
+        for (int i = 0; i < warmupFrames; i++) {
+            manager.update(STEP_MILLIS);
+            manager.draw(canvas, 0.0f);
+        }
+        // Reading the counter may itself allocate, so measure that and take it off
+        long first = counter.allocatedBytes();
+        long overhead = counter.allocatedBytes() - first;
+        long start = counter.allocatedBytes();
+        for (int i = 0; i < frames; i++) {
+            manager.update(STEP_MILLIS);
+            manager.draw(canvas, 0.0f);
+        }
+        long end = counter.allocatedBytes();
+        return new Result(frames, (start < 0 || end < 0) ? -1 : end - start - overhead);
+    }
+
+    /**
+     * Get the best allocation counter for this runtime.
+     *
+     * @return a counter, which reports -1 if nothing suitable is available
+     */
+    static Counter defaultCounter() {
+        Counter counter = HotSpotCounter.create();
+        return (counter != null) ? counter : new AndroidCounter();
+    }
+
+    /**
+     * Uses com.sun.management.ThreadMXBean, found by reflection since it isn't on Android.
+     */
+    private static final class HotSpotCounter implements Counter {
+        private static final int REFLECTION_WARMUP_CALLS = 32;
+        private final Object mBean;
+        private final Method mMethod;
+        private final Object[] mArgs;
+
+        private HotSpotCounter(Object bean, Method method) {
+            mBean = bean;
+            mMethod = method;
+            mArgs = new Object[]{Thread.currentThread().getId()};
+        }
+
+        static HotSpotCounter create() {
+            try {
+                Object bean = Class.forName("java.lang.management.ManagementFactory")
+                        .getMethod("getThreadMXBean").invoke(null);
+                Method method = Class.forName("com.sun.management.ThreadMXBean")
+                        .getMethod("getThreadAllocatedBytes", long.class);
+                HotSpotCounter counter = new HotSpotCounter(bean, method);
+                // Reflection builds a faster way to call a method after it has been called a
+                // number of times, which allocates, so get that over with now
+                for (int i = 0; i < REFLECTION_WARMUP_CALLS; i++) {
+                    counter.allocatedBytes();
+                }
+                return counter;
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        @Override
+        public long allocatedBytes() {
+            try {
+                return (Long) mMethod.invoke(mBean, mArgs);
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Uses android.os.Debug's per-thread allocation counting.
+     */
+    @SuppressWarnings("deprecation")
+    private static final class AndroidCounter implements Counter {
+        private boolean mStarted;
+
+        @Override
+        public long allocatedBytes() {
+            try {
+                if (!mStarted) {
+                    android.os.Debug.startAllocCounting();
+                    android.os.Debug.resetThreadAllocCount();
+                    mStarted = true;
+                }
+                return android.os.Debug.getThreadAllocSize();
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * A level that exercises the usual per-frame work: falling objects landing on a floor,
+     * bouncing, a complex collision shape, animated sprites, text, tags, and bullets fired from
+     * a pool that expire and go back to it, all seen through a camera following a mover.  The
+     * score is drawn in a layer above the rest, so every new bullet goes in below it.
+     */
+    static final class SyntheticLevel extends GameLevel {
+        private static final int FALLERS = 150;
+        private static final int BULLETS_PER_FRAME = 4;
+        private static final int BULLET_POOL_SIZE = 256;
+        // Strong enough that a thrown faller comes back down within a second or so, but never
+        // so fast that it moves more than half its height in a frame and misses the floor
+        private static final float FALLER_GRAVITY = 1200.0f;
+        private static final float FALLER_SIZE = 32.0f;
+        private static final float FALLER_THROW_SPEED = -450.0f;
+        private static final int HUD_Z_ORDER = 10;
+        private ObjectPool<Sprite> mBullets;
+        private Sprite mRunner;
+        private int mFrame;
+
+        @Override
+        public void setup() {
+            Images.putIfAbsent(SYNTHETIC_IMAGE_ID,
+                    Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888));
+            mManager.setWorldScreenSize(1600, 900);
+            mManager.getCamera().setBounds(0, 0, 3200, 900);
+
+            Sprite floor = new Sprite("floor", 1600, 880, 3200, 40, SYNTHETIC_IMAGE_ID);
+            floor.setSolid(true);
+            mManager.addObject(floor);
+            Sprite trampoline = new Sprite("trampoline", 2400, 700, 600, 20, SYNTHETIC_IMAGE_ID);
+            trampoline.setBouncy(true);
+            mManager.addObject(trampoline);
+            Sprite wedge = new Sprite("wedge", 600, 760, 200, 200, SYNTHETIC_IMAGE_ID);
+            wedge.setSolid(true);
+            wedge.setComplexShape(new CollisionVertex(-100, 100), new CollisionVertex(100, -100),
+                    new CollisionVertex(100, 100));
+            mManager.addObject(wedge);
+            Text score = new Text("score", "0", 100, 40, 200, 40);
+            score.setZOrder(HUD_Z_ORDER);
+            mManager.addObject(score);
+
+            for (int i = 0; i < FALLERS; i++) {
+                Sprite s = new Sprite(null, (i * 97) % 3200, 600 + (i * 31) % 200, FALLER_SIZE,
+                        FALLER_SIZE);
+                s.setMotionSequence("spin", 50, SYNTHETIC_IMAGE_ID, SYNTHETIC_IMAGE_ID);
+                s.setMotionState("spin");
+                s.setFeelsGravity(true);
+                s.setAccelY(FALLER_GRAVITY);
+                s.addTag("faller");
+                mManager.addObject(s);
+            }
+
+            mRunner = new Sprite("runner", 100, 500, 32, 32, SYNTHETIC_IMAGE_ID);
+            mRunner.setdX(300);
+            mManager.addObject(mRunner);
+            mManager.getCamera().follow(mRunner);
+
+            mBullets = mManager.createPool(Sprite.class, new ObjectPool.Factory<Sprite>() {
+                @Override
+                public Sprite create() {
+                    return new Sprite(null, 0, 0, 6, 6, SYNTHETIC_IMAGE_ID);
+                }
+            });
+            // More than can be in flight at once, so firing never has to make a new one
+            mBullets.prefill(BULLET_POOL_SIZE);
+        }
+
+        @Override
+        public void update(int millis) {
+            mFrame++;
+            // Keep the runner going back and forth across the level
+            if (mRunner.getX() > 3100 || mRunner.getX() < 100) {
+                mRunner.setdX(-mRunner.getdX());
+            }
+            for (int i = 0; i < BULLETS_PER_FRAME; i++) {
+                Sprite bullet = mBullets.acquire();
+                bullet.setXY(mRunner.getX(), mRunner.getY());
+                bullet.setdX((i - 1.5f) * 400);
+                bullet.setdY(-200);
+                bullet.setMaxTimeOnScreen(400 + (mFrame % 7) * 50);
+                bullet.setAutoDieOffscreen(true);
+                bullet.addTag("bullet");
+                mManager.addObject(bullet);
+            }
+            // Now and then, throw a faller back up so things keep moving
+            ObjectGroup fallers = mManager.getObjectsTagged("faller");
+            if (fallers.size() > 0) {
+                GameObject faller = fallers.get(mFrame % fallers.size());
+                faller.setdY(FALLER_THROW_SPEED);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.love_2_code.l2clibs.gameengine;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented test that batch physics moves objects exactly as their own update() would,
+ * including objects whose onCollision() changes their velocity.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchPhysicsTest {
+    private static final int BOUNCERS = 200;
+    private static final int STEPS = 300;
+
+    @Test
+    public void batchMatchesSerial() {
+        GameObjectManager serial = run(false);
+        GameObjectManager batch = run(true);
+
+        assertEquals(serial.getObjectCount(), batch.getObjectCount());
+        for (int i = 0; i < serial.getObjectCount(); i++) {
+            GameObject expected = serial.getObjectAt(i);
+            GameObject actual = batch.getObjectByName(expected.name);
+            assertEquals(expected.name, expected.getX(), actual.getX(), 0.0f);
+            assertEquals(expected.name, expected.getY(), actual.getY(), 0.0f);
+            assertEquals(expected.name, expected.getdX(), actual.getdX(), 0.0f);
+            assertEquals(expected.name, expected.getdY(), actual.getdY(), 0.0f);
+        }
+    }
+
+    private static GameObjectManager run(boolean batchPhysics) {
+        GameObjectManager manager = new GameObjectManager(new MessageBus(), null);
+        try {
+            manager.setBatchPhysics(batchPhysics);
+            manager.setBackgroundLevelLoading(false);
+            manager.setLevel(new BouncingLevel());
+            for (int i = 0; i < STEPS; i++) {
+                manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+            }
+        } finally {
+            manager.release();
+        }
+        return manager;
+    }
+
+    /**
+     * Falls and turns around whenever it lands on something.
+     */
+    private static final class Bouncer extends Sprite {
+        Bouncer(String name, float x, float y) {
+            super(name, x, y, 10, 10);
+        }
+
+        @Override
+        public void onCollision(GameObject other) {
+            setdX(-getdX() * 0.5f);
+        }
+    }
+
+    /**
+     * Objects sliding sideways as they fall onto a floor.
+     */
+    private static final class BouncingLevel extends GameLevel {
+        @Override
+        public void setup() {
+            mManager.setWorldScreenSize(4000, 2000);
+            Sprite floor = new Sprite("floor", 2000, 900, 4000, 40);
+            floor.setSolid(true);
+            mManager.addObject(floor);
+            for (int i = 0; i < BOUNCERS; i++) {
+                Bouncer bouncer = new Bouncer("bouncer" + i, 100 + i * 19, 300 + (i * 7) % 200);
+                bouncer.setdX((i % 2 == 0) ? 150 : -150);
+                bouncer.setFeelsGravity(true);
+                bouncer.setAccelY(600);
+                mManager.addObject(bouncer);
+            }
+        }
+    }
+}
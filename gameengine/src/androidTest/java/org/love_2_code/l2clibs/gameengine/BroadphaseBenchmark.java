@@ -0,0 +1,204 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * <h1>Compares how fast each {@link Broadphase.Type} handles a made-up level</h1>
+ * <p>
+ * Builds a world with a mix of long static platforms and many small moving objects, then for
+ * each kind of broadphase times adding everything, a number of steps of moving every mover and
+ * looking up what it touches (as the collision check does), and finding all overlapping pairs.
+ * The world is the same for each broadphase (it comes from a fixed random seed), so the numbers
+ * are directly comparable.  Run {@link BroadphaseBenchmarkTest} on the target device, with
+ * numbers close to those of a real level, then pass the winner to
+ * {@link GameObjectManager#setBroadphaseType}.
+ * </p>
+ */
+
+final class BroadphaseBenchmark {
+    private static final String TAG = "BroadphaseBenchmark";
+    private static final float WORLD_SIZE = 4000.0f;
+    private static final long SEED = 12345L;
+    private static final int STEP_MILLIS = GameViewThread.DEFAULT_STEP_MILLIS;
+
+    /**
+     * Timings for one kind of broadphase.
+     */
+    public static final class Result {
+        public final Broadphase.Type type;
+        /**
+         * Time taken to add every object, in nanoseconds
+         */
+        public final long buildNanos;
+        /**
+         * Average time for one step of moving and querying every mover, in nanoseconds
+         */
+        public final long stepNanos;
+        /**
+         * Time taken to find all overlapping pairs once, in nanoseconds
+         */
+        public final long pairNanos;
+        /**
+         * Total objects found touching the movers, which should match across broadphase types
+         */
+        public final long hits;
+        /**
+         * Number of overlapping pairs found, which should match across broadphase types
+         */
+        public final int pairs;
+
+        Result(Broadphase.Type type, long buildNanos, long stepNanos, long pairNanos, long hits,
+               int pairs) {
+            this.type = type;
+            this.buildNanos = buildNanos;
+            this.stepNanos = stepNanos;
+            this.pairNanos = pairNanos;
+            this.hits = hits;
+            this.pairs = pairs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: build %.3f ms, step %.3f ms, pairs %.3f ms (%d hits, %d pairs)",
+                    type, buildNanos / 1e6, stepNanos / 1e6, pairNanos / 1e6, hits, pairs);
+        }
+    }
+
+    private static final class BenchObject extends GameObject {
+        BenchObject(String name, RectF extent) {
+            super(name, extent);
+        }
+
+        @Override
+        public void draw(Canvas c, float xScale, float yScale) {
+        }
+    }
+
+    private static final class PairCounter implements Broadphase.PairListener {
+        int count;
+
+        @Override
+        public void onPair(GameObject a, GameObject b) {
+            count++;
+        }
+    }
+
+    private BroadphaseBenchmark() {
+    }
+
+    /**
+     * Time every kind of broadphase on the same world and log the results.
+     *
+     * @param platforms number of static platforms, from 200 to 3000 units long
+     * @param movers    number of small moving objects, from 4 to 40 units across
+     * @param steps     number of update steps to time
+     * @return one result per {@link Broadphase.Type}, in declaration order
+     */
+    public static Result[] compare(int platforms, int movers, int steps) {
+        Broadphase.Type[] types = Broadphase.Type.values();
+        Result[] results = new Result[types.length];
+        for (int i = 0; i < types.length; i++) {
+            // Run once to warm up the JIT, then again for the real numbers
+            run(types[i], platforms, movers, Math.min(steps, 10));
+            results[i] = run(types[i], platforms, movers, steps);
+            Log.d(TAG, results[i].toString());
+        }
+        return results;
+    }
+
+    /**
+     * Time one kind of broadphase.  Parameters are as for {@link #compare}.
+     */
+    public static Result run(Broadphase.Type type, int platforms, int movers, int steps) {
+        Broadphase broadphase = Broadphase.create(type);
+        Random random = new Random(SEED);
+        ArrayList<GameObject> objects = new ArrayList<>(platforms + movers);
+        for (int i = 0; i < platforms; i++) {
+            float width = 200.0f + random.nextFloat() * 2800.0f;
+            float x = random.nextFloat() * (WORLD_SIZE - width);
+            float y = random.nextFloat() * WORLD_SIZE;
+            BenchObject platform = new BenchObject("platform-" + i,
+                    new RectF(x, y, x + width, y + 20.0f));
+            platform.setSolid(true);
+            objects.add(platform);
+        }
+        for (int i = 0; i < movers; i++) {
+            float size = 4.0f + random.nextFloat() * 36.0f;
+            float x = random.nextFloat() * WORLD_SIZE;
+            float y = random.nextFloat() * WORLD_SIZE;
+            BenchObject mover = new BenchObject("mover-" + i, new RectF(x, y, x + size, y + size));
+            mover.setdX((random.nextFloat() - 0.5f) * 400.0f);
+            mover.setdY((random.nextFloat() - 0.5f) * 400.0f);
+            objects.add(mover);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < objects.size(); i++) {
+            broadphase.add(objects.get(i));
+        }
+        long buildNanos = System.nanoTime() - start;
+
+        ArrayList<GameObject> found = new ArrayList<>();
+        float fracsec = STEP_MILLIS / 1000.0f;
+        long hits = 0;
+        start = System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            for (int i = platforms; i < objects.size(); i++) {
+                GameObject mover = objects.get(i);
+                RectF r = mover.boundingRect;
+                float dx = mover.getdX() * fracsec;
+                float dy = mover.getdY() * fracsec;
+                // Wrap around at the edges of the world
+                if (r.left + dx < 0 || r.right + dx > WORLD_SIZE) {
+                    dx = (r.left + dx < 0) ? WORLD_SIZE - r.right : -r.left;
+                }
+                if (r.top + dy < 0 || r.bottom + dy > WORLD_SIZE) {
+                    dy = (r.top + dy < 0) ? WORLD_SIZE - r.bottom : -r.top;
+                }
+                r.offset(dx, dy);
+                broadphase.update(mover);
+                broadphase.queryTouching(mover, false, found);
+                hits += found.size();
+                found.clear();
+            }
+        }
+        long stepNanos = (steps > 0) ? (System.nanoTime() - start) / steps : 0;
+
+        PairCounter counter = new PairCounter();
+        start = System.nanoTime();
+        broadphase.findPairs(false, counter);
+        long pairNanos = System.nanoTime() - start;
+
+        broadphase.clear();
+        return new Result(type, buildNanos, stepNanos, pairNanos, hits, counter.count);
+    }
+}
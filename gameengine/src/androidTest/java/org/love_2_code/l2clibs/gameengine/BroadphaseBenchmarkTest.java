@@ -0,0 +1,32 @@
+package org.love_2_code.l2clibs.gameengine;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented test that times each broadphase on the same world and checks they all find the
+ * same objects.  The timings are in the log.
+ *
+ * @see BroadphaseBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class BroadphaseBenchmarkTest {
+    private static final int PLATFORMS = 300;
+    private static final int MOVERS = 2000;
+    private static final int STEPS = 100;
+
+    @Test
+    public void broadphasesAgree() throws Exception {
+        BroadphaseBenchmark.Result[] results =
+                BroadphaseBenchmark.compare(PLATFORMS, MOVERS, STEPS);
+
+        for (int i = 1; i < results.length; i++) {
+            assertEquals(results[i].toString(), results[0].hits, results[i].hits);
+            assertEquals(results[i].toString(), results[0].pairs, results[i].pairs);
+        }
+    }
+}
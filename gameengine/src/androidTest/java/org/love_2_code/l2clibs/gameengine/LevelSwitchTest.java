@@ -0,0 +1,54 @@
+package org.love_2_code.l2clibs.gameengine;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Instrumented test that a game setting a new level every frame still gets switched to one,
+ * even when each takes longer than a frame to load in the background.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LevelSwitchTest {
+    private static final int PRELOAD_MILLIS = 100;
+    private static final int OBJECTS_PER_LEVEL = 3;
+
+    @Test
+    public void repeatedSetLevelSwitchesWithinAFrame() {
+        GameObjectManager manager = new GameObjectManager(new MessageBus(), null);
+        manager.setLevel(new SlowLevel());
+        manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+
+        manager.setLevel(new SlowLevel());
+        manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+        SlowLevel last = new SlowLevel();
+        manager.setLevel(last);
+        manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+
+        assertFalse(manager.isLoadingLevel());
+        assertEquals(last, manager.getLevel());
+        assertEquals(OBJECTS_PER_LEVEL, manager.getObjectCount());
+        manager.release();
+    }
+
+    /**
+     * A level whose objects take a while to build.
+     */
+    private static final class SlowLevel extends GameLevel {
+        @Override
+        public void preload() {
+            try {
+                Thread.sleep(PRELOAD_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < OBJECTS_PER_LEVEL; i++) {
+                preloadObject(new Sprite(null, 100 * i, 100, 10, 10));
+            }
+        }
+    }
+}
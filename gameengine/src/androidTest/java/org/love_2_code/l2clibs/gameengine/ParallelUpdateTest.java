@@ -0,0 +1,76 @@
+package org.love_2_code.l2clibs.gameengine;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented test that batch physics gives the same world for any number of update threads,
+ * even with solid objects moving through the ones landing on them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParallelUpdateTest {
+    private static final int FALLERS = 600;
+    private static final int PLATFORMS = 40;
+    private static final int STEPS = 300;
+
+    @Test
+    public void oneAndFourThreadsAgree() throws Exception {
+        GameObjectManager serial = run(1);
+        GameObjectManager parallel = run(4);
+
+        assertEquals(serial.getObjectCount(), parallel.getObjectCount());
+        for (int i = 0; i < serial.getObjectCount(); i++) {
+            GameObject expected = serial.getObjectAt(i);
+            GameObject actual = parallel.getObjectByName(expected.name);
+            assertEquals(expected.name, expected.getX(), actual.getX(), 0.0f);
+            assertEquals(expected.name, expected.getY(), actual.getY(), 0.0f);
+            assertEquals(expected.name, expected.getdY(), actual.getdY(), 0.0f);
+        }
+    }
+
+    /**
+     * Run the level for {@link #STEPS} steps.  The manager comes back released, so its worker
+     * and loader threads are gone but its objects are still there to compare.
+     */
+    private static GameObjectManager run(int threads) {
+        GameObjectManager manager = new GameObjectManager(new MessageBus(), null);
+        try {
+            manager.setBatchPhysics(true);
+            manager.setParallelUpdate(threads);
+            manager.setLevel(new MovingPlatformLevel());
+            for (int i = 0; i < STEPS; i++) {
+                manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+            }
+            return manager;
+        } finally {
+            manager.release();
+        }
+    }
+
+    /**
+     * Objects falling onto platforms that slide back and forth under them.
+     */
+    private static final class MovingPlatformLevel extends GameLevel {
+        @Override
+        public void setup() {
+            mManager.setWorldScreenSize(4000, 2000);
+            for (int i = 0; i < PLATFORMS; i++) {
+                Sprite platform = new Sprite("platform" + i, 100 * i, 400 + 30 * (i % 10),
+                        180, 20);
+                platform.setSolid(true);
+                platform.setdX((i % 2 == 0) ? 120 : -120);
+                mManager.addObject(platform);
+            }
+            for (int i = 0; i < FALLERS; i++) {
+                Sprite faller = new Sprite("faller" + i, (i * 37) % 4000, (i * 13) % 300, 10, 10);
+                faller.setFeelsGravity(true);
+                faller.setAccelY(600);
+                mManager.addObject(faller);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.love_2_code.l2clibs.gameengine;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Instrumented test that objects sent back to their pool, by a level change or by
+ * {@link ObjectPool#release}, come out again reset, even when batch physics held their motion
+ * while they were in the game.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PooledObjectResetTest {
+    private static final int STEPS = 30;
+
+    @Test
+    public void levelChangeResetsBatchPhysicsObjects() {
+        GameObjectManager manager = new GameObjectManager(new MessageBus(), null);
+        manager.setBatchPhysics(true);
+        // Switch levels at the next update rather than whenever loading finishes
+        manager.setBackgroundLevelLoading(false);
+        MovingLevel level = new MovingLevel();
+        manager.setLevel(level);
+        for (int i = 0; i < STEPS; i++) {
+            manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+        }
+
+        manager.setLevel(new EmptyLevel());
+        manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+
+        Sprite reused = manager.acquire(Sprite.class);
+        assertSame(level.mMover, reused);
+        assertEquals(0.0f, reused.getdX(), 0.0f);
+        assertEquals(0.0f, reused.getdY(), 0.0f);
+        assertEquals(0, reused.getTimeOnScreen());
+        assertEquals(0, reused.getMaxTimeOnScreen());
+        manager.release();
+    }
+
+    @Test
+    public void releaseReturnsObjectsToThePool() {
+        GameObjectManager manager = new GameObjectManager(new MessageBus(), null);
+        ObjectPool<Sprite> pool = manager.createPool(Sprite.class,
+                new ObjectPool.Factory<Sprite>() {
+                    @Override
+                    public Sprite create() {
+                        return new Sprite(null, 0, 0, 10, 10);
+                    }
+                });
+
+        // Never added to the game
+        Sprite unused = pool.acquire();
+        unused.setdX(200);
+        pool.release(unused);
+        assertEquals(1, pool.getIdleCount());
+        Sprite reused = pool.acquire();
+        assertSame(unused, reused);
+        assertEquals(0.0f, reused.getdX(), 0.0f);
+
+        // In the game: removed at the end of the next update, then back in the pool
+        manager.setBackgroundLevelLoading(false);
+        manager.setLevel(new EmptyLevel());
+        manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+        manager.addObject(reused);
+        manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+        pool.release(reused);
+        manager.update(GameViewThread.DEFAULT_STEP_MILLIS);
+        assertEquals(0, manager.getObjectCount());
+        assertEquals(1, pool.getIdleCount());
+        manager.release();
+    }
+
+    /**
+     * One pooled object moving with a limited lifetime.
+     */
+    private static final class MovingLevel extends GameLevel {
+        Sprite mMover;
+
+        @Override
+        public void setup() {
+            mManager.setWorldScreenSize(4000, 2000);
+            ObjectPool<Sprite> pool = mManager.createPool(Sprite.class,
+                    new ObjectPool.Factory<Sprite>() {
+                        @Override
+                        public Sprite create() {
+                            return new Sprite(null, 0, 0, 10, 10);
+                        }
+                    });
+            mMover = pool.acquire();
+            mMover.setXY(100, 100);
+            mMover.setdX(200);
+            mMover.setdY(-50);
+            mMover.setMaxTimeOnScreen(60000);
+            mManager.addObject(mMover);
+        }
+    }
+
+    /**
+     * A level with nothing in it.
+     */
+    private static final class EmptyLevel extends GameLevel {
+        @Override
+        public void setup() {
+        }
+    }
+}
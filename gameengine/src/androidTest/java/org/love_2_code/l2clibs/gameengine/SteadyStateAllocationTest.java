@@ -0,0 +1,31 @@
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Instrumented test that a warmed-up frame of update and draw allocates nothing.
+ *
+ * @see AllocationCheck
+ */
+@RunWith(AndroidJUnit4.class)
+public class SteadyStateAllocationTest {
+    private static final int FRAMES = 300;
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() throws Exception {
+        Canvas canvas = new Canvas(Bitmap.createBitmap(1600, 900, Bitmap.Config.ARGB_8888));
+
+        AllocationCheck.Result result = AllocationCheck.runSyntheticLevel(canvas, FRAMES);
+
+        assumeTrue(result.isSupported());
+        assertEquals(result.toString(), 0, result.bytes);
+    }
+}
@@ -0,0 +1,105 @@
+package org.love_2_code.l2clibs.gameengine;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Instrumented test that a snapshot captured from a running game and restored into a fresh
+ * manager puts every object back where it was, moving the way it was.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WorldSnapshotTest {
+    private static final int OBJECTS = 12;
+    private static final int STEPS = 30;
+    private static final float DELTA = 0.0001f;
+
+    @Test
+    public void restoreIntoFreshManagerMatchesCapture() {
+        GameObjectManager source = new GameObjectManager(new MessageBus(), null);
+        GameObjectManager target = new GameObjectManager(new MessageBus(), null);
+        try {
+            source.setBackgroundLevelLoading(false);
+            source.setLevel(new PopulatedLevel());
+            for (int i = 0; i < STEPS; i++) {
+                source.update(GameViewThread.DEFAULT_STEP_MILLIS);
+            }
+            target.setBackgroundLevelLoading(false);
+            target.setLevel(new EmptyLevel());
+            target.update(GameViewThread.DEFAULT_STEP_MILLIS);
+
+            WorldSnapshot snapshot = new WorldSnapshot();
+            snapshot.registerType(1, Sprite.class, new ObjectPool.Factory<Sprite>() {
+                @Override
+                public Sprite create() {
+                    return new Sprite(null, 0, 0, 10, 10);
+                }
+            });
+            snapshot.capture(source);
+            snapshot.restore(target);
+
+            assertEquals(source.getObjectCount(), target.getObjectCount());
+            assertEquals(source.getUpdateClock(), target.getUpdateClock());
+            for (int i = 0; i < source.getObjectCount(); i++) {
+                GameObject want = source.getObjectAt(i);
+                GameObject got = target.getObjectByName(want.name);
+                assertNotNull(want.name, got);
+                assertEquals(want.name, want.getX(), got.getX(), DELTA);
+                assertEquals(want.name, want.getY(), got.getY(), DELTA);
+                assertEquals(want.name, want.getWidth(), got.getWidth(), DELTA);
+                assertEquals(want.name, want.getHeight(), got.getHeight(), DELTA);
+                assertEquals(want.name, want.getdX(), got.getdX(), DELTA);
+                assertEquals(want.name, want.getdY(), got.getdY(), DELTA);
+                assertEquals(want.name, want.getAccelX(), got.getAccelX(), DELTA);
+                assertEquals(want.name, want.getAccelY(), got.getAccelY(), DELTA);
+                assertEquals(want.name, want.feelsGravity(), got.feelsGravity());
+                assertEquals(want.name, want.getTimeOnScreen(), got.getTimeOnScreen());
+                assertEquals(want.name, want.getMaxTimeOnScreen(), got.getMaxTimeOnScreen());
+                assertEquals(want.name, want.getZOrder(), got.getZOrder());
+                assertEquals(want.name, want.getTagMask(), got.getTagMask());
+                assertEquals(want.name, want.isAsleep(), got.isAsleep());
+            }
+        } finally {
+            source.release();
+            target.release();
+        }
+    }
+
+    /**
+     * A level of sprites moving in different ways, one of them asleep.
+     */
+    private static final class PopulatedLevel extends GameLevel {
+        @Override
+        public void setup() {
+            for (int i = 0; i < OBJECTS; i++) {
+                Sprite sprite = new Sprite("sprite" + i, 50 * i, 100, 10 + i, 10);
+                sprite.setdX(10 * i - 40);
+                sprite.setdY(5 * i);
+                sprite.setAccelX(i % 3);
+                sprite.setFeelsGravity(i % 2 == 0);
+                sprite.setMaxTimeOnScreen(10000 + 100 * i);
+                sprite.setZOrder(i % 4);
+                if (i % 5 == 0) {
+                    sprite.addTag("fifth");
+                }
+                mManager.addObject(sprite);
+                if (i == OBJECTS - 1) {
+                    sprite.sleep();
+                }
+            }
+        }
+    }
+
+    /**
+     * A level with nothing in it, to restore into.
+     */
+    private static final class EmptyLevel extends GameLevel {
+        @Override
+        public void setup() {
+        }
+    }
+}
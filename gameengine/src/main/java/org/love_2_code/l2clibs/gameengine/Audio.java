@@ -93,6 +93,22 @@ public class Audio {
     }
 
 
+    /**
+     * Load a sound ahead of time so the first {@link #play(int)} doesn't have to wait for it.
+     * The sound is decoded in the background by the sound system.  If sound is paused, the
+     * sound is loaded when it resumes.
+     *
+     * @param id resource ID of the audio clip, for example {@code R.raw.monster_roar1}
+     */
+    static public void load(int id) {
+        if (!mLoadedSounds.contains(id)) {
+            if (mSoundManager != null) {
+                mSoundManager.load(id);
+            }
+            mLoadedSounds.add(id);
+        }
+    }
+
     /**
      * Request that a sound be played.
      * <p>
@@ -38,6 +38,8 @@ import android.graphics.Rect;
 public class BackgroundImageScene extends Scene {
     private Bitmap mImage;
     private GameObjectManager mManager;
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
 
     /**
      * Create a new BackgroundImageScene with the given image.
@@ -74,8 +76,8 @@ public class BackgroundImageScene extends Scene {
      */
     @Override
     public void draw(Canvas c) {
-        Rect src = new Rect(0, 0, mImage.getWidth(), mImage.getHeight());
-        Rect cRect = new Rect(0, 0, c.getWidth(), c.getHeight());
-        c.drawBitmap(mImage, src, cRect, null);
+        mSrc.set(0, 0, mImage.getWidth(), mImage.getHeight());
+        mDst.set(0, 0, c.getWidth(), c.getHeight());
+        c.drawBitmap(mImage, mSrc, mDst, null);
     }
 }
@@ -0,0 +1,172 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.List;
+
+/**
+ * <h1>[internal] A spatial index that quickly finds which game objects are near an area</h1>
+ * <p>
+ * Checking every object against every other object gets slow as levels grow.  A broadphase
+ * keeps the bounding boxes of all managed objects organized by location, so the
+ * {@link GameObjectManager} can ask for just the objects overlapping an area (for example the
+ * solid objects a moving object might hit) and skip everything far away.
+ * </p>
+ * <p>
+ * The manager adds and removes objects and calls {@link #update(GameObject)} whenever an
+ * object's {@code boundingRect} may have changed.  Each implementation keeps its bookkeeping for
+ * an object in {@link GameObject#broadphaseData}.  Queries only read the index, so several
+ * threads may query at once as long as nothing is being added, removed or updated.
+ * </p>
+ */
+
+public abstract class Broadphase {
+    /**
+     * The kinds of broadphase the {@link GameObjectManager} can use.
+     */
+    public enum Type {
+        /**
+         * Uniform grid of square cells.  Fast and simple when objects are all about the same
+         * size.
+         */
+        SpatialHash,
+        /**
+         * Tree of loose bounding boxes.  Copes well with a mix of very big and very small
+         * objects.
+         */
+        DynamicTree,
+        /**
+         * Sorted lists of object edges with a remembered list of overlaps for each object.
+         * Very cheap when objects move a little each frame, especially in side-scrollers.
+         */
+        SweepAndPrune
+    }
+
+    /**
+     * Receives each pair found by {@link #findPairs(boolean, PairListener)}.
+     */
+    public interface PairListener {
+        void onPair(GameObject a, GameObject b);
+    }
+
+    /**
+     * Create an empty broadphase of the given type with its default settings.
+     */
+    public static Broadphase create(Type type) {
+        switch (type) {
+            case DynamicTree:
+                return new DynamicTreeBroadphase(DynamicTreeBroadphase.DEFAULT_MARGIN);
+            case SweepAndPrune:
+                return new SweepAndPruneBroadphase();
+            case SpatialHash:
+            default:
+                return new SpatialHashBroadphase(SpatialHashBroadphase.DEFAULT_CELL_SIZE);
+        }
+    }
+
+    /**
+     * Start tracking an object at its current bounding box.
+     */
+    public abstract void add(GameObject obj);
+
+    /**
+     * Stop tracking an object.  Does nothing if the object isn't tracked.
+     */
+    public abstract void remove(GameObject obj);
+
+    /**
+     * Bring the index up to date after an object's bounding box may have changed.  Cheap if it
+     * hasn't changed.
+     */
+    public abstract void update(GameObject obj);
+
+    /**
+     * Find every tracked object whose bounding box overlaps the given area.  Each object is
+     * added to {@code out} at most once, in no particular order.
+     *
+     * @param left      left edge of the area in world units
+     * @param top       top edge of the area in world units
+     * @param right     right edge of the area in world units
+     * @param bottom    bottom edge of the area in world units
+     * @param solidOnly {@code true} to only report objects that are solid
+     * @param out       list the matching objects are appended to
+     */
+    public abstract void query(float left, float top, float right, float bottom, boolean solidOnly,
+                               List<GameObject> out);
+
+    /**
+     * Find every tracked object, other than {@code obj} itself, whose bounding box overlaps
+     * {@code obj}'s.  Each object is added to {@code out} at most once, in no particular order.
+     * <p>
+     * The default looks up {@code obj}'s bounding box with {@link #query}; broadphases that
+     * remember which objects overlap can answer directly.
+     * </p>
+     *
+     * @param obj       the object to check, normally one that is tracked
+     * @param solidOnly {@code true} to only report objects that are solid
+     * @param out       list the matching objects are appended to
+     */
+    public void queryTouching(GameObject obj, boolean solidOnly, List<GameObject> out) {
+        int start = out.size();
+        query(obj.boundingRect.left, obj.boundingRect.top, obj.boundingRect.right,
+                obj.boundingRect.bottom, solidOnly, out);
+        for (int i = start; i < out.size(); i++) {
+            if (out.get(i) == obj) {
+                out.remove(i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Find every pair of tracked objects whose bounding boxes overlap.  Each pair is reported
+     * once, in no particular order.
+     *
+     * @param solidOnly {@code true} to only report pairs where at least one object is solid
+     * @param listener  called once for each overlapping pair
+     */
+    public abstract void findPairs(boolean solidOnly, PairListener listener);
+
+    /**
+     * Stop tracking everything.
+     */
+    public abstract void clear();
+
+    /**
+     * Checks whether an object's bounding box overlaps an area, the same way
+     * {@link android.graphics.RectF#intersects} does.
+     */
+    static boolean overlaps(GameObject obj, float left, float top, float right, float bottom) {
+        return obj.boundingRect.left < right && left < obj.boundingRect.right
+                && obj.boundingRect.top < bottom && top < obj.boundingRect.bottom;
+    }
+
+    /**
+     * Checks whether two objects' bounding boxes overlap.
+     */
+    static boolean overlaps(GameObject a, GameObject b) {
+        return overlaps(a, b.boundingRect.left, b.boundingRect.top, b.boundingRect.right,
+                b.boundingRect.bottom);
+    }
+}
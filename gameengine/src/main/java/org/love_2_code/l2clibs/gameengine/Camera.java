@@ -0,0 +1,315 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <h1>Chooses which part of the game world is shown on the screen</h1>
+ * <p>
+ * The screen shows an area of the world the size set by
+ * {@link GameObjectManager#setWorldScreenSize} (1600x900 by default), divided by the camera's
+ * zoom.  Without moving the camera that is the area from (0, 0), as it always was.  Levels
+ * bigger than one screen can move the camera with {@link #setPosition}, or have it follow an
+ * object such as the player with {@link #follow}, and keep it inside the level with
+ * {@link #setBounds}.
+ * </p>
+ * <p>
+ * Only objects overlapping the camera's view are drawn, so a level many screens wide costs
+ * little more to draw than what is on screen.  Touches are reported in world coordinates, so
+ * they follow the camera too.  Get the camera from {@link GameObjectManager#getCamera()}; it is
+ * reset whenever a new level starts.
+ * </p>
+ */
+
+public final class Camera {
+    private float mViewportWidth;       // Size of the view at zoom 1, in world units
+    private float mViewportHeight;
+    private float mLeft, mTop;
+    private float mZoom = 1.0f;
+    private GameObject mTarget;
+    private float mFollowLag;           // Seconds to catch up most of the way; 0 to jump there
+    private final RectF mBounds = new RectF();
+    private boolean mHasBounds;
+
+    Camera(float viewportWidth, float viewportHeight) {
+        mViewportWidth = viewportWidth;
+        mViewportHeight = viewportHeight;
+    }
+
+    /**
+     * Center the camera on a point in the world.  Stops following any object.
+     *
+     * @param centerX horizontal center of the view, in world units
+     * @param centerY vertical center of the view, in world units
+     */
+    public void setPosition(float centerX, float centerY) {
+        mTarget = null;
+        moveCenterTo(centerX, centerY);
+    }
+
+    /**
+     * @return the horizontal center of the view, in world units
+     */
+    public float getX() {
+        return mLeft + getViewWidth() / 2;
+    }
+
+    /**
+     * @return the vertical center of the view, in world units
+     */
+    public float getY() {
+        return mTop + getViewHeight() / 2;
+    }
+
+    /**
+     * Zoom in or out, keeping the same point in the center of the view.
+     *
+     * @param zoom 1 for normal, 2 to show everything twice as big, 0.5 for half size
+     */
+    public void setZoom(float zoom) {
+        if (!(zoom > 0)) {
+            throw new IllegalArgumentException("Zoom must be positive: " + zoom);
+        }
+        float centerX = getX();
+        float centerY = getY();
+        mZoom = zoom;
+        moveCenterTo(centerX, centerY);
+    }
+
+    public float getZoom() {
+        return mZoom;
+    }
+
+    /**
+     * Keep an object in the center of the view as it moves.
+     *
+     * @param target the object to follow, or {@code null} to stop following
+     */
+    public void follow(GameObject target) {
+        mTarget = target;
+        if (target != null && mFollowLag <= 0) {
+            moveCenterTo(target.getX(), target.getY());
+        }
+    }
+
+    /**
+     * @return the object being followed, or {@code null}
+     */
+    public GameObject getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * Make the camera glide after the object it follows, instead of sticking to it exactly.
+     *
+     * @param seconds roughly how long the camera takes to cover two thirds of the distance to
+     *                the target; 0 (the default) keeps the target exactly centered
+     */
+    public void setFollowSmoothing(float seconds) {
+        mFollowLag = Math.max(0.0f, seconds);
+    }
+
+    /**
+     * Keep the view inside an area of the world, usually the whole level.  When the view is
+     * bigger than the area it is centered on it.  Objects that auto-die offscreen die when they
+     * leave this area rather than the view.
+     *
+     * @param left   left edge of the level, in world units
+     * @param top    top edge of the level, in world units
+     * @param right  right edge of the level, in world units
+     * @param bottom bottom edge of the level, in world units
+     */
+    public void setBounds(float left, float top, float right, float bottom) {
+        mBounds.set(left, top, right, bottom);
+        mHasBounds = true;
+        clamp();
+    }
+
+    /**
+     * Let the view go anywhere.
+     */
+    public void clearBounds() {
+        mHasBounds = false;
+    }
+
+    /**
+     * @return {@code true} if {@link #setBounds} has been called since the last
+     * {@link #clearBounds()}
+     */
+    public boolean hasBounds() {
+        return mHasBounds;
+    }
+
+    /**
+     * Get the area set by {@link #setBounds}.
+     *
+     * @param out receives the bounds, or is left alone if there are none
+     * @return {@code true} if there are bounds
+     */
+    public boolean getBounds(RectF out) {
+        if (mHasBounds) {
+            out.set(mBounds);
+        }
+        return mHasBounds;
+    }
+
+    /**
+     * Get the area of the world currently on screen.
+     *
+     * @param out receives the view, in world units
+     */
+    public void getView(RectF out) {
+        out.set(mLeft, mTop, mLeft + getViewWidth(), mTop + getViewHeight());
+    }
+
+    public float getViewLeft() {
+        return mLeft;
+    }
+
+    public float getViewTop() {
+        return mTop;
+    }
+
+    /**
+     * @return the width of the world shown on screen, in world units
+     */
+    public float getViewWidth() {
+        return mViewportWidth / mZoom;
+    }
+
+    /**
+     * @return the height of the world shown on screen, in world units
+     */
+    public float getViewHeight() {
+        return mViewportHeight / mZoom;
+    }
+
+    /**
+     * Check whether any part of a rectangle is on screen.
+     *
+     * @param rect a rectangle in world units
+     * @return {@code true} if it overlaps the view
+     */
+    public boolean isVisible(RectF rect) {
+        return rect.left < mLeft + getViewWidth() && mLeft < rect.right
+                && rect.top < mTop + getViewHeight() && mTop < rect.bottom;
+    }
+
+    /**
+     * Called by the manager when the world screen size changes.
+     */
+    void setViewportSize(float width, float height) {
+        mViewportWidth = width;
+        mViewportHeight = height;
+        clamp();
+    }
+
+    /**
+     * Called by the manager after every update to follow the target.
+     */
+    void update(int millis) {
+        GameObject target = mTarget;
+        if (target == null) {
+            return;
+        }
+        if (target.removalRequested()) {
+            mTarget = null;
+            return;
+        }
+        if (mFollowLag <= 0) {
+            moveCenterTo(target.getX(), target.getY());
+        } else {
+            float step = 1.0f - (float) Math.exp(-millis / 1000.0f / mFollowLag);
+            moveCenterTo(getX() + (target.getX() - getX()) * step,
+                    getY() + (target.getY() - getY()) * step);
+        }
+    }
+
+    /**
+     * Write where the camera is and how it's set up, for {@link WorldSnapshot}.  The target is
+     * saved by the snapshot.
+     */
+    void writeState(ByteBuffer out) {
+        out.putFloat(mLeft);
+        out.putFloat(mTop);
+        out.putFloat(mZoom);
+        out.putFloat(mFollowLag);
+        out.put((byte) (mHasBounds ? 1 : 0));
+        out.putFloat(mBounds.left);
+        out.putFloat(mBounds.top);
+        out.putFloat(mBounds.right);
+        out.putFloat(mBounds.bottom);
+    }
+
+    /**
+     * Read back what {@link #writeState} wrote.
+     *
+     * @param target the object to follow, or {@code null}
+     */
+    void readState(ByteBuffer in, GameObject target) {
+        mLeft = in.getFloat();
+        mTop = in.getFloat();
+        mZoom = in.getFloat();
+        mFollowLag = in.getFloat();
+        mHasBounds = in.get() != 0;
+        mBounds.set(in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat());
+        mTarget = target;
+    }
+
+    /**
+     * Put the camera back where a new level expects it: at (0, 0), unzoomed and unbounded.
+     */
+    void reset() {
+        mLeft = 0;
+        mTop = 0;
+        mZoom = 1.0f;
+        mTarget = null;
+        mFollowLag = 0;
+        mHasBounds = false;
+    }
+
+    private void moveCenterTo(float centerX, float centerY) {
+        mLeft = centerX - getViewWidth() / 2;
+        mTop = centerY - getViewHeight() / 2;
+        clamp();
+    }
+
+    private void clamp() {
+        if (!mHasBounds) {
+            return;
+        }
+        mLeft = clampAxis(mLeft, getViewWidth(), mBounds.left, mBounds.right);
+        mTop = clampAxis(mTop, getViewHeight(), mBounds.top, mBounds.bottom);
+    }
+
+    private static float clampAxis(float start, float size, float min, float max) {
+        if (size >= max - min) {
+            return (min + max - size) / 2;
+        }
+        return Math.max(min, Math.min(start, max - size));
+    }
+}
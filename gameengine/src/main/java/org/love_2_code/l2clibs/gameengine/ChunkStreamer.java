@@ -0,0 +1,483 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.util.SparseArray;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <h1>Keeps only the part of a big world near the camera in the game</h1>
+ * <p>
+ * The world is divided into square chunks.  Chunks within a few chunks of the camera are
+ * loaded, on a background thread, by asking a {@link Source} to build their objects.  When the
+ * camera moves away, far chunks have their objects written out by the same source, and the
+ * objects are taken out of the game (and go back to their pools).  The next time the chunk is
+ * loaded the source gets back what it wrote, so anything that happened there is remembered.
+ * That way the number of objects in the game, and so the cost of a frame, depends on how much
+ * is around the camera, not on how big the world is.
+ * </p>
+ * <p>
+ * Set one up in your level's setup():
+ * </p>
+ * <pre>
+ *     mManager.setChunkStreamer(new ChunkStreamer(new MyWorldSource(), 1000, 1));
+ * </pre>
+ * <p>
+ * Only objects loaded by the streamer are ever unloaded; the player and anything else the
+ * level adds itself stay put.  An object belongs to the chunk it is in, so a monster that walks
+ * from one chunk to the next is saved with the second one.  The chunk the camera is in is
+ * always loaded before the next frame is drawn, waiting for it if need be, and chunks are
+ * unloaded only once they're a chunk beyond the load radius, so moving back and forth over a
+ * chunk edge doesn't load and unload the same chunks over and over.
+ * </p>
+ * <p>
+ * What the source writes is kept in a {@link Store}.  By default that is a {@link MemoryStore},
+ * which keeps every chunk's data for as long as the streamer lives, so memory use grows with
+ * how much of the world has been visited, not just with what is near the camera.  For a big
+ * world, pass your own store that writes the data to a file or database instead.
+ * </p>
+ * <p>
+ * Chunk coordinates are limited to -32767 to 32767 in each direction.
+ * </p>
+ */
+
+public final class ChunkStreamer {
+    static final int NO_CHUNK = Integer.MIN_VALUE;
+    private static final int MAX_CHUNK_COORD = 32767;
+
+    private static final int LOADING = 0;
+    private static final int LOADED = 1;
+    private static final int UNLOADING = 2;
+
+    /**
+     * Builds and saves the objects of each chunk, usually from the level's data.
+     */
+    public interface Source {
+        /**
+         * Build the objects in one chunk.
+         * <p>
+         * Runs on a background thread while the game keeps going, so it mustn't use the
+         * manager, object pools or objects that are in the game.  Just make new objects.
+         * </p>
+         *
+         * @param chunkX horizontal chunk number; the chunk starts at {@code chunkX * size}
+         * @param chunkY vertical chunk number; the chunk starts at {@code chunkY * size}
+         * @param saved  what {@link #saveChunk} wrote the last time this chunk was unloaded, or
+         *               {@code null} if it has never been unloaded or nothing was written
+         * @param out    list to add the chunk's objects to
+         * @throws IOException if the saved data can't be read
+         */
+        void loadChunk(int chunkX, int chunkY, DataInput saved, List<GameObject> out)
+                throws IOException;
+
+        /**
+         * Write whatever is needed to rebuild a chunk's objects later, just before they are
+         * taken out of the game.  Runs on the game thread.  Write nothing to have the chunk
+         * built from scratch next time.
+         *
+         * @param chunkX  horizontal chunk number
+         * @param chunkY  vertical chunk number
+         * @param objects the chunk's objects
+         * @param out     where to write
+         * @throws IOException if writing fails
+         */
+        void saveChunk(int chunkX, int chunkY, List<GameObject> objects, DataOutput out)
+                throws IOException;
+    }
+
+    /**
+     * Keeps the data {@link Source#saveChunk} writes for unloaded chunks.
+     * <p>
+     * {@link #write} is called on the game thread as a chunk is unloaded, and {@link #read} on
+     * the loading thread as it is loaded again, so a store must be safe to use from both.
+     * </p>
+     */
+    public interface Store {
+        /**
+         * Get the data last written for a chunk.
+         *
+         * @return the data, or {@code null} if there is none
+         * @throws IOException if the data can't be read
+         */
+        byte[] read(int chunkX, int chunkY) throws IOException;
+
+        /**
+         * Keep the data for a chunk, replacing anything written for it before.
+         *
+         * @param data the data to keep, or {@code null} to forget the chunk's data
+         * @throws IOException if the data can't be written
+         */
+        void write(int chunkX, int chunkY, byte[] data) throws IOException;
+    }
+
+    /**
+     * The default {@link Store}, which keeps everything in memory.  It never lets go of a
+     * chunk's data, so it only suits worlds small enough for all of it to fit.
+     */
+    public static final class MemoryStore implements Store {
+        private final SparseArray<byte[]> mSaved = new SparseArray<>();
+
+        @Override
+        public synchronized byte[] read(int chunkX, int chunkY) {
+            return mSaved.get(key(chunkX, chunkY));
+        }
+
+        @Override
+        public synchronized void write(int chunkX, int chunkY, byte[] data) {
+            if (data != null) {
+                mSaved.put(key(chunkX, chunkY), data);
+            } else {
+                mSaved.remove(key(chunkX, chunkY));
+            }
+        }
+
+        /**
+         * @return the number of chunks with data kept
+         */
+        public synchronized int getChunkCount() {
+            return mSaved.size();
+        }
+    }
+
+    private static final class Chunk {
+        final int key;
+        final int x, y;
+        int state = LOADING;
+        FutureTask<List<GameObject>> task;
+        final ArrayList<GameObject> objects = new ArrayList<>();   // Filled in when unloading
+
+        Chunk(int x, int y) {
+            this.key = key(x, y);
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private final Source mSource;
+    private final float mChunkSize;
+    private final int mLoadRadius;
+    private final SparseArray<Chunk> mChunks = new SparseArray<>();
+    private final Store mStore;
+    private int mLoadingCount;
+    private boolean mStarted;
+    private int mCenterX, mCenterY;     // Chunk the camera was in at the last step
+    private final ArrayList<Chunk> mFar = new ArrayList<>();
+    private final ByteArrayOutputStream mSaveBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream mSaveOut = new DataOutputStream(mSaveBuffer);
+
+    /**
+     * @param source     builds and saves the chunks
+     * @param chunkSize  width and height of a chunk, in world units.  A screen or so is a good
+     *                   size.
+     * @param loadRadius how many chunks around the camera's chunk to keep loaded in each
+     *                   direction; 1 means a 3x3 block of chunks
+     */
+    public ChunkStreamer(Source source, float chunkSize, int loadRadius) {
+        this(source, chunkSize, loadRadius, new MemoryStore());
+    }
+
+    /**
+     * @param source     builds and saves the chunks
+     * @param chunkSize  width and height of a chunk, in world units
+     * @param loadRadius how many chunks around the camera's chunk to keep loaded in each
+     *                   direction
+     * @param store      where to keep the data saved for unloaded chunks
+     */
+    public ChunkStreamer(Source source, float chunkSize, int loadRadius, Store store) {
+        if (!(chunkSize > 0.0f)) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        if (loadRadius < 0) {
+            throw new IllegalArgumentException("loadRadius must not be negative: " + loadRadius);
+        }
+        mSource = source;
+        mChunkSize = chunkSize;
+        mLoadRadius = loadRadius;
+        mStore = store;
+    }
+
+    public float getChunkSize() {
+        return mChunkSize;
+    }
+
+    public int getLoadRadius() {
+        return mLoadRadius;
+    }
+
+    /**
+     * @param coord a horizontal or vertical world position
+     * @return the number of the chunk that position is in
+     */
+    public int chunkOf(float coord) {
+        float c = (float) Math.floor(coord / mChunkSize);
+        return (int) Math.max(-MAX_CHUNK_COORD, Math.min(MAX_CHUNK_COORD, c));
+    }
+
+    /**
+     * @return {@code true} if the chunk's objects are in the game
+     */
+    public boolean isChunkLoaded(int chunkX, int chunkY) {
+        Chunk chunk = mChunks.get(key(chunkX, chunkY));
+        return chunk != null && chunk.state == LOADED;
+    }
+
+    /**
+     * @return the number of chunks whose objects are in the game
+     */
+    public int getLoadedChunkCount() {
+        return mChunks.size() - mLoadingCount;
+    }
+
+    /**
+     * @return the number of chunks still being loaded
+     */
+    public int getLoadingChunkCount() {
+        return mLoadingCount;
+    }
+
+    /**
+     * @return the number of unloaded chunks with saved data waiting for them, or -1 if they
+     * are kept in a {@link Store} other than a {@link MemoryStore}
+     */
+    public int getSavedChunkCount() {
+        return (mStore instanceof MemoryStore) ? ((MemoryStore) mStore).getChunkCount() : -1;
+    }
+
+    private static int key(int chunkX, int chunkY) {
+        return (chunkX << 16) | (chunkY & 0xffff);
+    }
+
+    /**
+     * Bring in finished chunks, and if the camera has moved to another chunk, unload the far
+     * chunks and start loading the near ones.  Called by the manager between updates.
+     */
+    void step(GameObjectManager manager) {
+        if (mLoadingCount > 0) {
+            addFinishedChunks(manager);
+        }
+        Camera camera = manager.getCamera();
+        int centerX = chunkOf(camera.getX());
+        int centerY = chunkOf(camera.getY());
+        if (mStarted && centerX == mCenterX && centerY == mCenterY) {
+            return;
+        }
+        mStarted = true;
+        mCenterX = centerX;
+        mCenterY = centerY;
+        unloadFarChunks(manager);
+        loadNearChunks(manager);
+        addFinishedChunks(manager);
+
+        // Never leave the camera looking at an empty chunk
+        Chunk center = mChunks.get(key(centerX, centerY));
+        if (center.state == LOADING) {
+            addChunk(manager, center);
+        }
+    }
+
+    /**
+     * Stop loading.  Chunks being loaded are dropped; loaded objects stay in the game.
+     */
+    void cancel() {
+        for (int i = 0; i < mChunks.size(); i++) {
+            Chunk chunk = mChunks.valueAt(i);
+            if (chunk.state == LOADING) {
+                chunk.task.cancel(false);
+            }
+        }
+        mChunks.clear();
+        mLoadingCount = 0;
+    }
+
+    private void addFinishedChunks(GameObjectManager manager) {
+        for (int i = 0; i < mChunks.size(); i++) {
+            Chunk chunk = mChunks.valueAt(i);
+            if (chunk.state == LOADING && chunk.task.isDone()) {
+                addChunk(manager, chunk);
+            }
+        }
+    }
+
+    /**
+     * Add a chunk's objects to the game, waiting for them if they aren't loaded yet.
+     */
+    private void addChunk(GameObjectManager manager, Chunk chunk) {
+        List<GameObject> objects = getLoaded(chunk);
+        for (int i = 0; i < objects.size(); i++) {
+            GameObject obj = objects.get(i);
+            manager.addObject(obj);
+            obj.chunkKey = chunk.key;
+        }
+        chunk.state = LOADED;
+        chunk.task = null;
+        mLoadingCount--;
+    }
+
+    private static List<GameObject> getLoaded(Chunk chunk) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return chunk.task.get();
+                } catch (InterruptedException e) {
+                    // The chunk's objects are needed, so keep waiting
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable failure = e.getCause();
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            throw new IllegalStateException("Couldn't load chunk " + chunk.x + "," + chunk.y,
+                    failure);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean isFar(Chunk chunk) {
+        // One chunk of slack, so crossing back and forth over an edge doesn't thrash
+        return Math.abs(chunk.x - mCenterX) > mLoadRadius + 1
+                || Math.abs(chunk.y - mCenterY) > mLoadRadius + 1;
+    }
+
+    private void unloadFarChunks(GameObjectManager manager) {
+        mFar.clear();
+        for (int i = 0; i < mChunks.size(); i++) {
+            Chunk chunk = mChunks.valueAt(i);
+            if (!isFar(chunk)) {
+                continue;
+            }
+            if (chunk.state == LOADING) {
+                chunk.task.cancel(false);
+                mLoadingCount--;
+            } else {
+                chunk.state = UNLOADING;
+            }
+            mFar.add(chunk);
+        }
+        if (mFar.isEmpty()) {
+            return;
+        }
+
+        // Objects that have moved into another loaded chunk now belong to it; objects out in
+        // unloaded parts of the world stay with the chunk they were last in
+        for (int i = 0; i < manager.getObjectCount(); i++) {
+            GameObject obj = manager.getObjectAt(i);
+            if (obj.chunkKey == NO_CHUNK || obj.removalRequested()) {
+                continue;
+            }
+            int now = key(chunkOf(obj.boundingRect.centerX()), chunkOf(obj.boundingRect.centerY()));
+            if (now != obj.chunkKey) {
+                Chunk chunk = mChunks.get(now);
+                if (chunk != null && chunk.state == LOADED) {
+                    obj.chunkKey = now;
+                }
+            }
+            Chunk owner = mChunks.get(obj.chunkKey);
+            if (owner != null && owner.state == UNLOADING) {
+                owner.objects.add(obj);
+            }
+        }
+
+        for (int i = 0; i < mFar.size(); i++) {
+            Chunk chunk = mFar.get(i);
+            if (chunk.state == UNLOADING) {
+                save(chunk);
+                for (int j = 0; j < chunk.objects.size(); j++) {
+                    manager.removeObjectNow(chunk.objects.get(j));
+                }
+                chunk.objects.clear();
+            }
+            mChunks.remove(chunk.key);
+        }
+        mFar.clear();
+    }
+
+    private void save(Chunk chunk) {
+        mSaveBuffer.reset();
+        try {
+            mSource.saveChunk(chunk.x, chunk.y, chunk.objects, mSaveOut);
+            mSaveOut.flush();
+            mStore.write(chunk.x, chunk.y,
+                    (mSaveBuffer.size() > 0) ? mSaveBuffer.toByteArray() : null);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't save chunk " + chunk.x + "," + chunk.y, e);
+        }
+    }
+
+    private void loadNearChunks(GameObjectManager manager) {
+        // The camera's own chunk first, as it's needed soonest
+        requestChunk(manager, mCenterX, mCenterY);
+        for (int y = mCenterY - mLoadRadius; y <= mCenterY + mLoadRadius; y++) {
+            for (int x = mCenterX - mLoadRadius; x <= mCenterX + mLoadRadius; x++) {
+                if (Math.abs(x) <= MAX_CHUNK_COORD && Math.abs(y) <= MAX_CHUNK_COORD) {
+                    requestChunk(manager, x, y);
+                }
+            }
+        }
+    }
+
+    private void requestChunk(GameObjectManager manager, final int x, final int y) {
+        if (mChunks.get(key(x, y)) != null) {
+            return;
+        }
+        Chunk chunk = new Chunk(x, y);
+        chunk.task = new FutureTask<>(new Callable<List<GameObject>>() {
+            @Override
+            public List<GameObject> call() throws IOException {
+                List<GameObject> objects = new ArrayList<>();
+                byte[] saved = mStore.read(x, y);
+                DataInput in = (saved == null) ? null
+                        : new DataInputStream(new ByteArrayInputStream(saved));
+                mSource.loadChunk(x, y, in, objects);
+                return objects;
+            }
+        });
+        mChunks.put(chunk.key, chunk);
+        mLoadingCount++;
+        if (manager.isBackgroundLoading()) {
+            manager.getLoader().execute(chunk.task);
+        } else {
+            chunk.task.run();
+        }
+    }
+}
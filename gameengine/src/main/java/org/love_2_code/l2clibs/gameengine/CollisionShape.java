@@ -38,6 +38,8 @@ public class CollisionShape {
     private int countAxes;
     private boolean goodNormals;
     private boolean goodAxes;
+    // Reused by collideWith() so collision checks don't allocate
+    private final CollisionProjection mProjection = new CollisionProjection(0, 0);
 
 
     public CollisionShape(CollisionVertex[] verts) {
@@ -79,11 +81,14 @@ public class CollisionShape {
     public boolean collideWith(CollisionShape other, double x, double y, double other_x, double other_y) {
         CollisionVector overlap_axis;
         double overlap = 1000000;  // overlap in pixels
-        CollisionProjection projection, other_projection;
+        CollisionProjection projection = mProjection;
+        CollisionProjection other_projection = other.mProjection;
 //        Log.d("SAT", "#####Projecting onto host axes...");
-        for (CollisionVector axis : axes) {
-            projection = projectOnto(axis, x, y);
-            other_projection = other.projectOnto(axis, other_x, other_y);
+        // Only the first countAxes entries are filled in; parallel normals were skipped
+        for (int i = 0; i < countAxes; i++) {
+            CollisionVector axis = axes[i];
+            projectOnto(axis, x, y, projection);
+            other.projectOnto(axis, other_x, other_y, other_projection);
             if (!projection.overlaps(other_projection)) {
                 return false;
             }
@@ -96,9 +101,10 @@ public class CollisionShape {
 //            }
         }
 //        Log.d("SAT", "#####Projecting onto other axes...");
-        for (CollisionVector axis : other.axes) {
-            projection = projectOnto(axis, x, y);
-            other_projection = other.projectOnto(axis, other_x, other_y);
+        for (int i = 0; i < other.countAxes; i++) {
+            CollisionVector axis = other.axes[i];
+            projectOnto(axis, x, y, projection);
+            other.projectOnto(axis, other_x, other_y, other_projection);
             if (!projection.overlaps(other_projection)) {
                 return false;
             }
@@ -140,16 +146,47 @@ public class CollisionShape {
     }
 
     public CollisionProjection projectOnto(CollisionVector axis, double offset_x, double offset_y) {
+        CollisionProjection projection = new CollisionProjection(0, 0);
+        projectOnto(axis, offset_x, offset_y, projection);
+        return projection;
+    }
+
+    /**
+     * Same as {@link #projectOnto(CollisionVector, double, double)}, filling in an existing
+     * projection instead of making a new one.
+     */
+    void projectOnto(CollisionVector axis, double offset_x, double offset_y, CollisionProjection out) {
         double min, max;
         min = max = verticies[0].projectOnto(axis, offset_x, offset_y);
-        for (CollisionVertex vert : verticies) {
-            double p = vert.projectOnto(axis, offset_x, offset_y);
+        for (int i = 1; i < verticies.length; i++) {
+            double p = verticies[i].projectOnto(axis, offset_x, offset_y);
             if (p < min) {
                 min = p;
             } else if (p > max) {
                 max = p;
             }
         }
-        return new CollisionProjection(min, max);
+        out.min = min;
+        out.max = max;
+    }
+
+    /**
+     * Checks whether a point is inside this shape when the shape is centered at (x, y).
+     * Works for any simple polygon, not just convex ones.
+     */
+    public boolean contains(double px, double py, double x, double y) {
+        boolean inside = false;
+        int n = verticies.length;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double xi = verticies[i].x + x;
+            double yi = verticies[i].y + y;
+            double xj = verticies[j].x + x;
+            double yj = verticies[j].y + y;
+            // Count crossings of a ray heading right from the point
+            if ((yi > py) != (yj > py) && px < (xj - xi) * (py - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
     }
 }
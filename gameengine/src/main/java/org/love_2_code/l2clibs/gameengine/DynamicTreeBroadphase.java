@@ -0,0 +1,474 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>[internal] Broadphase that keeps objects in a balanced tree of bounding boxes</h1>
+ * <p>
+ * Each object is a leaf holding a "fat" copy of its bounding box, grown by a margin and stretched
+ * in the direction the object is moving.  Each inner node holds the box around both of its
+ * children, so a query can skip whole branches that don't touch the query area.  Small moves
+ * that stay inside the fat box cost nothing; bigger ones take the leaf out and put it back in
+ * the best spot, rotating nodes on the way up to keep the tree balanced.
+ * </p>
+ * <p>
+ * Unlike a grid there is no cell size to tune, so huge floor slabs and tiny bullets can share a
+ * level without either one slowing things down.
+ * </p>
+ * <p>
+ * Nodes are kept in parallel arrays indexed by node number, and freed nodes are reused, so
+ * moving objects around doesn't allocate.
+ * </p>
+ */
+
+final class DynamicTreeBroadphase extends Broadphase {
+    static final float DEFAULT_MARGIN = 10.0f;
+    private static final float VELOCITY_LOOKAHEAD_SECONDS = 0.1f;
+    private static final int NULL_NODE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final float mMargin;
+
+    // Node storage.  A node is a leaf when its left child is NULL_NODE, and free when its
+    // height is -1 (free nodes are chained through mLeft).
+    private float[] mMinX, mMinY, mMaxX, mMaxY;
+    private int[] mParent, mLeft, mRight, mHeight;
+    private GameObject[] mObjects;
+    private int mRoot = NULL_NODE;
+    // Proxies of removed objects, kept for the next objects added
+    private final ArrayList<Proxy> mFreeProxies = new ArrayList<>();
+    private int mFreeList = NULL_NODE;
+    private int mNodeCount;
+
+    /**
+     * The leaf an object lives in, kept in {@link GameObject#broadphaseData}
+     */
+    private static final class Proxy {
+        int node;
+    }
+
+    DynamicTreeBroadphase(float margin) {
+        if (!(margin >= 0.0f)) {
+            throw new IllegalArgumentException("margin must not be negative: " + margin);
+        }
+        mMargin = margin;
+        allocateStorage(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void add(GameObject obj) {
+        int leaf = allocateNode();
+        mObjects[leaf] = obj;
+        mHeight[leaf] = 0;
+        fatten(leaf, obj);
+        insertLeaf(leaf);
+        int free = mFreeProxies.size();
+        Proxy proxy = (free > 0) ? mFreeProxies.remove(free - 1) : new Proxy();
+        proxy.node = leaf;
+        obj.broadphaseData = proxy;
+    }
+
+    @Override
+    public void remove(GameObject obj) {
+        if (!(obj.broadphaseData instanceof Proxy)) {
+            return;
+        }
+        Proxy proxy = (Proxy) obj.broadphaseData;
+        removeLeaf(proxy.node);
+        freeNode(proxy.node);
+        obj.broadphaseData = null;
+        mFreeProxies.add(proxy);
+    }
+
+    @Override
+    public void update(GameObject obj) {
+        if (!(obj.broadphaseData instanceof Proxy)) {
+            return;
+        }
+        int leaf = ((Proxy) obj.broadphaseData).node;
+        RectF r = obj.boundingRect;
+        if (mMinX[leaf] <= r.left && mMinY[leaf] <= r.top
+                && r.right <= mMaxX[leaf] && r.bottom <= mMaxY[leaf]) {
+            return;
+        }
+        removeLeaf(leaf);
+        fatten(leaf, obj);
+        insertLeaf(leaf);
+    }
+
+    @Override
+    public void query(float left, float top, float right, float bottom, boolean solidOnly,
+                      List<GameObject> out) {
+        if (mRoot != NULL_NODE) {
+            query(mRoot, left, top, right, bottom, solidOnly, out);
+        }
+    }
+
+    /**
+     * Recursive part of {@link #query}.  Recursion keeps all the state on the caller's stack,
+     * so concurrent queries don't get in each other's way.
+     */
+    private void query(int node, float left, float top, float right, float bottom,
+                       boolean solidOnly, List<GameObject> out) {
+        if (!(mMinX[node] < right && left < mMaxX[node]
+                && mMinY[node] < bottom && top < mMaxY[node])) {
+            return;
+        }
+        if (mLeft[node] == NULL_NODE) {
+            GameObject obj = mObjects[node];
+            if ((!solidOnly || obj.isSolid()) && overlaps(obj, left, top, right, bottom)) {
+                out.add(obj);
+            }
+            return;
+        }
+        query(mLeft[node], left, top, right, bottom, solidOnly, out);
+        query(mRight[node], left, top, right, bottom, solidOnly, out);
+    }
+
+    @Override
+    public void findPairs(boolean solidOnly, PairListener listener) {
+        if (mRoot == NULL_NODE) {
+            return;
+        }
+        for (int leaf = 0; leaf < mNodeCount; leaf++) {
+            if (mHeight[leaf] == 0) {
+                findPairs(mRoot, leaf, solidOnly, listener);
+            }
+        }
+    }
+
+    /**
+     * Report every leaf under {@code node} that overlaps {@code leaf}.  Only leaves with a higher
+     * node number are reported, so each pair comes up once.
+     */
+    private void findPairs(int node, int leaf, boolean solidOnly, PairListener listener) {
+        if (!(mMinX[node] < mMaxX[leaf] && mMinX[leaf] < mMaxX[node]
+                && mMinY[node] < mMaxY[leaf] && mMinY[leaf] < mMaxY[node])) {
+            return;
+        }
+        if (mLeft[node] == NULL_NODE) {
+            if (node <= leaf) {
+                return;
+            }
+            GameObject a = mObjects[leaf];
+            GameObject b = mObjects[node];
+            if ((!solidOnly || a.isSolid() || b.isSolid()) && overlaps(a, b)) {
+                listener.onPair(a, b);
+            }
+            return;
+        }
+        findPairs(mLeft[node], leaf, solidOnly, listener);
+        findPairs(mRight[node], leaf, solidOnly, listener);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mNodeCount; i++) {
+            if (mObjects[i] != null) {
+                mObjects[i].broadphaseData = null;
+                mObjects[i] = null;
+            }
+        }
+        mRoot = NULL_NODE;
+        mFreeList = NULL_NODE;
+        mNodeCount = 0;
+    }
+
+    /**
+     * @return height of the tree, 0 for a single leaf and -1 when empty
+     */
+    int getHeight() {
+        return (mRoot == NULL_NODE) ? -1 : mHeight[mRoot];
+    }
+
+    /**
+     * Set a leaf's box to the object's bounding box plus the margin, stretched ahead along the
+     * object's velocity.
+     */
+    private void fatten(int leaf, GameObject obj) {
+        RectF r = obj.boundingRect;
+        float minX = r.left - mMargin;
+        float minY = r.top - mMargin;
+        float maxX = r.right + mMargin;
+        float maxY = r.bottom + mMargin;
+        float aheadX = obj.getdX() * VELOCITY_LOOKAHEAD_SECONDS;
+        float aheadY = obj.getdY() * VELOCITY_LOOKAHEAD_SECONDS;
+        if (aheadX < 0) {
+            minX += aheadX;
+        } else {
+            maxX += aheadX;
+        }
+        if (aheadY < 0) {
+            minY += aheadY;
+        } else {
+            maxY += aheadY;
+        }
+        mMinX[leaf] = minX;
+        mMinY[leaf] = minY;
+        mMaxX[leaf] = maxX;
+        mMaxY[leaf] = maxY;
+    }
+
+    private void insertLeaf(int leaf) {
+        if (mRoot == NULL_NODE) {
+            mRoot = leaf;
+            mParent[leaf] = NULL_NODE;
+            return;
+        }
+
+        // Walk down towards the cheapest sibling, measuring cost as the growth in perimeter
+        int index = mRoot;
+        while (mLeft[index] != NULL_NODE) {
+            int left = mLeft[index];
+            int right = mRight[index];
+            float area = perimeter(index);
+            float combined = unionPerimeter(index, leaf);
+            // Cost of making a new parent for this node and the leaf
+            float cost = 2.0f * combined;
+            // Minimum cost of pushing the leaf further down
+            float inheritance = 2.0f * (combined - area);
+            float costLeft = descendCost(left, leaf) + inheritance;
+            float costRight = descendCost(right, leaf) + inheritance;
+            if (cost < costLeft && cost < costRight) {
+                break;
+            }
+            index = (costLeft < costRight) ? left : right;
+        }
+
+        int sibling = index;
+        int oldParent = mParent[sibling];
+        int newParent = allocateNode();
+        mParent[newParent] = oldParent;
+        mObjects[newParent] = null;
+        mHeight[newParent] = mHeight[sibling] + 1;
+        if (oldParent != NULL_NODE) {
+            replaceChild(oldParent, sibling, newParent);
+        } else {
+            mRoot = newParent;
+        }
+        mLeft[newParent] = sibling;
+        mRight[newParent] = leaf;
+        mParent[sibling] = newParent;
+        mParent[leaf] = newParent;
+
+        refitUpwards(newParent);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == mRoot) {
+            mRoot = NULL_NODE;
+            return;
+        }
+        int parent = mParent[leaf];
+        int grandParent = mParent[parent];
+        int sibling = (mLeft[parent] == leaf) ? mRight[parent] : mLeft[parent];
+        freeNode(parent);
+        if (grandParent != NULL_NODE) {
+            replaceChild(grandParent, parent, sibling);
+            mParent[sibling] = grandParent;
+            refitUpwards(grandParent);
+        } else {
+            mRoot = sibling;
+            mParent[sibling] = NULL_NODE;
+        }
+    }
+
+    /**
+     * Rebalance and recompute boxes and heights from a node up to the root.
+     */
+    private void refitUpwards(int index) {
+        while (index != NULL_NODE) {
+            index = balance(index);
+            int left = mLeft[index];
+            int right = mRight[index];
+            mHeight[index] = 1 + Math.max(mHeight[left], mHeight[right]);
+            setUnion(index, left, right);
+            index = mParent[index];
+        }
+    }
+
+    /**
+     * If one child of {@code a} is more than one level taller than the other, rotate the taller
+     * child up into a's place.
+     *
+     * @return the node now sitting where {@code a} was
+     */
+    private int balance(int a) {
+        if (mLeft[a] == NULL_NODE || mHeight[a] < 2) {
+            return a;
+        }
+        int b = mLeft[a];
+        int c = mRight[a];
+        int skew = mHeight[c] - mHeight[b];
+
+        if (skew > 1) {
+            // Rotate c up
+            int f = mLeft[c];
+            int g = mRight[c];
+            mLeft[c] = a;
+            mParent[c] = mParent[a];
+            mParent[a] = c;
+            if (mParent[c] != NULL_NODE) {
+                replaceChild(mParent[c], a, c);
+            } else {
+                mRoot = c;
+            }
+            // Keep the taller of c's children under c, give the other to a
+            int keep = (mHeight[f] > mHeight[g]) ? f : g;
+            int give = (keep == f) ? g : f;
+            mRight[c] = keep;
+            mRight[a] = give;
+            mParent[give] = a;
+            setUnion(a, b, give);
+            mHeight[a] = 1 + Math.max(mHeight[b], mHeight[give]);
+            setUnion(c, a, keep);
+            mHeight[c] = 1 + Math.max(mHeight[a], mHeight[keep]);
+            return c;
+        }
+
+        if (skew < -1) {
+            // Rotate b up
+            int d = mLeft[b];
+            int e = mRight[b];
+            mLeft[b] = a;
+            mParent[b] = mParent[a];
+            mParent[a] = b;
+            if (mParent[b] != NULL_NODE) {
+                replaceChild(mParent[b], a, b);
+            } else {
+                mRoot = b;
+            }
+            int keep = (mHeight[d] > mHeight[e]) ? d : e;
+            int give = (keep == d) ? e : d;
+            mRight[b] = keep;
+            mLeft[a] = give;
+            mParent[give] = a;
+            setUnion(a, c, give);
+            mHeight[a] = 1 + Math.max(mHeight[c], mHeight[give]);
+            setUnion(b, a, keep);
+            mHeight[b] = 1 + Math.max(mHeight[a], mHeight[keep]);
+            return b;
+        }
+
+        return a;
+    }
+
+    private void replaceChild(int parent, int oldChild, int newChild) {
+        if (mLeft[parent] == oldChild) {
+            mLeft[parent] = newChild;
+        } else {
+            mRight[parent] = newChild;
+        }
+    }
+
+    /**
+     * Cost of putting the leaf somewhere under {@code node}: the perimeter of the combined box,
+     * less what the node already costs if it's an inner node.
+     */
+    private float descendCost(int node, int leaf) {
+        float combined = unionPerimeter(node, leaf);
+        if (mLeft[node] == NULL_NODE) {
+            return combined;
+        }
+        return combined - perimeter(node);
+    }
+
+    // Half the perimeter is enough for comparing costs
+    private float perimeter(int node) {
+        return (mMaxX[node] - mMinX[node]) + (mMaxY[node] - mMinY[node]);
+    }
+
+    private float unionPerimeter(int a, int b) {
+        return (Math.max(mMaxX[a], mMaxX[b]) - Math.min(mMinX[a], mMinX[b]))
+                + (Math.max(mMaxY[a], mMaxY[b]) - Math.min(mMinY[a], mMinY[b]));
+    }
+
+    private void setUnion(int node, int a, int b) {
+        mMinX[node] = Math.min(mMinX[a], mMinX[b]);
+        mMinY[node] = Math.min(mMinY[a], mMinY[b]);
+        mMaxX[node] = Math.max(mMaxX[a], mMaxX[b]);
+        mMaxY[node] = Math.max(mMaxY[a], mMaxY[b]);
+    }
+
+    private int allocateNode() {
+        int node;
+        if (mFreeList != NULL_NODE) {
+            node = mFreeList;
+            mFreeList = mLeft[node];
+        } else {
+            if (mNodeCount == mParent.length) {
+                allocateStorage(mNodeCount * 2);
+            }
+            node = mNodeCount++;
+        }
+        mParent[node] = NULL_NODE;
+        mLeft[node] = NULL_NODE;
+        mRight[node] = NULL_NODE;
+        mHeight[node] = 0;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        mObjects[node] = null;
+        mHeight[node] = -1;
+        mLeft[node] = mFreeList;
+        mFreeList = node;
+    }
+
+    private void allocateStorage(int capacity) {
+        mMinX = grow(mMinX, capacity);
+        mMinY = grow(mMinY, capacity);
+        mMaxX = grow(mMaxX, capacity);
+        mMaxY = grow(mMaxY, capacity);
+        mParent = grow(mParent, capacity);
+        mLeft = grow(mLeft, capacity);
+        mRight = grow(mRight, capacity);
+        mHeight = grow(mHeight, capacity);
+        GameObject[] objects = new GameObject[capacity];
+        if (mObjects != null) {
+            System.arraycopy(mObjects, 0, objects, 0, mNodeCount);
+        }
+        mObjects = objects;
+    }
+
+    private float[] grow(float[] old, int capacity) {
+        float[] grown = new float[capacity];
+        if (old != null) {
+            System.arraycopy(old, 0, grown, 0, mNodeCount);
+        }
+        return grown;
+    }
+
+    private int[] grow(int[] old, int capacity) {
+        int[] grown = new int[capacity];
+        if (old != null) {
+            System.arraycopy(old, 0, grown, 0, mNodeCount);
+        }
+        return grown;
+    }
+}
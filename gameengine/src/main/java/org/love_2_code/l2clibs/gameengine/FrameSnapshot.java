@@ -0,0 +1,101 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.RectF;
+
+/**
+ * <h1>[internal] A copy of everything needed to draw one frame of the game world</h1>
+ * <p>
+ * When drawing happens on its own render thread (see
+ * {@link GameViewThread#setRenderThreadMode(boolean)}), the render thread must not look at game
+ * objects while the simulation thread is busy moving them.  Instead, after each batch of updates
+ * the {@link GameObjectManager} copies the drawable state of every object, in drawing order, into
+ * one of these snapshots and the render thread draws from the copy.
+ * </p>
+ * <p>
+ * Entries are reused from one frame to the next so that taking a snapshot does not allocate.
+ * </p>
+ */
+
+public final class FrameSnapshot {
+    /**
+     * The drawable state of a single game object.  {@link GameObject#captureSnapshot} fills it
+     * in and {@link GameObject#drawSnapshot} draws it.
+     */
+    public static final class Entry {
+        public GameObject obj;
+        public final RectF rect = new RectF();
+        public int imageId;
+        public float rotation;
+        public boolean flipX, flipY;
+        /**
+         * Free for subclasses to stash any other immutable value they need to draw themselves.
+         */
+        public Object extra;
+    }
+
+    private Entry[] mEntries = new Entry[0];
+    private int mCount;
+    Scene scene;
+    float viewLeft, viewTop, viewWidth, viewHeight;   // The camera's view, in world units
+    long stepNanos;     // When the update this shows was due, to interpolate from
+
+    /**
+     * Forget the previous frame's contents, keeping the entries around for reuse.
+     */
+    void clear() {
+        for (int i = 0; i < mCount; i++) {
+            mEntries[i].obj = null;
+            mEntries[i].extra = null;
+        }
+        mCount = 0;
+        scene = null;
+    }
+
+    /**
+     * Append an entry for {@code obj}, growing the entry array if needed.
+     */
+    Entry add(GameObject obj) {
+        if (mCount == mEntries.length) {
+            Entry[] grown = new Entry[Math.max(64, mEntries.length * 2)];
+            System.arraycopy(mEntries, 0, grown, 0, mCount);
+            for (int i = mCount; i < grown.length; i++) {
+                grown[i] = new Entry();
+            }
+            mEntries = grown;
+        }
+        Entry entry = mEntries[mCount++];
+        entry.obj = obj;
+        return entry;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    Entry get(int index) {
+        return mEntries[index];
+    }
+}
@@ -0,0 +1,215 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * <h1>Records how long each phase of every frame takes, so stutter can be measured</h1>
+ * <p>
+ * An average frame rate hides the occasional slow frame that players notice as a hitch.  This
+ * class keeps a histogram of durations for each {@link Phase} of the game loop and can report
+ * percentiles (p50, p95, p99) and the worst case.
+ * </p>
+ * <p>
+ * Histogram buckets grow logarithmically, with 32 evenly-spaced buckets between each power of
+ * two, so any recorded duration is reported within about 3% of its true value.  Recording is a
+ * few arithmetic operations and never allocates, so it is always on.  Each phase must only be
+ * recorded from one thread; reading the numbers from another thread gives approximate results
+ * while frames are still being recorded.
+ * </p>
+ */
+
+public final class FrameStats {
+    /**
+     * The separately-timed parts of a frame.
+     */
+    public enum Phase {
+        LockCanvas, Events, Update, Draw, Post,
+    }
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;   // 2^40 nanoseconds is about 18 minutes
+    private static final long MAX_TRACKABLE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[][] mCounts = new long[Phase.values().length][BUCKET_COUNT];
+    private final long[] mTotalCount = new long[Phase.values().length];
+    private final long[] mMax = new long[Phase.values().length];
+
+    /**
+     * Add one measurement.
+     *
+     * @param phase the part of the frame that was measured
+     * @param nanos how long it took, in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+        int p = phase.ordinal();
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts[p][bucketIndex(Math.min(nanos, MAX_TRACKABLE))]++;
+        mTotalCount[p]++;
+        if (nanos > mMax[p]) {
+            mMax[p] = nanos;
+        }
+    }
+
+    /**
+     * Get a percentile of the recorded durations for one phase.
+     *
+     * @param phase      the part of the frame to report on
+     * @param percentile the percentile wanted, eg 50.0, 95.0 or 99.0
+     * @return the duration in nanoseconds that {@code percentile} percent of measurements were at
+     * or below, or 0 if nothing has been recorded
+     */
+    public long getPercentile(Phase phase, double percentile) {
+        int p = phase.ordinal();
+        long total = mTotalCount[p];
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        target = Math.max(1, target);
+        long[] counts = mCounts[p];
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), mMax[p]);
+            }
+        }
+        return mMax[p];
+    }
+
+    /**
+     * @param phase the part of the frame to report on
+     * @return the longest duration recorded for {@code phase}, in nanoseconds
+     */
+    public long getMax(Phase phase) {
+        return mMax[phase.ordinal()];
+    }
+
+    /**
+     * @param phase the part of the frame to report on
+     * @return the number of measurements recorded for {@code phase}
+     */
+    public long getCount(Phase phase) {
+        return mTotalCount[phase.ordinal()];
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        for (int p = 0; p < mCounts.length; p++) {
+            Arrays.fill(mCounts[p], 0);
+            mTotalCount[p] = 0;
+            mMax[p] = 0;
+        }
+    }
+
+    /**
+     * A one-line summary of p50/p99/max per phase in milliseconds, suitable for logging.
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (getCount(phase) == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append("  ");
+            }
+            sb.append(String.format(Locale.US, "%s p50=%.2f p99=%.2f max=%.2f", phase,
+                    getPercentile(phase, 50.0) / 1e6, getPercentile(phase, 99.0) / 1e6,
+                    getMax(phase) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the percentiles and full histogram of every phase to a text file, eg at the end of a
+     * soak test run.
+     *
+     * @param file the file to create or overwrite
+     * @throws IOException if the file can't be written
+     */
+    public void writeTo(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("# phase count p50_us p95_us p99_us max_us");
+            for (Phase phase : Phase.values()) {
+                out.printf(Locale.US, "%s %d %.1f %.1f %.1f %.1f%n", phase, getCount(phase),
+                        getPercentile(phase, 50.0) / 1e3, getPercentile(phase, 95.0) / 1e3,
+                        getPercentile(phase, 99.0) / 1e3, getMax(phase) / 1e3);
+            }
+            out.println("# phase bucket_upper_us count");
+            for (Phase phase : Phase.values()) {
+                long[] counts = mCounts[phase.ordinal()];
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    if (counts[i] != 0) {
+                        out.printf(Locale.US, "%s %.3f %d%n", phase, bucketUpperBound(i) / 1e3, counts[i]);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Error writing frame stats to " + file);
+        }
+    }
+
+    /**
+     * Values below 32 get a bucket each; above that, each power of two is split into 32 buckets.
+     */
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (nanos >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The largest value that lands in bucket {@code index}.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (((long) (SUB_BUCKETS + sub + 1)) << shift) - 1;
+    }
+}
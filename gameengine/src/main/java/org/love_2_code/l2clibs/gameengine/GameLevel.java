@@ -22,6 +22,14 @@
 
 package org.love_2_code.l2clibs.gameengine;
 
+import android.graphics.Bitmap;
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
 /**
  * <h1>Abstract superclass to represent one level in a game</h1>
  * <p>
@@ -36,6 +44,13 @@ package org.love_2_code.l2clibs.gameengine;
  * subclass of GameLevel, or the same subclass but with a different (presumably more
  * difficult) configuration.
  * </p>
+ * <p>
+ * A level with a lot to load can do much of it in the background while the previous level is
+ * still playing.  List the images and sounds it needs with {@link #declareImages(int...)} and
+ * {@link #declareSounds(int...)} in its constructor, and build its objects in
+ * {@link #preload()} instead of {@link #setup()}.  The manager switches to the level at the
+ * start of the first frame after all that is done.
+ * </p>
  */
 
 abstract public class GameLevel {
@@ -48,6 +63,13 @@ abstract public class GameLevel {
      */
     protected GameObjectManager mManager;
 
+    private int[] mImageIds = new int[0];
+    private int[] mSoundIds = new int[0];
+    // Made by runPreload() on the loading thread, handed to the manager when the level starts
+    private final SparseArray<Bitmap> mPreloadedImages = new SparseArray<>();
+    private final List<GameObject> mPreloadedObjects = new ArrayList<>();
+    Future<?> mPreloadTask;     // Set while the manager has this level loading or loaded
+
     /**
      * This constructor does nothing.  Make your own constructor for your subclass.
      */
@@ -65,10 +87,116 @@ abstract public class GameLevel {
 
     /**
      * Your setup method is where all your work for setting up a new level should go.
+     * <p>
+     * Runs on the game thread when the level starts, after any objects made in
+     * {@link #preload()} have been added, so it can find them by name.
+     * </p>
      */
     public void setup() {
     }
 
+    /**
+     * Override this to build the level's objects ahead of time.
+     * <p>
+     * Runs on a background thread while the previous level is still playing, so it mustn't
+     * change anything the running game uses: don't call the manager here, and don't touch
+     * objects that are already in the game.  Make new objects and hand them over with
+     * {@link #preloadObject(GameObject)}.  Configuring the world, camera and scene belongs in
+     * {@link #setup()}.
+     * </p>
+     */
+    public void preload() {
+    }
+
+    /**
+     * Add an object made in {@link #preload()} to the level.  It joins the game when the
+     * level starts, just before {@link #setup()} is called.
+     *
+     * @param obj a new game object
+     */
+    protected void preloadObject(GameObject obj) {
+        mPreloadedObjects.add(obj);
+    }
+
+    /**
+     * List images this level uses, so they are decoded in the background before the level
+     * starts instead of the first time each is drawn.  Call this from your constructor.
+     *
+     * @param resourceIds image resource IDs, eg {@code R.drawable.frog}
+     */
+    protected void declareImages(int... resourceIds) {
+        mImageIds = concat(mImageIds, resourceIds);
+    }
+
+    /**
+     * List sounds this level uses, so they are loaded before the level starts instead of the
+     * first time each is played.  Call this from your constructor.
+     *
+     * @param resourceIds audio resource IDs, eg {@code R.raw.monster_roar1}
+     */
+    protected void declareSounds(int... resourceIds) {
+        mSoundIds = concat(mSoundIds, resourceIds);
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] both = new int[a.length + b.length];
+        System.arraycopy(a, 0, both, 0, a.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+
+    /**
+     * Start the loading that has to happen on the game thread, and pick out the images that
+     * still need decoding.  Called by the manager before {@link #runPreload}.
+     *
+     * @return images not loaded yet
+     */
+    int[] beginPreload() {
+        for (int id : mSoundIds) {
+            Audio.load(id);
+        }
+        int count = 0;
+        int[] missing = new int[mImageIds.length];
+        for (int id : mImageIds) {
+            if (!Images.isCached(id)) {
+                missing[count++] = id;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(missing, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Decode images and build objects.  May run on any thread.  Synchronized so that loading a
+     * level again waits for a cancelled load of it that is still running.
+     */
+    synchronized void runPreload(int[] imageIds) {
+        // Objects from an earlier, cancelled load of this level would otherwise be added twice
+        mPreloadedObjects.clear();
+        for (int id : imageIds) {
+            if (mPreloadedImages.get(id) == null) {
+                mPreloadedImages.put(id, Images.decode(id));
+            }
+        }
+        preload();
+    }
+
+    /**
+     * Give what was loaded to the game.  Called on the game thread as the level starts.
+     */
+    synchronized void finishPreload() {
+        for (int i = 0; i < mPreloadedImages.size(); i++) {
+            Images.putIfAbsent(mPreloadedImages.keyAt(i), mPreloadedImages.valueAt(i));
+        }
+        mPreloadedImages.clear();
+        for (int i = 0; i < mPreloadedObjects.size(); i++) {
+            mManager.addObject(mPreloadedObjects.get(i));
+        }
+        mPreloadedObjects.clear();
+        mPreloadTask = null;
+    }
+
     /**
      * You can choose how much of your game logic is done by individual sprites and how much
      * is done centrally here in your override of the update method.
@@ -187,4 +315,29 @@ abstract public class GameLevel {
      */
     public void finish() {
     }
+
+    /**
+     * Called when a {@link WorldSnapshot} is captured, after the objects have been written.
+     * <p>
+     * Override this to save the level's own state, like the score or which wave of enemies is
+     * next.  The objects are saved already.
+     * </p>
+     *
+     * @param out where to write
+     */
+    protected void writeState(ByteBuffer out) {
+    }
+
+    /**
+     * Called when a {@link WorldSnapshot} is restored, after the objects are back in the game.
+     * <p>
+     * Read back what {@link #writeState} wrote.  The objects are new, so any references the
+     * level kept to them must be looked up again, for example with
+     * {@link GameObjectManager#getObjectByName}.
+     * </p>
+     *
+     * @param in where to read from
+     */
+    protected void readState(ByteBuffer in) {
+    }
 }
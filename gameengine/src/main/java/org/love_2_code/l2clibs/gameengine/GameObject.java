@@ -26,7 +26,11 @@ import android.graphics.Canvas;
 import android.graphics.RectF;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <h1>Abstract superclass to represent a game object in the game world</h1>
@@ -60,7 +64,9 @@ abstract public class GameObject {
     private float ddX;
     private float ddY = 60.0f;  // Pixels/sec/sec
     private boolean autoDieOffscreen;
-    private static int anonymousCount;
+    // Objects may be made on a level-loading thread while the game makes more
+    private static final AtomicInteger anonymousCount = new AtomicInteger();
+    private int mAnonymousId;           // -1 if this object was given a name
     protected boolean debugMode = false;
 
     /**
@@ -73,6 +79,62 @@ abstract public class GameObject {
     private boolean mRemovalRequested;  // Flag indicating this sprite should be removed
     private int mZOrder;                // Order to draw this on the screen
 
+    /**
+     * Bookkeeping for the manager's {@link Broadphase}.  Do not use.
+     */
+    Object broadphaseData;
+
+    /**
+     * This object's handle in the manager, or {@link ObjectTable#NO_HANDLE}.  Do not use.
+     */
+    int handle = ObjectTable.NO_HANDLE;
+
+    /**
+     * Position in the manager's array of objects, or -1 when not managed.  Do not use.
+     */
+    int denseIndex = -1;
+
+    private PhysicsStore mPhysics;      // Holds our motion instead of the fields above, if set
+    private int mPhysicsIndex = -1;
+    private PositionUpdate mPositionUpdate;
+    private long mTags;                 // One bit per tag id, see Tags
+    private int[] mGroupSlots;          // Position in each tag's ObjectGroup, -1 if not in it
+
+    /**
+     * Slot in the manager's draw list, or -1 when not in it.  Do not use.
+     */
+    int drawIndex = -1;
+
+    /**
+     * When this object joined its z-order layer, to keep the draw order within a layer stable.
+     * Do not use.
+     */
+    long drawSequence;
+
+    /**
+     * The pool this object came from and goes back to when removed, or {@code null}.  Do not use.
+     */
+    ObjectPool<?> pool;
+
+    /**
+     * True while this object sits idle in its pool.  Do not use.
+     */
+    boolean inPool;
+
+    /**
+     * Slot in the manager's list of awake objects, or -1 when not in it.  Do not use.
+     */
+    int activeIndex = -1;
+
+    /**
+     * The {@link ChunkStreamer} chunk this object belongs to, or {@link ChunkStreamer#NO_CHUNK}
+     * if it wasn't loaded by one.  Do not use.
+     */
+    int chunkKey = ChunkStreamer.NO_CHUNK;
+
+    private boolean mAsleep;
+    private long mAsleepSince = -1;     // Manager's update clock when we stopped being updated
+
     /**
      * Basic constructor.
      *
@@ -81,11 +143,149 @@ abstract public class GameObject {
      * @param extent initial area on the screen this sprite will occupy, in world units
      */
     public GameObject(String name, RectF extent) {
-        this.name = (name != null && name.length() > 0) ? name : String.format("anon-%06d", anonymousCount++);
+        if (name != null && name.length() > 0) {
+            this.name = name;
+            mAnonymousId = -1;
+        } else {
+            mAnonymousId = anonymousCount.getAndIncrement();
+            this.name = anonymousName(mAnonymousId);
+        }
         this.boundingRect = extent;
         this.isComplex = false;
     }
 
+    /**
+     * Builds the same name as String.format("anon-%06d", id), without the cost of a Formatter,
+     * which matters when spawning lots of bullets or particles.
+     */
+    private static String anonymousName(int id) {
+        String digits = Integer.toString(id);
+        StringBuilder sb = new StringBuilder(11);
+        sb.append("anon-");
+        for (int i = digits.length(); i < 6; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    /**
+     * @return {@code true} if this object was created without a name.  Anonymous objects are
+     * not kept in the manager's name index.
+     */
+    public boolean isAnonymous() {
+        return mAnonymousId >= 0;
+    }
+
+    /**
+     * Get the handle the {@link GameObjectManager} gave this object when it was added.  A
+     * handle is a cheap way to keep track of an object without keeping it alive: pass it to
+     * {@link GameObjectManager#getObject(int)}, which returns {@code null} once the object has
+     * been removed.
+     *
+     * @return this object's handle, or 0 if the object isn't being managed
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * Give this object a tag, so that it shows up in
+     * {@link GameObjectManager#getObjectsTagged(String)}.  An object can have any number of tags.
+     *
+     * @param tag the tag name, for example "enemy"
+     */
+    public final void addTag(String tag) {
+        addTag(Tags.id(tag));
+    }
+
+    /**
+     * Give this object a tag by number, which skips looking up the name.
+     *
+     * @param tagId a number from {@link Tags#id(String)}
+     * @throws IllegalArgumentException if {@code tagId} isn't a possible tag number
+     */
+    public final void addTag(int tagId) {
+        long bit = Tags.bit(tagId);
+        if ((mTags & bit) == 0) {
+            mTags |= bit;
+            if (manager != null) {
+                manager.objectTagsChanged(this, tagId);
+            }
+        }
+    }
+
+    /**
+     * Take a tag away from this object.
+     *
+     * @param tag the tag name
+     */
+    public final void removeTag(String tag) {
+        removeTag(Tags.id(tag));
+    }
+
+    /**
+     * Take a tag away from this object by number.
+     *
+     * @param tagId a number from {@link Tags#id(String)}
+     * @throws IllegalArgumentException if {@code tagId} isn't a possible tag number
+     */
+    public final void removeTag(int tagId) {
+        long bit = Tags.bit(tagId);
+        if ((mTags & bit) != 0) {
+            mTags &= ~bit;
+            if (manager != null) {
+                manager.objectTagsChanged(this, tagId);
+            }
+        }
+    }
+
+    /**
+     * @param tag the tag name
+     * @return {@code true} if this object has the tag
+     */
+    public final boolean hasTag(String tag) {
+        return hasTag(Tags.id(tag));
+    }
+
+    /**
+     * @param tagId a number from {@link Tags#id(String)}
+     * @return {@code true} if this object has the tag
+     * @throws IllegalArgumentException if {@code tagId} isn't a possible tag number
+     */
+    public final boolean hasTag(int tagId) {
+        return (mTags & Tags.bit(tagId)) != 0;
+    }
+
+    /**
+     * Get all of this object's tags as a bit mask, with bit {@code n} set for tag number
+     * {@code n}.
+     *
+     * @return the tag bits
+     */
+    public final long getTagMask() {
+        return mTags;
+    }
+
+    int groupSlotCount() {
+        return (mGroupSlots == null) ? 0 : mGroupSlots.length;
+    }
+
+    int groupSlot(int tagId) {
+        return (mGroupSlots != null && tagId < mGroupSlots.length) ? mGroupSlots[tagId] : -1;
+    }
+
+    void setGroupSlot(int tagId, int slot) {
+        if (mGroupSlots == null || tagId >= mGroupSlots.length) {
+            if (slot < 0) {
+                return;
+            }
+            int oldLength = (mGroupSlots == null) ? 0 : mGroupSlots.length;
+            mGroupSlots = (mGroupSlots == null) ? new int[tagId + 1] : Arrays.copyOf(mGroupSlots, tagId + 1);
+            Arrays.fill(mGroupSlots, oldLength, tagId + 1, -1);
+        }
+        mGroupSlots[tagId] = slot;
+    }
+
     /**
      * Called by the {@link GameObjectManager} to be sure this game object knows who its
      * manager is.  This method is called automatically - do not use.
@@ -122,15 +322,13 @@ abstract public class GameObject {
             dY += ddY * fracsec;
         }
         if (dX != 0.0f || dY != 0.0f) {
-            PositionUpdate posup = new PositionUpdate(
-                    this.getX(), this.getY(),
-                    this.getX() + dX * fracsec, this.getY() + dY * fracsec);
-
-            interactWithSolids(posup);
-            setXY(posup.newx, posup.newy);
+            float x = getX();
+            float y = getY();
+            float newy = landOnSolids(x, y, x + dX * fracsec, y + dY * fracsec);
+            setXY(x + dX * fracsec, newy);
         }
 
-        if (autoDieOffscreen && isFullyOffScreen()) {
+        if (autoDieOffscreen && manager.isOutsideWorld(this)) {
             requestRemoval();
         }
     }
@@ -147,17 +345,54 @@ abstract public class GameObject {
         }
     }
 
+    /**
+     * Let any solid objects this one is touching stop or bounce it.  Calls onCollision for each
+     * solid it hits.
+     *
+     * @return the vertical position to move to, which may be changed from {@code newy}
+     */
+    float landOnSolids(float oldx, float oldy, float newx, float newy) {
+        ArrayList<GameObject> candidates = manager.acquireQueryList();
+        manager.querySolidsTouching(this, candidates);
+        float landedY = landOnSolids(oldx, oldy, newx, newy, candidates);
+        manager.releaseQueryList(candidates);
+        return landedY;
+    }
+
+    /**
+     * Same as {@link #landOnSolids(float, float, float, float)}, for when the solids this object
+     * touches have already been found.
+     *
+     * @param solids solid objects whose bounding boxes may overlap this one's
+     */
+    float landOnSolids(float oldx, float oldy, float newx, float newy, List<GameObject> solids) {
+        if (mPositionUpdate == null) {
+            mPositionUpdate = new PositionUpdate(oldx, oldy, newx, newy);
+        } else {
+            mPositionUpdate.oldx = oldx;
+            mPositionUpdate.oldy = oldy;
+            mPositionUpdate.newx = newx;
+            mPositionUpdate.newy = newy;
+        }
+        interactWithSolids(mPositionUpdate, solids);
+        return mPositionUpdate.newy;
+    }
+
     public boolean forceCollisionDetection(float x, float y) {
         PositionUpdate posup = new PositionUpdate(
                 this.getX(), this.getY(),
                 this.getX() + x, this.getY() + y);
 
-        interactWithSolids(posup);
+        ArrayList<GameObject> candidates = manager.acquireQueryList();
+        manager.querySolidsTouching(this, candidates);
+        interactWithSolids(posup, candidates);
+        manager.releaseQueryList(candidates);
         return true;
     }
 
-    private void interactWithSolids(PositionUpdate posup) {
-        for (GameObject obj : manager.getSolidObjects()) {
+    private void interactWithSolids(PositionUpdate posup, List<GameObject> candidates) {
+        for (int i = 0; i < candidates.size(); i++) {
+            GameObject obj = candidates.get(i);
             if (this == obj) {
                 continue;
             }
@@ -165,7 +400,9 @@ abstract public class GameObject {
                 continue;
             }
             if (isComplex() || obj.isComplex()) {
-                Log.d("SAT", "Beginning complex check..." + obj.name + this.name);
+                if (debugMode) {
+                    Log.d("SAT", "Beginning complex check..." + obj.name + this.name);
+                }
                 // If either of these objects doesn't have a complex shape,
                 // generate it from the boundingRect
                 if (complexShape == null) {
@@ -176,14 +413,19 @@ abstract public class GameObject {
                 }
 
                 if (complexShape.collideWith(obj.complexShape, (double) this.getX(), (double) this.getY(), (double) obj.getX(), (double) obj.getY())) {
-                    Log.d("SAT", "Colliding!" + this.name + " " + obj.name);
+                    if (debugMode) {
+                        Log.d("SAT", "Colliding!" + this.name + " " + obj.name);
+                    }
+                    obj.wake();
                     onCollision(obj);
                 }
             } else {
                 // If we're moving downwards and our center is above the top of the solid object
-                if (dY > 0 && posup.oldy < obj.boundingRect.top) {
+                float vy = getdY();
+                if (vy > 0 && posup.oldy < obj.boundingRect.top) {
                     posup.newy = obj.boundingRect.top - boundingRect.height() / 2.0f;
-                    dY = (obj.isBouncy) ? -dY : 0;
+                    setdY((obj.isBouncy) ? -vy : 0);
+                    obj.wake();
                     onCollision(obj);
                 }
             }
@@ -220,7 +462,22 @@ abstract public class GameObject {
      * @param msec number of milliseconds until this game object requests automatic removal
      */
     public void setMaxTimeOnScreen(int msec) {
+        if (mPhysics != null) {
+            mPhysics.maxLife[mPhysicsIndex] = msec;
+        }
         mMaxTimeOnScreen = msec;
+        if (msec > 0) {
+            wake();
+        }
+    }
+
+    /**
+     * Get the lifetime set by {@link #setMaxTimeOnScreen(int)}.
+     *
+     * @return milliseconds on screen before automatic removal, or 0 for no limit
+     */
+    public long getMaxTimeOnScreen() {
+        return (mPhysics != null) ? mPhysics.maxLife[mPhysicsIndex] : mMaxTimeOnScreen;
     }
 
     /**
@@ -229,9 +486,46 @@ abstract public class GameObject {
      * @return number of milliseconds this game object has been on screen/managed by the manager.
      */
     public long getTimeOnScreen() {
+        if (mPhysics != null) {
+            return mPhysics.life[mPhysicsIndex];
+        }
+        if (mAsleepSince >= 0 && manager != null) {
+            // Time keeps passing while we sleep, so animations stay in step
+            return mTimeOnScreen + manager.getUpdateClock() - mAsleepSince;
+        }
         return mTimeOnScreen;
     }
 
+    /**
+     * Called by {@link PhysicsStore} when this object's motion moves into, or within, the store.
+     */
+    void attachPhysics(PhysicsStore store, int index) {
+        mPhysics = store;
+        mPhysicsIndex = index;
+    }
+
+    /**
+     * Called by {@link PhysicsStore} to move this object's motion back into its own fields.
+     */
+    void detachPhysics() {
+        int i = mPhysicsIndex;
+        dX = mPhysics.vx[i];
+        dY = mPhysics.vy[i];
+        ddX = mPhysics.ax[i];
+        ddY = mPhysics.ay[i];
+        mTimeOnScreen = mPhysics.life[i];
+        mMaxTimeOnScreen = mPhysics.maxLife[i];
+        mPhysics = null;
+        mPhysicsIndex = -1;
+    }
+
+    /**
+     * @return this object's slot in the manager's {@link PhysicsStore}, or -1 if not batched
+     */
+    int physicsIndex() {
+        return mPhysicsIndex;
+    }
+
     /**
      * Must be implemented by any subclasses to do the work of actually drawing the game object
      * onto the screen.
@@ -242,6 +536,38 @@ abstract public class GameObject {
      */
     abstract public void draw(Canvas c, float xScale, float yScale);
 
+    /**
+     * Copy everything needed to draw this object into a {@link FrameSnapshot} entry.
+     * <p>
+     * Only used when the game is drawn on a separate render thread.  Called on the update thread
+     * between updates, so it is safe to read (and even adjust) this object's state here.
+     * Subclasses that draw more than their bounding box should override this together with
+     * {@link #drawSnapshot}.
+     * </p>
+     *
+     * @param entry the snapshot entry to fill in
+     */
+    protected void captureSnapshot(FrameSnapshot.Entry entry) {
+        entry.rect.set(boundingRect);
+    }
+
+    /**
+     * Draw this object from a snapshot taken by {@link #captureSnapshot}.
+     * <p>
+     * Called on the render thread while the update thread may be changing this object, so
+     * implementations should only use the values in {@code entry}.  The default simply calls
+     * {@link #draw}, which is only safe for objects that never change once added.
+     * </p>
+     *
+     * @param c      the {@link Canvas} object the game is currently being drawn onto
+     * @param entry  the state captured for this object
+     * @param xScale the horizontal scaling factor between world coordinates and screen coordinates
+     * @param yScale the vertical scaling factor between world coordinates and screen coordinates
+     */
+    protected void drawSnapshot(Canvas c, FrameSnapshot.Entry entry, float xScale, float yScale) {
+        draw(c, xScale, yScale);
+    }
+
     /**
      * Checks if this game object's bounding box includes a given point.
      *
@@ -253,6 +579,25 @@ abstract public class GameObject {
         return boundingRect.contains(x, y);
     }
 
+    /**
+     * Checks if a point is inside this game object's complex collision shape, if it has one, or
+     * else its bounding box.  Used for touches when
+     * {@link GameObjectManager#setTouchUsesShapes(boolean)} is turned on.
+     *
+     * @param x horizontal coordinate of the point to check, in world units
+     * @param y vertical coordinate of the point to check, in world units
+     * @return true if the point is inside this object's shape
+     */
+    public boolean containsPrecisely(float x, float y) {
+        if (!contains(x, y)) {
+            return false;
+        }
+        if (isComplex && complexShape != null) {
+            return complexShape.contains(x, y, getX(), getY());
+        }
+        return true;
+    }
+
     /**
      * Instantaneously move the game object a given distance in the given direction.
      *
@@ -264,6 +609,7 @@ abstract public class GameObject {
         float dx = (float) (distance * Math.cos(radians));
         float dy = (float) (distance * Math.sin(radians));
         boundingRect.offset(dx, dy);
+        boundsChanged();
     }
 
     /**
@@ -274,6 +620,7 @@ abstract public class GameObject {
      */
     public void moveBy(float dx, float dy) {
         boundingRect.offset(dx, dy);
+        boundsChanged();
     }
 
     /**
@@ -297,6 +644,7 @@ abstract public class GameObject {
         } else {
             boundingRect.offsetTo(destx, desty);
         }
+        boundsChanged();
     }
 
     /**
@@ -346,6 +694,7 @@ abstract public class GameObject {
     public void setXYWH(float centerX, float centerY, float width, float height) {
         boundingRect.set(centerX - width / 2, centerY - height / 2,
                 centerX + width / 2, centerY + height / 2);
+        boundsChanged();
     }
 
     /**
@@ -411,6 +760,22 @@ abstract public class GameObject {
      */
     public void setUpperLeftXY(float x, float y) {
         boundingRect.offset(x - boundingRect.left, y - boundingRect.top);
+        boundsChanged();
+    }
+
+    /**
+     * Let the manager know this object's bounding box has moved or changed size.  Call this if
+     * you change {@code boundingRect} directly, so collisions see the new position right away
+     * rather than after this object's next update.
+     */
+    protected void boundsChanged() {
+        if (mPhysics != null) {
+            mPhysics.boundsChanged(mPhysicsIndex, boundingRect);
+        }
+        wake();
+        if (manager != null) {
+            manager.objectMoved(this);
+        }
     }
 
     /**
@@ -473,7 +838,12 @@ abstract public class GameObject {
      * Request that the game object manager remove this sprite after this update loop is complete.
      */
     final public void requestRemoval() {
-        mRemovalRequested = true;
+        if (!mRemovalRequested) {
+            mRemovalRequested = true;
+            if (manager != null) {
+                manager.objectRemovalRequested(this);
+            }
+        }
     }
 
     /**
@@ -485,6 +855,201 @@ abstract public class GameObject {
         return mRemovalRequested;
     }
 
+    /**
+     * Stop calling this object's update() until something wakes it.
+     * <p>
+     * A sleeping object is still drawn, collided with and touched; it just isn't updated, so a
+     * level full of scenery costs almost nothing per frame.  It wakes when it is moved, given a
+     * velocity, gravity or a lifetime, hit by a moving object, touched or flung, or when
+     * {@link #wake()} is called.  Objects that don't override update() fall asleep by
+     * themselves whenever they are still, unless
+     * {@link GameObjectManager#setAutoSleep(boolean)} is turned off.  Subclasses that override
+     * update() can call this when they have nothing to do, for example while far off-screen.
+     * </p>
+     * <p>
+     * {@link #getTimeOnScreen()} keeps counting while asleep.
+     * </p>
+     */
+    public final void sleep() {
+        if (!mAsleep) {
+            mAsleep = true;
+            if (manager != null) {
+                manager.objectSleepRequested(this);
+            }
+        }
+    }
+
+    /**
+     * Start calling this object's update() again after {@link #sleep()}.  Does nothing if it is
+     * awake.
+     */
+    public final void wake() {
+        if (mAsleep) {
+            mAsleep = false;
+            if (manager != null) {
+                manager.objectWoken(this);
+            }
+        }
+    }
+
+    /**
+     * Check whether this object is asleep.  See {@link #sleep()}.
+     *
+     * @return {@code true} if update() is not being called
+     */
+    public final boolean isAsleep() {
+        return mAsleep;
+    }
+
+    /**
+     * Checks if this object would do nothing in the standard update: still, not falling, with no
+     * lifetime, and not overriding update().
+     */
+    boolean isAtRest() {
+        return getdX() == 0.0f && getdY() == 0.0f && !feelsGravity() && getMaxTimeOnScreen() <= 0
+                && PhysicsStore.isEligible(this);
+    }
+
+    /**
+     * Called by the manager when this object is taken out of, or put back into, the objects it
+     * updates, to keep {@link #getTimeOnScreen()} counting in between.
+     */
+    void setAsleepSince(long clock) {
+        if (clock < 0 && mAsleepSince >= 0 && manager != null) {
+            mTimeOnScreen += manager.getUpdateClock() - mAsleepSince;
+        }
+        mAsleepSince = clock;
+    }
+
+    /**
+     * [internal] Set whether this object is asleep without telling the manager, for
+     * {@link WorldSnapshot}.
+     */
+    void setAsleepFlag(boolean asleep) {
+        mAsleep = asleep;
+    }
+
+    /**
+     * Called when this object goes back into its {@link ObjectPool} after being removed from the
+     * game, to clear out everything from its last life.
+     * <p>
+     * Stops the object, sets gravity, bounciness, solidity, auto-die, lifetime, z-order and tags
+     * back to their defaults and forgets that removal was requested.  The name, position, size
+     * and collision shape are kept.  Subclasses with their own per-life state (health, targets
+     * and so on) should override this, call {@code super.onReset()}, and drop references to
+     * other objects so they can be collected.
+     * </p>
+     */
+    protected void onReset() {
+        dX = 0;
+        dY = 0;
+        ddX = 0;
+        ddY = 60.0f;
+        feelsGravity = false;
+        isBouncy = false;
+        isSolid = false;
+        autoDieOffscreen = false;
+        mTimeOnScreen = 0;
+        mMaxTimeOnScreen = 0;
+        mRemovalRequested = false;
+        mZOrder = 0;
+        mTags = 0;
+        mAsleep = false;
+        mAsleepSince = -1;
+    }
+
+    /**
+     * Called when {@link ObjectPool#acquire()} hands this object out again, before the caller
+     * sets it up.  Does nothing by default.
+     */
+    protected void onReuse() {
+    }
+
+    private static final int STATE_GRAVITY = 1;
+    private static final int STATE_BOUNCY = 2;
+    private static final int STATE_SOLID = 4;
+    private static final int STATE_AUTO_DIE = 8;
+    private static final int STATE_ASLEEP = 16;
+
+    /**
+     * Write this object's changing state for a {@link WorldSnapshot}: name, position, motion,
+     * timers, z-order, tags and whether it is solid, bouncy or asleep.
+     * <p>
+     * Override this if your subclass has state of its own that should be saved, call
+     * {@code super.writeState(out)} first, and read it back the same way in
+     * {@link #readState}.  Things set up the same way every time, like images and collision
+     * shapes, come from the factory given to {@link WorldSnapshot#registerType} instead.
+     * </p>
+     *
+     * @param out where to write
+     */
+    protected void writeState(ByteBuffer out) {
+        WorldSnapshot.putString(out, isAnonymous() ? null : name);
+        out.putFloat(boundingRect.left);
+        out.putFloat(boundingRect.top);
+        out.putFloat(boundingRect.right);
+        out.putFloat(boundingRect.bottom);
+        out.putFloat(getdX());
+        out.putFloat(getdY());
+        out.putFloat(getAccelX());
+        out.putFloat(getAccelY());
+        int flags = 0;
+        if (feelsGravity()) {
+            flags |= STATE_GRAVITY;
+        }
+        if (isBouncy) {
+            flags |= STATE_BOUNCY;
+        }
+        if (isSolid) {
+            flags |= STATE_SOLID;
+        }
+        if (autoDieOffscreen) {
+            flags |= STATE_AUTO_DIE;
+        }
+        if (mAsleep) {
+            flags |= STATE_ASLEEP;
+        }
+        out.put((byte) flags);
+        out.putLong(getTimeOnScreen());
+        out.putLong(getMaxTimeOnScreen());
+        out.putInt(mZOrder);
+        out.putLong(mTags);
+    }
+
+    /**
+     * Read back what {@link #writeState} wrote.  Called on a new or pooled object before it is
+     * added to the game.
+     *
+     * @param in where to read from
+     */
+    protected void readState(ByteBuffer in) {
+        String savedName = WorldSnapshot.getString(in);
+        if (savedName != null) {
+            name = savedName;
+            mAnonymousId = -1;
+        } else if (!isAnonymous()) {
+            mAnonymousId = anonymousCount.getAndIncrement();
+            name = anonymousName(mAnonymousId);
+        }
+        boundingRect.set(in.getFloat(), in.getFloat(), in.getFloat(), in.getFloat());
+        dX = in.getFloat();
+        dY = in.getFloat();
+        ddX = in.getFloat();
+        ddY = in.getFloat();
+        int flags = in.get();
+        feelsGravity = (flags & STATE_GRAVITY) != 0;
+        isBouncy = (flags & STATE_BOUNCY) != 0;
+        isSolid = (flags & STATE_SOLID) != 0;
+        autoDieOffscreen = (flags & STATE_AUTO_DIE) != 0;
+        mAsleep = (flags & STATE_ASLEEP) != 0;
+        mAsleepSince = -1;
+        mTimeOnScreen = in.getLong();
+        mMaxTimeOnScreen = in.getLong();
+        mZOrder = in.getInt();
+        mTags = in.getLong();
+        mRemovalRequested = false;
+    }
+
     /**
      * Sets the order for this object to be drawn on the screen during each screen redraw loop.
      * Higher numbers are drawn later so they appear to be "on top" of earlier items.
@@ -516,7 +1081,7 @@ abstract public class GameObject {
      * @return velocity in pixels per second
      */
     public float getdX() {
-        return dX;
+        return (mPhysics != null) ? mPhysics.vx[mPhysicsIndex] : dX;
     }
 
     /**
@@ -525,7 +1090,14 @@ abstract public class GameObject {
      * @param dX velocity in pixels per second
      */
     public void setdX(float dX) {
-        this.dX = dX;
+        if (mPhysics != null) {
+            mPhysics.vx[mPhysicsIndex] = dX;
+        } else {
+            this.dX = dX;
+        }
+        if (dX != 0.0f) {
+            wake();
+        }
     }
 
     /**
@@ -534,7 +1106,7 @@ abstract public class GameObject {
      * @return velocity in pixels per second
      */
     public float getdY() {
-        return dY;
+        return (mPhysics != null) ? mPhysics.vy[mPhysicsIndex] : dY;
     }
 
     /**
@@ -543,7 +1115,14 @@ abstract public class GameObject {
      * @param dY velocity in pixels per second
      */
     public void setdY(float dY) {
-        this.dY = dY;
+        if (mPhysics != null) {
+            mPhysics.vy[mPhysicsIndex] = dY;
+        } else {
+            this.dY = dY;
+        }
+        if (dY != 0.0f) {
+            wake();
+        }
     }
 
     /**
@@ -552,7 +1131,7 @@ abstract public class GameObject {
      * @return {@code true} if this object feels gravity
      */
     public boolean feelsGravity() {
-        return feelsGravity;
+        return (mPhysics != null) ? mPhysics.feelsGravity(mPhysicsIndex) : feelsGravity;
     }
 
     /**
@@ -561,7 +1140,13 @@ abstract public class GameObject {
      * @param feelsGravity {@code true} to make this object respond to gravity
      */
     public void setFeelsGravity(boolean feelsGravity) {
+        if (mPhysics != null) {
+            mPhysics.setFeelsGravity(mPhysicsIndex, feelsGravity);
+        }
         this.feelsGravity = feelsGravity;
+        if (feelsGravity) {
+            wake();
+        }
     }
 
     /**
@@ -613,7 +1198,7 @@ abstract public class GameObject {
      * @return acceleration in pixels/second/second
      */
     public float getAccelX() {
-        return ddX;
+        return (mPhysics != null) ? mPhysics.ax[mPhysicsIndex] : ddX;
     }
 
     /**
@@ -622,7 +1207,11 @@ abstract public class GameObject {
      * @param accelX acceleration in pixels/second/second
      */
     public void setAccelX(float accelX) {
-        this.ddX = accelX;
+        if (mPhysics != null) {
+            mPhysics.ax[mPhysicsIndex] = accelX;
+        } else {
+            this.ddX = accelX;
+        }
     }
 
     /**
@@ -631,7 +1220,7 @@ abstract public class GameObject {
      * @return acceleration in pixels/second/second
      */
     public float getAccelY() {
-        return ddY;
+        return (mPhysics != null) ? mPhysics.ay[mPhysicsIndex] : ddY;
     }
 
     /**
@@ -640,7 +1229,11 @@ abstract public class GameObject {
      * @param accelY acceleration in pixels/second/second
      */
     public void setAccelY(float accelY) {
-        this.ddY = accelY;
+        if (mPhysics != null) {
+            mPhysics.ay[mPhysicsIndex] = accelY;
+        } else {
+            this.ddY = accelY;
+        }
     }
 
     /**
@@ -658,6 +1251,9 @@ abstract public class GameObject {
      * @param autoDieOffscreen {@code true} to make the object die
      */
     public void setAutoDieOffscreen(Boolean autoDieOffscreen) {
+        if (mPhysics != null) {
+            mPhysics.setAutoDies(mPhysicsIndex, autoDieOffscreen);
+        }
         this.autoDieOffscreen = autoDieOffscreen;
     }
 
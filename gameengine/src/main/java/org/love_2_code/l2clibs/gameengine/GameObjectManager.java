@@ -26,18 +26,21 @@ import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.RectF;
 import android.util.Log;
-import android.view.MotionEvent;
 import android.view.SurfaceView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * <h1>The central class of the game engine, responsible for keeping track of all the game objects
@@ -49,20 +52,63 @@ import java.util.TreeMap;
  * </p>
  */
 
-public final class GameObjectManager implements IMessageClient, GameView.IRedrawService, GameView.IGameLogicService {
+public final class GameObjectManager implements IMessageClient, GameView.IRedrawService,
+        GameView.IGameLogicService, GameView.ISnapshotPublisher {
     final private String TAG = "GameObjectManager";
-    private Map<String, GameObject> mObjects;
+    private static final int INITIAL_DRAW_LIST_CAPACITY = 256;
+    private static final String ANONYMOUS_PREFIX = "anon-";
+    private static final Comparator<GameObject> DRAW_ORDER = new Comparator<GameObject>() {
+        @Override
+        public int compare(GameObject a, GameObject b) {
+            return compareDrawOrder(a, b);
+        }
+    };
+    private final ObjectTable mObjects = new ObjectTable();
     private Scene mScene;
     private GameLevel mLevel;
     private GameLevel mNextLevel;
+    private boolean mNextLevelDue;      // Switch at the next update even if still loading
+    private boolean mBackgroundLevelLoading = true;
+    private ExecutorService mLevelLoader;
+    private ChunkStreamer mChunkStreamer;
     private float mWorldScreenWidth = 1600f, mWorldScreenHeight = 900f;
     private Resources mResources;
-    private SortedMap<Integer, List<GameObject>> mZOrder = new TreeMap<>();
+    private GameObject[] mDrawList = new GameObject[INITIAL_DRAW_LIST_CAPACITY];
+    private int mDrawCount;             // Slots in use, including holes left by removals
+    private int mDrawHoles;
+    private int mDrawSorted;            // Leading slots known to be in draw order
+    private GameObject[] mDrawScratch = new GameObject[0];  // For merging in out of order objects
+    private boolean mDrawListUnsorted;  // Everything needs sorting again
+    private long mNextDrawSequence;
+    private final ObjectCommandBuffer mCommands = new ObjectCommandBuffer();
+    private boolean mUpdating;
+    private final ObjectGroup[] mGroups = new ObjectGroup[Tags.MAX_TAGS];
+    private PhysicsStore mPhysics;
+    private boolean mBatchPhysics;
+    private int mUpdateThreads = 1;
+    private WorkerPool mWorkers;
+    private final Map<Class<?>, ObjectPool<?>> mPools = new HashMap<>();
+    private GameObject[] mActive = new GameObject[INITIAL_DRAW_LIST_CAPACITY];
+    private int mActiveCount;           // Objects that are awake, the only ones updated
+    private boolean mAutoSleep = true;
+    private long mUpdateClock;          // Total milliseconds of all updates so far
+    private final Camera mCamera = new Camera(mWorldScreenWidth, mWorldScreenHeight);
+    private final RectF mWorldBoundary = new RectF();
+    private final RectF mView = new RectF();
+    private int[] mVisible = new int[INITIAL_DRAW_LIST_CAPACITY];   // Draw list slots on screen
     private Set<GameObject> solidThings = new HashSet<>();
     private float rightStickX, rightStickY;
     private float leftStickX, leftStickY;
     private Object mGameState;
     private boolean debugMode = false;
+    private float mInterpolation;
+    private volatile SnapshotExchange mSnapshots;
+    private Broadphase.Type mBroadphaseType = Broadphase.Type.SpatialHash;
+    private float mCollisionCellSize = SpatialHashBroadphase.DEFAULT_CELL_SIZE;
+    private Broadphase mBroadphase = new SpatialHashBroadphase(mCollisionCellSize);
+    private final List<ArrayList<GameObject>> mQueryLists = new ArrayList<>();
+    private int mQueryDepth;
+    private boolean mTouchUsesShapes;
 
     /**
      * An instance of the {@link MessageBus} that can be used to send messages, assuming we start using
@@ -81,7 +127,6 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
     public GameObjectManager(MessageBus mbus, Resources res) {
         mResources = res;
 
-        mObjects = new HashMap<>();
         mBus = mbus;
         mBus.addClient(this);
         Images.setDefaultImage(R.drawable.default_image);
@@ -90,31 +135,237 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
     /**
      * Requests the game engine to move to a different game level after the
      * current update/draw cycle is complete.
+     * <p>
+     * The new level's images, sounds and {@link GameLevel#preload()} are loaded on a background
+     * thread while the current level keeps playing, and the switch happens at the start of the
+     * first frame after loading is done.  For the very first level there is nothing to keep
+     * playing, so the first update waits for it.
+     * </p>
+     * <p>
+     * Setting the level that is already loading again does nothing.  Setting a different one
+     * before the switch happens replaces it: the replaced level's loading is cancelled, and the
+     * game switches to the new level at the next update, waiting for it to load if needed.  So
+     * a game that keeps calling this never waits more than a frame for the change.
+     * </p>
      *
      * @param level a subclass of {@link GameLevel} customized for your game
      */
     public void setLevel(GameLevel level) {
+        if (level == mNextLevel) {
+            return;
+        }
+        if (mNextLevel != null) {
+            cancelPreload(mNextLevel);
+            mNextLevelDue = true;
+        } else if (mBackgroundLevelLoading) {
+            startPreload(level);
+        }
         mNextLevel = level;
     }
 
+    /**
+     * Start loading a level in the background now, without switching to it.  A later
+     * {@link #setLevel(GameLevel)} with the same level then has little or nothing left to
+     * wait for.  Useful while the player is near the end of the current level.
+     *
+     * @param level a level that will be passed to {@link #setLevel(GameLevel)} later
+     */
+    public void preloadLevel(GameLevel level) {
+        startPreload(level);
+    }
+
+    /**
+     * Choose whether new levels load in the background (the default) or all at once at the
+     * start of the next update.  The same goes for the chunks of a {@link ChunkStreamer}.
+     * <p>
+     * Loading in the background keeps the game smooth, but the frame the level changes on then
+     * depends on how long loading takes.  Turn it off when runs must repeat frame for frame,
+     * for example when replaying a recording with {@link InputReplayer}.
+     * </p>
+     *
+     * @param enabled {@code true} to load levels on a background thread
+     */
+    public void setBackgroundLevelLoading(boolean enabled) {
+        mBackgroundLevelLoading = enabled;
+    }
+
+    /**
+     * @return {@code true} if a new level has been set and is still loading
+     */
+    public boolean isLoadingLevel() {
+        return mNextLevel != null;
+    }
+
+    boolean isBackgroundLoading() {
+        return mBackgroundLevelLoading;
+    }
+
+    /**
+     * @return the thread that levels and chunks are loaded on, started the first time it's
+     * needed
+     */
+    ExecutorService getLoader() {
+        if (mLevelLoader == null) {
+            mLevelLoader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG + "-LevelLoader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mLevelLoader;
+    }
+
+    /**
+     * Stream the world in chunks around the camera instead of keeping all of it in the game.
+     * See {@link ChunkStreamer}.  Call this from your level's {@link GameLevel#setup()}; it is
+     * turned off again when the level changes.
+     *
+     * @param streamer the streamer to use, or {@code null} to stop streaming.  Objects already
+     *                 loaded stay in the game.
+     */
+    public void setChunkStreamer(ChunkStreamer streamer) {
+        if (mChunkStreamer != null) {
+            mChunkStreamer.cancel();
+        }
+        mChunkStreamer = streamer;
+    }
+
+    /**
+     * @return the streamer set with {@link #setChunkStreamer(ChunkStreamer)}, or {@code null}
+     */
+    public ChunkStreamer getChunkStreamer() {
+        return mChunkStreamer;
+    }
+
+    private void startPreload(final GameLevel level) {
+        if (level.mPreloadTask != null) {
+            return;
+        }
+        level.setObjectManager(this);
+        final int[] images = level.beginPreload();
+        level.mPreloadTask = getLoader().submit(new Runnable() {
+            @Override
+            public void run() {
+                level.runPreload(images);
+            }
+        });
+    }
+
+    /**
+     * Stop loading a level that won't be switched to after all.  If it is already loading, it
+     * finishes in the background and what it made is dropped.
+     */
+    private static void cancelPreload(GameLevel level) {
+        if (level.mPreloadTask != null) {
+            level.mPreloadTask.cancel(false);
+            level.mPreloadTask = null;
+        }
+    }
+
+    /**
+     * @return {@code true} if the level can be switched to without waiting
+     */
+    private static boolean isPreloaded(GameLevel level) {
+        return level.mPreloadTask == null || level.mPreloadTask.isDone();
+    }
+
+    /**
+     * Finish loading a level, on this thread if it wasn't started in the background.
+     * Exceptions thrown while loading are passed on.
+     */
+    private void waitForPreload(GameLevel level) {
+        if (level.mPreloadTask == null) {
+            level.setObjectManager(this);
+            level.runPreload(level.beginPreload());
+            return;
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    level.mPreloadTask.get();
+                    return;
+                } catch (InterruptedException e) {
+                    // The level can't start half loaded, so keep waiting
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            // Forget the failed attempt, so setting the level again loads it again
+            level.mPreloadTask = null;
+            Throwable failure = e.getCause();
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw (RuntimeException) failure;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Make the change to a new level effective.
      */
     private void gotoNextLevel() {
+        GameLevel next = mNextLevel;
+        mNextLevel = null;
+        mNextLevelDue = false;
+        waitForPreload(next);
         if (mLevel != null) {
             mLevel.finish();
         }
-        mObjects.clear();
-        solidThings.clear();
-        mZOrder.clear();
+        clearObjects();
         mScene = null;
+        mCamera.reset();
+        setChunkStreamer(null);
 
-        mLevel = mNextLevel;
-        mNextLevel = null;
+        mLevel = next;
         mLevel.setObjectManager(this);
+        mLevel.finishPreload();
         mLevel.setup();
     }
 
+    /**
+     * Take every object out of the game, sending pooled ones back to their pools.
+     */
+    void clearObjects() {
+        // Detach first: detaching copies the batch physics state back into each object, which
+        // must happen before the pools reset them or pooled objects come back still moving
+        if (mPhysics != null) {
+            mPhysics.detachAll();
+        }
+        for (ObjectGroup group : mGroups) {
+            if (group != null) {
+                group.removeAll();
+            }
+        }
+        Arrays.fill(mActive, 0, mActiveCount, null);
+        mActiveCount = 0;
+        solidThings.clear();
+        clearDrawList();
+        mBroadphase.clear();
+        mCommands.clear();
+        for (int i = 0; i < mObjects.size(); i++) {
+            GameObject obj = mObjects.getAt(i);
+            obj.activeIndex = -1;
+            obj.setAsleepSince(-1);
+            recycle(obj);
+        }
+        mObjects.clear();
+    }
+
+    /**
+     * @return the level being played, or {@code null} before the first one starts
+     */
+    GameLevel getLevel() {
+        return mLevel;
+    }
+
     /**
      * Returns the cached resources object.
      *
@@ -131,29 +382,57 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      * Objects in this list will have their update() and draw() routines called at regular
      * intervals, and will receive UI events (taps, swipes) that are within their boundary.
      * </p>
+     * <p>
+     * It's safe to call this from a game object's update() or onCollision().  Objects added
+     * while the world is being updated join once every object has had its update, and get
+     * their first update in the next frame.
+     * </p>
      *
      * @param obj a {@link GameObject} or derived class to manage
      */
     public void addObject(GameObject obj) {
-        if (mObjects.containsKey(obj)) {
+        if (mUpdating) {
+            mCommands.add(ObjectCommandBuffer.ADD, obj, 0);
+        } else {
+            addObjectNow(obj);
+        }
+    }
+
+    private void addObjectNow(GameObject obj) {
+        if (mObjects.contains(obj)) {
             hint("Object added multiple times: " + obj.name,
                     "You added the same object to the game manager more than once.  This is " +
                             "probably not what you meant to do.  Are you calling addObject() " +
                             "from update() rather than setup()?");
         } else {
-            GameObject older = getObjectByName(obj.name);
+            GameObject older = obj.isAnonymous() ? null : getObjectByName(obj.name);
             if (older != null) {
                 hint("Object with same name: " + obj.name,
                         "You created an object with the same name as an existing object.  " +
                                 "This will replace the existing object.  If this was not what you " +
                                 "meant to do, give the new object a unique name.");
-                prepareToRemove(older);
+                removeObjectNow(older);
             }
             obj.setManager(this);
-            mObjects.put(obj.name, obj);
+            obj.chunkKey = ChunkStreamer.NO_CHUNK;
+            mObjects.add(obj);
+            addToGroups(obj);
+            if (obj.isAsleep()) {
+                obj.setAsleepSince(mUpdateClock);
+            } else {
+                addToActive(obj);
+                if (mPhysics != null && PhysicsStore.isEligible(obj)) {
+                    mPhysics.attach(obj);
+                }
+            }
+            mBroadphase.add(obj);
             addObjectToZOrder(obj);
             setObjectSolidity(obj, obj.isSolid());
             obj.setDebugMode(this.debugMode || obj.debugMode);
+            if (obj.removalRequested()) {
+                // Asked to be removed before it was added; take it out at the end of the update
+                objectRemovalRequested(obj);
+            }
         }
     }
 
@@ -164,7 +443,44 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      * @return the object, if one was found; otherwise {@code null}.
      */
     public GameObject getObjectByName(String name) {
-        return mObjects.get(name);
+        GameObject obj = mObjects.getByName(name);
+        if (obj == null && name != null && name.startsWith(ANONYMOUS_PREFIX)) {
+            // Anonymous objects aren't in the name index, so look the slow way
+            for (int i = 0; i < mObjects.size(); i++) {
+                GameObject candidate = mObjects.getAt(i);
+                if (candidate.isAnonymous() && name.equals(candidate.name)) {
+                    return candidate;
+                }
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Look up an object by the handle it was given when added.
+     *
+     * @param handle a value from {@link GameObject#getHandle()}
+     * @return the object, or {@code null} if it has since been removed
+     */
+    public GameObject getObject(int handle) {
+        return mObjects.get(handle);
+    }
+
+    /**
+     * Get the number of objects being managed.
+     *
+     * @return the number of objects
+     */
+    public int getObjectCount() {
+        return mObjects.size();
+    }
+
+    /**
+     * @param index 0 to {@link #getObjectCount()} - 1
+     * @return the object at that position; positions change as objects come and go
+     */
+    GameObject getObjectAt(int index) {
+        return mObjects.getAt(index);
     }
 
     /**
@@ -173,19 +489,112 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      * For example, if you register game objects named orc1, orc2, orc3 then you could
      * get a list of these objects by calling with prefix = "orc".
      * </p>
+     * <p>
+     * This makes a new list each time.  For groups of objects that are looked up every frame,
+     * tags are faster: see {@link #getObjectsTagged(String)}.
+     * </p>
      *
      * @param prefix the string to match against the object names.
      * @return a {@link List} containing zero or more game objects.
      */
     public List<GameObject> getObjectsMatching(String prefix) {
-        List<GameObject> objects = new ArrayList<>();
+        return getObjectsMatching(prefix, new ArrayList<GameObject>());
+    }
 
-        for (GameObject obj : mObjects.values()) {
-            if (obj.name.startsWith(prefix)) {
-                objects.add(obj);
+    /**
+     * Add all game objects whose names start with the given prefix to a list, which can be
+     * reused from frame to frame.
+     *
+     * @param prefix the string to match against the object names.
+     * @param out    the list to add the matching objects to
+     * @return {@code out}
+     */
+    public List<GameObject> getObjectsMatching(String prefix, List<GameObject> out) {
+        mObjects.collectByPrefix(prefix, out);
+        if (ANONYMOUS_PREFIX.startsWith(prefix) || prefix.startsWith(ANONYMOUS_PREFIX)) {
+            // Anonymous objects aren't in the name index
+            for (int i = 0; i < mObjects.size(); i++) {
+                GameObject obj = mObjects.getAt(i);
+                if (obj.isAnonymous() && obj.name.startsWith(prefix)) {
+                    out.add(obj);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Get the managed objects that have a tag.
+     * <p>
+     * The result is a live view that the manager keeps up to date, so it can be fetched once
+     * and used every frame without allocating anything.
+     * </p>
+     *
+     * @param tag the tag name, as given to {@link GameObject#addTag(String)}
+     * @return every managed object with that tag
+     */
+    public ObjectGroup getObjectsTagged(String tag) {
+        return getObjectsTagged(Tags.id(tag));
+    }
+
+    /**
+     * Get the managed objects that have a tag, looked up by number.
+     *
+     * @param tagId a number from {@link Tags#id(String)}
+     * @return every managed object with that tag
+     * @throws IllegalArgumentException if {@code tagId} isn't a possible tag number
+     */
+    public ObjectGroup getObjectsTagged(int tagId) {
+        Tags.bit(tagId);    // Checks the range
+        ObjectGroup group = mGroups[tagId];
+        if (group == null) {
+            group = mGroups[tagId] = new ObjectGroup(tagId);
+        }
+        return group;
+    }
+
+    /**
+     * Called by a game object when one of its tags was added or removed.
+     *
+     * @param obj   the object whose tags changed
+     * @param tagId the tag that changed
+     */
+    void objectTagsChanged(GameObject obj, int tagId) {
+        if (mUpdating) {
+            mCommands.add(ObjectCommandBuffer.SYNC_TAG, obj, tagId);
+        } else if (mObjects.contains(obj)) {
+            syncGroup(obj, tagId);
+        }
+    }
+
+    /**
+     * Put an object in or take it out of a tag's group to match whether it has the tag now.
+     */
+    private void syncGroup(GameObject obj, int tagId) {
+        if (obj.hasTag(tagId)) {
+            getObjectsTagged(tagId).addMember(obj);
+        } else if (mGroups[tagId] != null) {
+            mGroups[tagId].removeMember(obj);
+        }
+    }
+
+    private void addToGroups(GameObject obj) {
+        long tags = obj.getTagMask();
+        while (tags != 0) {
+            int tagId = Long.numberOfTrailingZeros(tags);
+            getObjectsTagged(tagId).addMember(obj);
+            tags &= tags - 1;
+        }
+    }
+
+    private void removeFromGroups(GameObject obj) {
+        // Go by group membership rather than the tag bits, which may have changed during the
+        // update without the groups being told yet
+        for (int tagId = 0; tagId < obj.groupSlotCount(); tagId++) {
+            if (obj.groupSlot(tagId) >= 0) {
+                mGroups[tagId].removeMember(obj);
             }
         }
-        return objects;
     }
 
     /**
@@ -222,6 +631,17 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
     public void setWorldScreenSize(float width, float height) {
         mWorldScreenWidth = width;
         mWorldScreenHeight = height;
+        mCamera.setViewportSize(width, height);
+    }
+
+    /**
+     * Get the camera, which chooses the part of the world shown on screen.  Levels larger than
+     * one screen move it or have it follow the player.
+     *
+     * @return the camera
+     */
+    public Camera getCamera() {
+        return mCamera;
     }
 
     /**
@@ -245,7 +665,7 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      * callback returns true, then it has handled the event and that's it.</li>
      * <li>If the level didn't handle the touch, then we go through the list of
      * game objects looking for one that overlaps the touched area.  If there is
-     * one, it gets the touch via its onTouch callback.</li>
+     * one, the topmost (highest z-order) gets the touch via its onTouch callback.</li>
      * <li>Finally, if the event still hasn't been handled, we give the current level
      * another shot by way of the onUnclaimedTouch callback.</li>
      * </ul>
@@ -255,13 +675,16 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      */
     private void checkTouchedObjects(float x, float y) {
         if (!mLevel.onAnyTouch(x, y)) {
-            for (GameObject obj : mObjects.values()) {
-                if (obj.contains(x, y)) {
-                    obj.onTouch(x, y);
-                    return;
-                }
+            ArrayList<GameObject> hits = acquireQueryList();
+            findObjectsAt(x, y, mTouchUsesShapes, hits);
+            GameObject top = hits.isEmpty() ? null : hits.get(0);
+            releaseQueryList(hits);
+            if (top != null) {
+                top.wake();
+                top.onTouch(x, y);
+            } else {
+                mLevel.onUnclaimedTouch(x, y);
             }
-            mLevel.onUnclaimedTouch(x, y);
         }
     }
 
@@ -276,7 +699,7 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      * callback returns true, then it has handled the event and that's it.</li>
      * <li>If the level didn't handle the fling, then we go through the list of
      * game objects looking for one that overlaps the start of the fling action.  If there is
-     * one, it gets the fling via its onFling callback.</li>
+     * one, the topmost (highest z-order) gets the fling via its onFling callback.</li>
      * <li>Finally, if the event still hasn't been handled, we give the current level
      * another shot by way of the onUnclaimedFling callback.</li>
      * </ul>
@@ -286,13 +709,16 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      */
     private void deliverFling(float x, float y, float dx, float dy) {
         if (!mLevel.onAnyFling(x, y, dx, dy)) {
-            for (GameObject obj : mObjects.values()) {
-                if (obj.contains(x, y)) {
-                    obj.onFling(x, y, dx, dy);
-                    return;
-                }
+            ArrayList<GameObject> hits = acquireQueryList();
+            findObjectsAt(x, y, mTouchUsesShapes, hits);
+            GameObject top = hits.isEmpty() ? null : hits.get(0);
+            releaseQueryList(hits);
+            if (top != null) {
+                top.wake();
+                top.onFling(x, y, dx, dy);
+            } else {
+                mLevel.onUnclaimedFling(x, y, dx, dy);
             }
-            mLevel.onUnclaimedFling(x, y, dx, dy);
         }
     }
 
@@ -327,20 +753,22 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      */
     @Override
     public void onMotionEvent(GameView.UIEvent e) {
-        // We receive the event with coordinates normalized 0.0-1.0f.  Scale to our world coords.
-        float x = (e.event1 != null) ? e.event1.getX() * mWorldScreenWidth : 0.0f;
-        float y = (e.event1 != null) ? e.event1.getY() * mWorldScreenHeight : 0.0f;
+        // We receive the event with coordinates normalized 0.0-1.0f.  Scale to the part of the
+        // world the camera is showing.
+        float viewWidth = mCamera.getViewWidth();
+        float viewHeight = mCamera.getViewHeight();
+        float x = mCamera.getViewLeft() + e.x * viewWidth;
+        float y = mCamera.getViewTop() + e.y * viewHeight;
         switch (e.type) {
             case Down:
                 Log.d(TAG, "Event ACTION_DOWN at " + x + "," + y);
                 checkTouchedObjects(x, y);
                 break;
             case Fling:
-                deliverFling(x, y, e.dx * mWorldScreenWidth, e.dy * mWorldScreenHeight);
+                deliverFling(x, y, e.dx * viewWidth, e.dy * viewHeight);
                 break;
             case Scroll:
-                deliverScroll(x, y, e.dx * mWorldScreenWidth, e.dy * mWorldScreenHeight,
-                        e.event2.getAction() == MotionEvent.ACTION_UP);
+                deliverScroll(x, y, e.dx * viewWidth, e.dy * viewHeight, e.finished);
                 break;
             case ButtonDown:
                 if (mLevel != null) {
@@ -353,12 +781,10 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
                 }
                 break;
             case Joystick:
-                leftStickX = e.event1.getAxisValue(MotionEvent.AXIS_X);
-                leftStickY = e.event1.getAxisValue(MotionEvent.AXIS_Y);
-                rightStickX = e.event1.getAxisValue(MotionEvent.AXIS_Z);
-                rightStickY = e.event1.getAxisValue(MotionEvent.AXIS_RZ);
-                Log.d(TAG, "sticks: " + leftStickX + " " + leftStickY + " " + rightStickX + " " + rightStickY);
-                Log.d(TAG, "count: " + e.event1.getHistorySize());
+                leftStickX = e.leftStickX;
+                leftStickY = e.leftStickY;
+                rightStickX = e.rightStickX;
+                rightStickY = e.rightStickY;
                 break;
             default:
                 break;
@@ -368,22 +794,142 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
     /**
      * Called by the game engine thread to redraw all game objects.  Do not call this directly.
      *
-     * @param canvas the current canvas object associated with our {@link SurfaceView}
+     * @param canvas        the current canvas object associated with our {@link SurfaceView}
+     * @param interpolation fraction of an update step elapsed since the last update() call
      */
     @Override
-    public void draw(Canvas canvas) {
-        float xScale = canvas.getWidth() / mWorldScreenWidth;
-        float yScale = canvas.getHeight() / mWorldScreenHeight;
+    public void draw(Canvas canvas, float interpolation) {
+        mInterpolation = interpolation;
+        SnapshotExchange snapshots = mSnapshots;
+        if (snapshots != null) {
+            drawSnapshot(canvas, snapshots.current());
+            return;
+        }
+
+        float xScale = canvas.getWidth() / mCamera.getViewWidth();
+        float yScale = canvas.getHeight() / mCamera.getViewHeight();
 
         // Log.d(TAG, "draw");
         if (mScene != null) {
             mScene.draw(canvas);
         }
-        for (List<GameObject> layer : mZOrder.values()) {
-            for (GameObject obj : layer) {
-                obj.draw(canvas, xScale, yScale);
+        int visible = findVisibleObjects();
+        int saved = canvas.save();
+        canvas.translate(-mCamera.getViewLeft() * xScale, -mCamera.getViewTop() * yScale);
+        for (int i = 0; i < visible; i++) {
+            mDrawList[mVisible[i]].draw(canvas, xScale, yScale);
+        }
+        canvas.restoreToCount(saved);
+    }
+
+    /**
+     * Find the objects the camera can see, and list their slots in the draw list in
+     * {@link #mVisible}, in drawing order.
+     *
+     * @return the number of visible objects
+     */
+    private int findVisibleObjects() {
+        prepareDrawList();
+        if (mVisible.length < mDrawCount) {
+            mVisible = new int[Math.max(mDrawCount, mVisible.length * 2)];
+        }
+        mCamera.getView(mView);
+        ArrayList<GameObject> hits = acquireQueryList();
+        mBroadphase.query(mView.left, mView.top, mView.right, mView.bottom, false, hits);
+        int count = 0;
+        if (hits.size() * 4 > mDrawCount) {
+            // Most of the level is on screen, so going down the draw list is quicker than sorting
+            for (int i = 0; i < mDrawCount; i++) {
+                if (mCamera.isVisible(mDrawList[i].boundingRect)) {
+                    mVisible[count++] = i;
+                }
+            }
+        } else {
+            for (int i = 0; i < hits.size(); i++) {
+                int slot = hits.get(i).drawIndex;
+                if (slot >= 0) {
+                    mVisible[count++] = slot;
+                }
             }
+            Arrays.sort(mVisible, 0, count);
+        }
+        releaseQueryList(hits);
+        return count;
+    }
+
+    /**
+     * Draw a frame from a snapshot published by the update thread rather than from the live
+     * game objects.
+     */
+    private void drawSnapshot(Canvas canvas, FrameSnapshot snapshot) {
+        if (snapshot.viewWidth <= 0 || snapshot.viewHeight <= 0) {
+            // Nothing has been published yet
+            return;
+        }
+        float xScale = canvas.getWidth() / snapshot.viewWidth;
+        float yScale = canvas.getHeight() / snapshot.viewHeight;
+
+        if (snapshot.scene != null) {
+            snapshot.scene.draw(canvas);
+        }
+        int saved = canvas.save();
+        canvas.translate(-snapshot.viewLeft * xScale, -snapshot.viewTop * yScale);
+        for (int i = 0; i < snapshot.size(); i++) {
+            FrameSnapshot.Entry entry = snapshot.get(i);
+            entry.obj.drawSnapshot(canvas, entry, xScale, yScale);
+        }
+        canvas.restoreToCount(saved);
+    }
+
+    /**
+     * Called by the game engine thread when drawing moves to or from a separate render thread.
+     * Do not call this directly.
+     *
+     * @param enabled {@code true} if draw() will be called from a different thread than update()
+     */
+    @Override
+    public void setSnapshotMode(boolean enabled) {
+        mSnapshots = enabled ? new SnapshotExchange() : null;
+    }
+
+    /**
+     * Called by the game engine thread after updating to hand the current state of the world to
+     * the render thread.  Do not call this directly.
+     *
+     * @param stepNanos when the last update was due, for the render thread to interpolate from
+     */
+    @Override
+    public void publishSnapshot(long stepNanos) {
+        SnapshotExchange snapshots = mSnapshots;
+        if (snapshots == null) {
+            return;
+        }
+        FrameSnapshot snapshot = snapshots.beginWrite();
+        snapshot.clear();
+        snapshot.scene = mScene;
+        snapshot.stepNanos = stepNanos;
+        snapshot.viewLeft = mCamera.getViewLeft();
+        snapshot.viewTop = mCamera.getViewTop();
+        snapshot.viewWidth = mCamera.getViewWidth();
+        snapshot.viewHeight = mCamera.getViewHeight();
+        int visible = findVisibleObjects();
+        for (int i = 0; i < visible; i++) {
+            GameObject obj = mDrawList[mVisible[i]];
+            obj.captureSnapshot(snapshot.add(obj));
         }
+        snapshots.publish();
+    }
+
+    /**
+     * Called by the render thread before each draw to pick up the latest snapshot.  Do not call
+     * this directly.
+     *
+     * @return when the snapshot's last update was due
+     */
+    @Override
+    public long acquireSnapshot() {
+        SnapshotExchange snapshots = mSnapshots;
+        return (snapshots != null) ? snapshots.acquireLatest().stepNanos : 0;
     }
 
     /**
@@ -393,35 +939,417 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      */
     @Override
     public void update(int millis) {
-        if (mNextLevel != null) {
+        if (mNextLevel != null && (mLevel == null || mNextLevelDue || isPreloaded(mNextLevel))) {
             gotoNextLevel();
         }
 
         // Log.d(TAG, "update");
-        for (GameObject obj : mObjects.values()) {
+        if (mBatchPhysics != (mPhysics != null)) {
+            applyBatchPhysics();
+        }
+        if (mUpdateThreads != (mWorkers != null ? mWorkers.getThreadCount() : 1)) {
+            applyUpdateThreads();
+        }
+
+        mUpdating = true;
+        for (int i = 0; i < mActiveCount; ) {
+            GameObject obj = mActive[i];
+            if (obj.isAsleep()) {
+                // Asked to sleep since its last update; the last object takes its place
+                putToSleep(obj);
+                continue;
+            }
+            i++;
+            if (obj.physicsIndex() >= 0) {
+                // Updated all together below
+                continue;
+            }
             obj.update(millis);
+            // Catch changes made directly to boundingRect during the update
+            mBroadphase.update(obj);
+        }
+        if (mPhysics != null) {
+            mPhysics.integrate(millis, this, !solidThings.isEmpty(), mWorkers);
         }
         mLevel.update(millis);
+        mCamera.update(millis);
+        mUpdating = false;
+        mUpdateClock += millis;
 
-        // Not available until post-Marshmallow (API 24 or later):
-        //     mObjects.entrySet().removeIf(o -> o.getValue().removalRequested());
-        // So, we go old-school and use an iterator.
-        Iterator<GameObject> it = mObjects.values().iterator();
-        while (it.hasNext()) {
-            GameObject obj = it.next();
-            if (obj.removalRequested()) {
-                prepareToRemove(obj);
-                it.remove();
+        settleActiveObjects();
+        applyCommands();
+        if (mChunkStreamer != null) {
+            mChunkStreamer.step(this);
+        }
+    }
+
+    /**
+     * After an update, put objects that asked to sleep or have come to rest to sleep, and batch
+     * up any objects woken during the update.  Only looks at awake objects, so the cost follows
+     * what is moving, not the size of the level.
+     */
+    private void settleActiveObjects() {
+        for (int i = 0; i < mActiveCount; ) {
+            GameObject obj = mActive[i];
+            if (obj.isAsleep() || (mAutoSleep && obj.isAtRest())) {
+                putToSleep(obj);
+                obj.sleep();
+                continue;
+            }
+            if (mPhysics != null && obj.physicsIndex() < 0 && PhysicsStore.isEligible(obj)) {
+                mPhysics.attach(obj);
             }
+            i++;
         }
     }
 
     /**
-     * Returns a rectangle (RectF) that can be used to check if something is on or off the screen
-     * in world coordinates.
+     * Turn automatic sleeping on or off.  See {@link GameObject#sleep()}.
+     * <p>
+     * When on (the default), objects that don't override {@link GameObject#update} go to sleep
+     * after any update that leaves them with no velocity, no gravity and no lifetime, and wake
+     * when any of those change.  Objects asleep already stay asleep until woken.
+     * </p>
+     *
+     * @param enabled {@code true} to let still objects fall asleep by themselves
+     */
+    public void setAutoSleep(boolean enabled) {
+        mAutoSleep = enabled;
+    }
+
+    /**
+     * @return the number of objects that are awake and being updated
      */
-    private RectF getWorldBoundary() {
-        return new RectF(0, 0, mWorldScreenWidth, mWorldScreenHeight);
+    public int getAwakeObjectCount() {
+        return mActiveCount;
+    }
+
+    /**
+     * @param index 0 to {@link #getAwakeObjectCount()} - 1
+     * @return the object updated at that position.  An object put to sleep during an update
+     * stays in this list until the next update reaches it.
+     */
+    GameObject getAwakeAt(int index) {
+        return mActive[index];
+    }
+
+    /**
+     * @return the total number of milliseconds passed to {@link #update(int)} so far
+     */
+    long getUpdateClock() {
+        return mUpdateClock;
+    }
+
+    void setUpdateClock(long clock) {
+        mUpdateClock = clock;
+    }
+
+    /**
+     * @return {@code true} while {@link #update(int)} is running
+     */
+    boolean isUpdating() {
+        return mUpdating;
+    }
+
+    /**
+     * Called by a game object when {@link GameObject#sleep()} is first called.  Objects asleep
+     * during an update are taken out when the update loop next reaches them.
+     */
+    void objectSleepRequested(GameObject obj) {
+        if (!mUpdating && obj.activeIndex >= 0) {
+            putToSleep(obj);
+        }
+    }
+
+    /**
+     * Called by a game object when it is woken.
+     */
+    void objectWoken(GameObject obj) {
+        if (obj.activeIndex < 0 && mObjects.contains(obj)) {
+            obj.setAsleepSince(-1);
+            addToActive(obj);
+        }
+    }
+
+    private void addToActive(GameObject obj) {
+        if (mActiveCount == mActive.length) {
+            mActive = Arrays.copyOf(mActive, mActiveCount * 2);
+        }
+        obj.activeIndex = mActiveCount;
+        mActive[mActiveCount++] = obj;
+    }
+
+    private void removeFromActive(GameObject obj) {
+        int i = obj.activeIndex;
+        GameObject last = mActive[--mActiveCount];
+        mActive[i] = last;
+        last.activeIndex = i;
+        mActive[mActiveCount] = null;
+        obj.activeIndex = -1;
+    }
+
+    private void putToSleep(GameObject obj) {
+        removeFromActive(obj);
+        if (mPhysics != null) {
+            mPhysics.detach(obj);
+        }
+        obj.setAsleepSince(mUpdateClock);
+    }
+
+    /**
+     * Turn batch physics on or off.
+     * <p>
+     * With batch physics on, objects that don't override {@link GameObject#update} (plain
+     * {@link Sprite}s and {@link Text}, bullets, particles and the like) keep their position,
+     * velocity and acceleration in arrays shared by all such objects, and are all moved in one
+     * pass instead of one update() call each.  They behave exactly the same, but with
+     * thousands of them the update is several times faster.  Objects that do override update()
+     * are updated as usual.
+     * </p>
+     * <p>
+     * Batched objects must be moved with their setters (setXY(), moveBy() and so on).  If you
+     * change a batched object's {@code boundingRect} directly, call its boundsChanged() method
+     * afterwards.  Takes effect at the start of the next update.
+     * </p>
+     *
+     * @param enabled {@code true} to update eligible objects in bulk
+     */
+    public void setBatchPhysics(boolean enabled) {
+        mBatchPhysics = enabled;
+    }
+
+    /**
+     * Spread the batch physics update over several threads.
+     * <p>
+     * The moving of batched objects and the search for solid objects in their way are split
+     * between the threads, which only read the game's state.  Then landing on solids, the
+     * {@link GameObject#onCollision} calls and everything else happen on the game thread as
+     * usual, so game code never runs on the other threads.  Objects that override update() and
+     * the level's update() also stay on the game thread.  Solids are checked where they were at
+     * the start of the update, so the results are the same for any number of threads.
+     * </p>
+     * <p>
+     * Only has an effect with {@link #setBatchPhysics(boolean)} turned on, and only pays off
+     * with many hundreds of batched objects.  Takes effect at the start of the next update.
+     * The extra threads keep running until {@link #release()}.
+     * </p>
+     *
+     * @param threadCount number of threads to use, including the game thread; 1 (the default)
+     *                    to update everything on the game thread, or 0 for one per CPU core
+     */
+    public void setParallelUpdate(int threadCount) {
+        if (threadCount == 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        mUpdateThreads = Math.max(1, threadCount);
+    }
+
+    /**
+     * Stop the background threads this manager has started, such as those for
+     * {@link #setParallelUpdate(int)} and for loading levels and chunks.
+     * <p>
+     * {@link GameView} calls this when it is detached and its game thread has stopped.  Call it
+     * yourself when you are done with a manager that isn't run by a GameView, for example after
+     * a {@link HeadlessRunner}.  Don't call it during an update.  The manager can still be used
+     * afterwards; the threads start again when they are next needed.
+     * </p>
+     */
+    public void release() {
+        if (mWorkers != null) {
+            mWorkers.shutdown();
+            mWorkers = null;
+        }
+        if (mLevelLoader != null) {
+            // Loading already queued still finishes, then the thread ends
+            mLevelLoader.shutdown();
+            mLevelLoader = null;
+        }
+    }
+
+    private void applyUpdateThreads() {
+        if (mWorkers != null) {
+            mWorkers.shutdown();
+            mWorkers = null;
+        }
+        if (mUpdateThreads > 1) {
+            mWorkers = new WorkerPool(mUpdateThreads);
+        }
+    }
+
+    private void applyBatchPhysics() {
+        if (mBatchPhysics) {
+            mPhysics = new PhysicsStore();
+            for (int i = 0; i < mObjects.size(); i++) {
+                GameObject obj = mObjects.getAt(i);
+                if (obj.activeIndex >= 0 && PhysicsStore.isEligible(obj)) {
+                    mPhysics.attach(obj);
+                }
+            }
+        } else {
+            mPhysics.detachAll();
+            mPhysics = null;
+        }
+    }
+
+    /**
+     * Apply the adds, removals, solidity and z-order changes saved up during the update.
+     */
+    private void applyCommands() {
+        if (mCommands.getAddCount() > 0) {
+            mObjects.ensureCapacity(mObjects.size() + mCommands.getAddCount());
+            ensureDrawListCapacity(mDrawCount + mCommands.getAddCount());
+        }
+        // Adding an object can queue its removal, so check the size each time around
+        for (int i = 0; i < mCommands.size(); i++) {
+            GameObject obj = mCommands.getObject(i);
+            switch (mCommands.getOp(i)) {
+                case ObjectCommandBuffer.ADD:
+                    addObjectNow(obj);
+                    break;
+                case ObjectCommandBuffer.REMOVE:
+                    if (mObjects.contains(obj)) {
+                        removeObjectNow(obj);
+                    }
+                    break;
+                case ObjectCommandBuffer.SET_SOLID:
+                    if (mObjects.contains(obj)) {
+                        setObjectSolidity(obj, mCommands.getArg(i) != 0);
+                    }
+                    break;
+                case ObjectCommandBuffer.UPDATE_Z_ORDER:
+                    updateObjectZOrder(obj);
+                    break;
+                case ObjectCommandBuffer.SYNC_TAG:
+                    if (mObjects.contains(obj)) {
+                        syncGroup(obj, mCommands.getArg(i));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        mCommands.clear();
+    }
+
+    /**
+     * Take an object out of the game right away, and back to its pool if it has one.  Only
+     * safe between updates.
+     */
+    void removeObjectNow(GameObject obj) {
+        prepareToRemove(obj);
+        mObjects.remove(obj);
+        recycle(obj);
+    }
+
+    /**
+     * Set up a pool of reusable objects of one type.  See {@link ObjectPool}.
+     * <p>
+     * Objects from a pool go back to it when they are removed from the game, or when the level
+     * changes.  Pools belong to the manager, so they last from one level to the next.
+     * </p>
+     *
+     * @param type    the type of object to pool, used to find the pool again
+     * @param factory makes new objects when the pool is empty
+     * @param <T>     the type of object to pool
+     * @return the new pool, replacing any existing pool for {@code type}
+     */
+    public <T extends GameObject> ObjectPool<T> createPool(Class<T> type,
+                                                          ObjectPool.Factory<T> factory) {
+        ObjectPool<T> pool = new ObjectPool<>(type, factory);
+        mPools.put(type, pool);
+        return pool;
+    }
+
+    /**
+     * Find the pool for a type of object.
+     *
+     * @param type the type passed to {@link #createPool}
+     * @param <T>  the type of object pooled
+     * @return the pool, or {@code null} if there isn't one
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends GameObject> ObjectPool<T> getPool(Class<T> type) {
+        return (ObjectPool<T>) mPools.get(type);
+    }
+
+    /**
+     * Get an object from the pool for its type.  Set it up and pass it to {@link #addObject}.
+     *
+     * @param type the type passed to {@link #createPool}
+     * @param <T>  the type of object wanted
+     * @return a reused or new object
+     * @throws IllegalArgumentException if there is no pool for {@code type}
+     */
+    public <T extends GameObject> T acquire(Class<T> type) {
+        ObjectPool<T> pool = getPool(type);
+        if (pool == null) {
+            throw new IllegalArgumentException("No pool for " + type.getName()
+                    + "; call createPool() first");
+        }
+        return pool.acquire();
+    }
+
+    /**
+     * Give an object back to its pool.
+     * <p>
+     * Objects in the game go back by themselves when removed, so this just requests their
+     * removal.  Call it directly for objects that were acquired but never added.  Objects that
+     * didn't come from a pool are left alone.
+     * </p>
+     *
+     * @param obj the object to give back
+     */
+    public void release(GameObject obj) {
+        if (mObjects.contains(obj)) {
+            obj.requestRemoval();
+        } else {
+            recycle(obj);
+        }
+    }
+
+    /**
+     * Get all the pools, for example to log their hit rates.
+     *
+     * @return the pools, in no particular order
+     */
+    public Collection<ObjectPool<?>> getPools() {
+        return mPools.values();
+    }
+
+    private void recycle(GameObject obj) {
+        if (obj.pool != null) {
+            obj.pool.recycle(obj);
+        }
+    }
+
+    /**
+     * Called by a game object when it first asks to be removed.  The removal happens at the end
+     * of the current (or next) update.
+     *
+     * @param obj the object to remove
+     */
+    void objectRemovalRequested(GameObject obj) {
+        mCommands.add(ObjectCommandBuffer.REMOVE, obj, 0);
+    }
+
+    /**
+     * Returns the area objects that auto-die offscreen must stay in, in world coordinates: the
+     * camera's bounds if it has any, otherwise the first screen, from (0, 0).  The rectangle is
+     * reused, so don't keep it or change it.
+     */
+    RectF getWorldBoundary() {
+        if (!mCamera.getBounds(mWorldBoundary)) {
+            mWorldBoundary.set(0, 0, mWorldScreenWidth, mWorldScreenHeight);
+        }
+        return mWorldBoundary;
+    }
+
+    /**
+     * Checks whether an object has left the area it may auto-die outside of.  See
+     * {@link #getWorldBoundary()}.
+     */
+    boolean isOutsideWorld(GameObject obj) {
+        return !RectF.intersects(obj.boundingRect, getWorldBoundary());
     }
 
     /**
@@ -432,7 +1360,8 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      * @return {@code true} if the object is entirely on-screen
      */
     public boolean isFullyOnScreen(GameObject obj) {
-        return getWorldBoundary().contains(obj.boundingRect);
+        mCamera.getView(mView);
+        return mView.contains(obj.boundingRect);
     }
 
     /**
@@ -443,7 +1372,7 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
      * @return {@code true} if the object is entirely off-screen
      */
     public boolean isFullyOffScreen(GameObject obj) {
-        return !RectF.intersects(obj.boundingRect, getWorldBoundary());
+        return !mCamera.isVisible(obj.boundingRect);
     }
 
 
@@ -465,32 +1394,252 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
         return mWorldScreenHeight;
     }
 
+    /**
+     * Put an object at the end of its z-order layer in the draw list.
+     *
+     * @param obj the object to add
+     */
     public void addObjectToZOrder(GameObject obj) {
-        int z = obj.getZOrder();
-        if (!mZOrder.containsKey(z)) {
-            mZOrder.put(z, new ArrayList<GameObject>());
+        if (obj.drawIndex >= 0) {
+            return;
+        }
+        ensureDrawListCapacity(mDrawCount + 1);
+        obj.drawSequence = mNextDrawSequence++;
+        // Appending keeps the list sorted unless the last object is in a higher layer.  Once it
+        // isn't, everything after the sorted part gets moved into place before the next draw.
+        if (mDrawSorted == mDrawCount
+                && (mDrawCount == 0 || compareDrawOrder(mDrawList[mDrawCount - 1], obj) <= 0)) {
+            mDrawSorted++;
         }
-        mZOrder.get(z).add(obj);
+        obj.drawIndex = mDrawCount;
+        mDrawList[mDrawCount++] = obj;
     }
 
+    /**
+     * Take an object out of the draw list.  This only leaves a hole in the object's slot, so
+     * it doesn't disturb the order of everything else; holes are closed up before the next
+     * draw.
+     *
+     * @param obj the object to remove
+     */
     public void removeObjectFromZOrder(GameObject obj) {
-        for (Map.Entry<Integer, List<GameObject>> entry : mZOrder.entrySet()) {
-            int z = entry.getKey();
-            List<GameObject> lst = entry.getValue();
-
-            if (lst.contains(obj)) {
-                lst.remove(obj);
-                break;
-            }
+        int index = obj.drawIndex;
+        if (index < 0 || index >= mDrawCount || mDrawList[index] != obj) {
+            return;
         }
+        mDrawList[index] = null;
+        obj.drawIndex = -1;
+        mDrawHoles++;
+        // Holes at the end can simply be dropped
+        while (mDrawCount > 0 && mDrawList[mDrawCount - 1] == null) {
+            mDrawCount--;
+            mDrawHoles--;
+        }
+        mDrawSorted = Math.min(mDrawSorted, mDrawCount);
     }
 
+    /**
+     * Move an object to the end of its (possibly new) z-order layer.  Called by
+     * {@link GameObject#setZOrder}.
+     *
+     * @param obj the object whose z-order changed
+     */
     public void updateObjectZOrder(GameObject obj) {
+        if (mUpdating) {
+            mCommands.add(ObjectCommandBuffer.UPDATE_Z_ORDER, obj, 0);
+            return;
+        }
+        if (obj.drawIndex < 0) {
+            // Not (or no longer) managed
+            return;
+        }
         removeObjectFromZOrder(obj);
         addObjectToZOrder(obj);
     }
 
+    private void ensureDrawListCapacity(int capacity) {
+        if (capacity > mDrawList.length) {
+            mDrawList = Arrays.copyOf(mDrawList, Math.max(capacity, mDrawList.length * 2));
+        }
+    }
+
+    /**
+     * Orders objects the way they are drawn: by z-order, then by when they joined that layer.
+     */
+    private static int compareDrawOrder(GameObject a, GameObject b) {
+        if (a.getZOrder() != b.getZOrder()) {
+            return (a.getZOrder() < b.getZOrder()) ? -1 : 1;
+        }
+        return (a.drawSequence < b.drawSequence) ? -1
+                : ((a.drawSequence == b.drawSequence) ? 0 : 1);
+    }
+
+    /**
+     * Close up holes and put the draw list back in order if anything has disturbed it.
+     * <p>
+     * Objects added out of order, such as bullets spawned below the HUD, are sorted among
+     * themselves and then merged into the sorted part of the list in one pass, so a frame that
+     * spawns many of them costs no more than one walk over the list.  Unlike
+     * {@link Arrays#sort} this never allocates once the scratch space has grown.  Only
+     * {@link #drawOrderChanged()} sorts the whole list.
+     * </p>
+     */
+    private void prepareDrawList() {
+        if (mDrawHoles > 0) {
+            int kept = 0;
+            int sortedKept = 0;
+            for (int i = 0; i < mDrawCount; i++) {
+                GameObject obj = mDrawList[i];
+                if (obj != null) {
+                    obj.drawIndex = kept;
+                    mDrawList[kept++] = obj;
+                    if (i < mDrawSorted) {
+                        sortedKept = kept;
+                    }
+                }
+            }
+            Arrays.fill(mDrawList, kept, mDrawCount, null);
+            mDrawCount = kept;
+            mDrawSorted = sortedKept;
+            mDrawHoles = 0;
+        }
+        if (mDrawListUnsorted) {
+            Arrays.sort(mDrawList, 0, mDrawCount, DRAW_ORDER);
+            for (int i = 0; i < mDrawCount; i++) {
+                mDrawList[i].drawIndex = i;
+            }
+            mDrawListUnsorted = false;
+            mDrawSorted = mDrawCount;
+        } else if (mDrawSorted < mDrawCount) {
+            mergeUnsortedTail();
+        }
+    }
+
+    /**
+     * Sort the objects after the sorted part of the draw list, then merge them into it from the
+     * back, so each object already in place moves at most once.
+     */
+    private void mergeUnsortedTail() {
+        int sorted = mDrawSorted;
+        int tail = mDrawCount - sorted;
+        if (mDrawScratch.length < tail) {
+            mDrawScratch = new GameObject[mDrawList.length];
+        }
+        GameObject[] scratch = mDrawScratch;
+        System.arraycopy(mDrawList, sorted, scratch, 0, tail);
+
+        // Bottom-up merge sort, passing the runs back and forth between the scratch array and
+        // the tail's own slots.  Objects spawned in one layer are usually in order already.
+        GameObject[] from = scratch;
+        int fromOffset = 0;
+        GameObject[] to = mDrawList;
+        int toOffset = sorted;
+        for (int width = 1; width < tail && !isDrawOrdered(from, fromOffset, tail); width *= 2) {
+            for (int low = 0; low < tail; low += 2 * width) {
+                mergeRuns(from, fromOffset, to, toOffset, low, Math.min(low + width, tail),
+                        Math.min(low + 2 * width, tail));
+            }
+            GameObject[] swap = from;
+            from = to;
+            to = swap;
+            int swapOffset = fromOffset;
+            fromOffset = toOffset;
+            toOffset = swapOffset;
+        }
+        if (from != scratch) {
+            System.arraycopy(mDrawList, sorted, scratch, 0, tail);
+        }
+
+        // Merge from the back, filling the list from its last slot down
+        int i = sorted - 1;
+        int j = tail - 1;
+        int write = mDrawCount - 1;
+        while (j >= 0) {
+            if (i >= 0 && compareDrawOrder(mDrawList[i], scratch[j]) > 0) {
+                mDrawList[write--] = mDrawList[i--];
+            } else {
+                mDrawList[write--] = scratch[j--];
+            }
+        }
+        for (int k = i + 1; k < mDrawCount; k++) {
+            mDrawList[k].drawIndex = k;
+        }
+        // Don't keep removed objects alive through the scratch array
+        Arrays.fill(scratch, 0, tail, null);
+        mDrawSorted = mDrawCount;
+    }
+
+    private static boolean isDrawOrdered(GameObject[] list, int offset, int count) {
+        for (int i = offset + 1; i < offset + count; i++) {
+            if (compareDrawOrder(list[i - 1], list[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merge the sorted runs [low, mid) and [mid, high) of {@code from} into the same positions
+     * of {@code to}.
+     */
+    private static void mergeRuns(GameObject[] from, int fromOffset, GameObject[] to,
+                                  int toOffset, int low, int mid, int high) {
+        int a = low;
+        int b = mid;
+        for (int k = low; k < high; k++) {
+            if (b >= high || (a < mid
+                    && compareDrawOrder(from[fromOffset + a], from[fromOffset + b]) <= 0)) {
+                to[toOffset + k] = from[fromOffset + a++];
+            } else {
+                to[toOffset + k] = from[fromOffset + b++];
+            }
+        }
+    }
+
+    /**
+     * Sort the draw list and close its holes so it can be read with {@link #getDrawnAt}.
+     *
+     * @return the number of objects in the draw list
+     */
+    int prepareDrawOrder() {
+        prepareDrawList();
+        return mDrawCount;
+    }
+
+    /**
+     * @param index 0 to {@link #prepareDrawOrder()} - 1
+     * @return the object drawn at that position; later objects are drawn on top
+     */
+    GameObject getDrawnAt(int index) {
+        return mDrawList[index];
+    }
+
+    /**
+     * Re-sort the draw list before the next draw, after the draw sequence of objects already in
+     * it has been changed.
+     */
+    void drawOrderChanged() {
+        mDrawListUnsorted = true;
+    }
+
+    private void clearDrawList() {
+        for (int i = 0; i < mDrawCount; i++) {
+            if (mDrawList[i] != null) {
+                mDrawList[i].drawIndex = -1;
+                mDrawList[i] = null;
+            }
+        }
+        mDrawCount = 0;
+        mDrawHoles = 0;
+        mDrawSorted = 0;
+        mDrawListUnsorted = false;
+    }
+
     public void setObjectSolidity(GameObject obj, boolean isSolid) {
+        if (mUpdating) {
+            mCommands.add(ObjectCommandBuffer.SET_SOLID, obj, isSolid ? 1 : 0);
+            return;
+        }
         if (isSolid) {
             solidThings.add(obj);
         } else {
@@ -499,8 +1648,179 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
     }
 
     public void prepareToRemove(GameObject obj) {
+        if (mPhysics != null) {
+            mPhysics.detach(obj);
+        }
+        if (obj.activeIndex >= 0) {
+            removeFromActive(obj);
+        }
+        obj.setAsleepSince(-1);
+        removeFromGroups(obj);
         removeObjectFromZOrder(obj);
         solidThings.remove(obj);
+        mBroadphase.remove(obj);
+    }
+
+    /**
+     * Called by a game object whenever its bounding box has moved or changed size.
+     *
+     * @param obj the object that moved
+     */
+    public void objectMoved(GameObject obj) {
+        mBroadphase.update(obj);
+    }
+
+    /**
+     * Choose how objects are organized for collision checks.
+     * <p>
+     * {@link Broadphase.Type#SpatialHash} (the default) is best when objects are all roughly
+     * the same size.  {@link Broadphase.Type#DynamicTree} copes better with a mix of huge and
+     * tiny objects, like long floors and small bullets.
+     * {@link Broadphase.Type#SweepAndPrune} remembers which objects overlap and updates that as
+     * they move, which suits side-scrollers.  The BroadphaseBenchmark in the library's
+     * instrumented tests can help decide for a particular game.
+     * </p>
+     *
+     * @param type which broadphase to use
+     */
+    public void setBroadphaseType(Broadphase.Type type) {
+        mBroadphaseType = type;
+        rebuildBroadphase();
+    }
+
+    public Broadphase.Type getBroadphaseType() {
+        return mBroadphaseType;
+    }
+
+    /**
+     * Set the size of the grid cells used to find nearby objects for collision checks.  Only
+     * matters when using the {@link Broadphase.Type#SpatialHash} broadphase.
+     * <p>
+     * A good size is around the size of a typical moving object in your game.  Too small and
+     * big objects are listed in lots of cells; too big and each cell holds lots of objects that
+     * are not actually close to each other.  The default is 100 world units.
+     * </p>
+     *
+     * @param cellSize width and height of each grid cell in world units
+     */
+    public void setCollisionCellSize(float cellSize) {
+        if (!(cellSize > 0.0f)) {
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        }
+        mCollisionCellSize = cellSize;
+        if (mBroadphaseType == Broadphase.Type.SpatialHash) {
+            rebuildBroadphase();
+        }
+    }
+
+    /**
+     * Switch to a fresh broadphase of the configured type, moving every current object into it.
+     */
+    private void rebuildBroadphase() {
+        mBroadphase.clear();
+        if (mBroadphaseType == Broadphase.Type.SpatialHash) {
+            mBroadphase = new SpatialHashBroadphase(mCollisionCellSize);
+        } else {
+            mBroadphase = Broadphase.create(mBroadphaseType);
+        }
+        for (int i = 0; i < mObjects.size(); i++) {
+            mBroadphase.add(mObjects.getAt(i));
+        }
+    }
+
+    /**
+     * Call a listener for every pair of managed objects whose bounding boxes overlap.
+     *
+     * @param solidOnly {@code true} to skip pairs where neither object is solid
+     * @param listener  called once for each overlapping pair
+     */
+    public void findOverlappingPairs(boolean solidOnly, Broadphase.PairListener listener) {
+        mBroadphase.findPairs(solidOnly, listener);
+    }
+
+    /**
+     * Find every object under a point, topmost first.
+     * <p>
+     * Objects are ordered by descending z-order, and within a layer the object drawn last comes
+     * first.  That is the order a touch should reach them in.  Only objects near the point are
+     * looked at, so this stays fast however big the level is.
+     * </p>
+     *
+     * @param x         horizontal coordinate in world units
+     * @param y         vertical coordinate in world units
+     * @param useShapes {@code true} to check against each object's complex collision shape (see
+     *                  {@link GameObject#containsPrecisely}) rather than only its bounding box
+     * @param out       list the objects are appended to
+     * @return {@code out}
+     */
+    public List<GameObject> findObjectsAt(float x, float y, boolean useShapes, List<GameObject> out) {
+        int start = out.size();
+        // A box one float step wide, so the broadphase's overlap test matches RectF.contains()
+        mBroadphase.query(x, y, Math.nextUp(x), Math.nextUp(y), false, out);
+        int kept = start;
+        for (int i = start; i < out.size(); i++) {
+            GameObject obj = out.get(i);
+            if (useShapes ? obj.containsPrecisely(x, y) : obj.contains(x, y)) {
+                // Insertion sort into reverse draw order; there are rarely more than a few hits
+                int j = kept++;
+                while (j > start && compareDrawOrder(out.get(j - 1), obj) < 0) {
+                    out.set(j, out.get(j - 1));
+                    j--;
+                }
+                out.set(j, obj);
+            }
+        }
+        while (out.size() > kept) {
+            out.remove(out.size() - 1);
+        }
+        return out;
+    }
+
+    /**
+     * Choose whether touches and flings are checked against the complex collision shapes of
+     * objects that have one, instead of only their bounding boxes.  Off by default.
+     *
+     * @param useShapes {@code true} to check collision shapes
+     */
+    public void setTouchUsesShapes(boolean useShapes) {
+        mTouchUsesShapes = useShapes;
+    }
+
+    /**
+     * Find all solid objects, other than the given object, whose bounding boxes overlap it.
+     *
+     * @param obj the object to check
+     * @param out list the solid objects are appended to
+     */
+    void querySolidsTouching(GameObject obj, List<GameObject> out) {
+        mBroadphase.queryTouching(obj, true, out);
+    }
+
+    /**
+     * Find all solid objects whose bounding boxes overlap an area.
+     *
+     * @param area the area to search, in world units
+     * @param out  list the solid objects are appended to
+     */
+    void querySolids(RectF area, List<GameObject> out) {
+        mBroadphase.query(area.left, area.top, area.right, area.bottom, true, out);
+    }
+
+    /**
+     * Borrow an empty list for query results.  Lists are handed out like a stack, so nested
+     * queries (eg from inside onCollision) each get their own.  Give it back with
+     * {@link #releaseQueryList}.
+     */
+    ArrayList<GameObject> acquireQueryList() {
+        if (mQueryDepth == mQueryLists.size()) {
+            mQueryLists.add(new ArrayList<GameObject>());
+        }
+        return mQueryLists.get(mQueryDepth++);
+    }
+
+    void releaseQueryList(ArrayList<GameObject> list) {
+        list.clear();
+        --mQueryDepth;
     }
 
     public Set<GameObject> getSolidObjects() {
@@ -538,4 +1858,18 @@ public final class GameObjectManager implements IMessageClient, GameView.IRedraw
     public void setDebugMode(boolean bool) {
         this.debugMode = bool;
     }
+
+    /**
+     * Get how far the current redraw is between the most recent world update and the next one.
+     * <p>
+     * The game world is updated in fixed steps which usually don't line up exactly with screen
+     * refreshes.  Objects that want perfectly smooth motion can use this value (0.0-1.0) during
+     * draw() to blend between their previous and current positions.
+     * </p>
+     *
+     * @return fraction of an update step that has elapsed since the last update()
+     */
+    public float getInterpolation() {
+        return mInterpolation;
+    }
 }
@@ -35,6 +35,9 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * <h1>[internal] Android User Interface widget that provides the space for the game to draw on</h1>
  * <p>
@@ -49,9 +52,22 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
     private IRedrawService mRedrawService;
     private IGameLogicService mGameLogicService;
     private GameViewThread mGameViewThread;
+    private int mUpdateRate;
+    private int mMaxStepsPerFrame = GameViewThread.DEFAULT_MAX_STEPS_PER_FRAME;
+    private boolean mRenderThreadMode;
+    private boolean mCoalesceInput = true;
+    private boolean mJoystickHistory;
+    private final FrameStats mFrameStats = new FrameStats();
+    private File mFrameStatsFile;
+    private InputRecorder mRecorder;
 
     public interface IRedrawService {
-        void draw(Canvas canvas);
+        /**
+         * @param canvas        the canvas to draw the current frame onto
+         * @param interpolation fraction (0.0-1.0) of a world update step that has elapsed since
+         *                      the most recent update() call
+         */
+        void draw(Canvas canvas, float interpolation);
     }
 
     public interface IGameLogicService extends IMessageClient {
@@ -60,6 +76,38 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         void update(int millis);
     }
 
+    /**
+     * Implemented by an {@link IGameLogicService} that can hand the world to a separate render
+     * thread (see {@link GameViewThread#setRenderThreadMode(boolean)}).  Without it, render
+     * thread mode falls back to drawing on the game thread.
+     */
+    public interface ISnapshotPublisher {
+        /**
+         * Turn on or off publishing of {@link FrameSnapshot}s for a separate render thread.
+         *
+         * @param enabled {@code true} if draw() will be called from a different thread than
+         *                update()
+         */
+        void setSnapshotMode(boolean enabled);
+
+        /**
+         * Copy the current state of the world into a snapshot for the render thread to draw.
+         * Called on the update thread after each batch of updates.
+         *
+         * @param stepNanos the {@link System#nanoTime()} at which the last of those updates was
+         *                  due, published along with the snapshot
+         */
+        void publishSnapshot(long stepNanos);
+
+        /**
+         * Pick up the most recently published snapshot for the next draw() to draw.  Called on
+         * the render thread before each draw().
+         *
+         * @return the time passed to {@link #publishSnapshot(long)} with that snapshot
+         */
+        long acquireSnapshot();
+    }
+
     public GameView(Context context) {
         super(context);
         init(context, null, 0);
@@ -81,35 +129,35 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         mDetector = new GestureDetectorCompat(context, new GestureDetector.OnGestureListener() {
             @Override
             public boolean onDown(MotionEvent e) {
-                mGameViewThread.queueEvent(new UIEvent(UIEventType.Down, e));
+                queueMotionEvent(UIEventType.Down, e);
                 return true;
             }
 
             @Override
             public void onShowPress(MotionEvent e) {
-                mGameViewThread.queueEvent(new UIEvent(UIEventType.ShowPress, e));
+                queueMotionEvent(UIEventType.ShowPress, e);
             }
 
             @Override
             public boolean onSingleTapUp(MotionEvent e) {
-                mGameViewThread.queueEvent(new UIEvent(UIEventType.SingleTapUp, e));
+                queueMotionEvent(UIEventType.SingleTapUp, e);
                 return true;
             }
 
             @Override
             public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
-                mGameViewThread.queueEvent(new UIEvent(UIEventType.Scroll, e1, e2, distanceX, distanceY));
+                queueMotionEvent(UIEventType.Scroll, e1, e2, distanceX, distanceY);
                 return true;
             }
 
             @Override
             public void onLongPress(MotionEvent e) {
-                mGameViewThread.queueEvent(new UIEvent(UIEventType.LongPress, e));
+                queueMotionEvent(UIEventType.LongPress, e);
             }
 
             @Override
             public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
-                mGameViewThread.queueEvent(new UIEvent(UIEventType.Fling, e1, e2, velocityX, velocityY));
+                queueMotionEvent(UIEventType.Fling, e1, e2, velocityX, velocityY);
                 return true;
             }
         });
@@ -122,9 +170,41 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         });
     }
 
+    /**
+     * Get the next free input record from the game thread, or {@code null} if there is no game
+     * thread or its queue is full.  The caller must fill it in and then call commitEvent().
+     */
+    private UIEvent claimEvent() {
+        return (mGameViewThread != null) ? mGameViewThread.claimEvent() : null;
+    }
+
+    private void queueMotionEvent(UIEventType type, MotionEvent e) {
+        UIEvent slot = claimEvent();
+        if (slot != null) {
+            slot.set(type, e);
+            mGameViewThread.commitEvent();
+        }
+    }
+
+    private void queueMotionEvent(UIEventType type, MotionEvent e1, MotionEvent e2, float dx, float dy) {
+        UIEvent slot = claimEvent();
+        if (slot != null) {
+            slot.set(type, e1, e2, dx, dy);
+            mGameViewThread.commitEvent();
+        }
+    }
+
+    private void queueKeyEvent(UIEventType type, int keyCode) {
+        UIEvent slot = claimEvent();
+        if (slot != null) {
+            slot.set(type, keyCode);
+            mGameViewThread.commitEvent();
+        }
+    }
+
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         if ((event.getSource() & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD) {
-            mGameViewThread.queueEvent(new UIEvent(UIEventType.ButtonUp, event.getKeyCode()));
+            queueKeyEvent(UIEventType.ButtonUp, event.getKeyCode());
             return true;
         }
         return super.onKeyUp(keyCode, event);
@@ -132,7 +212,7 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         if ((event.getSource() & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD) {
-            mGameViewThread.queueEvent(new UIEvent(UIEventType.ButtonDown, event.getKeyCode()));
+            queueKeyEvent(UIEventType.ButtonDown, event.getKeyCode());
             return true;
         }
         return super.onKeyDown(keyCode, event);
@@ -140,7 +220,21 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
     public boolean onGenericMotionEvent(MotionEvent event) {
         if ((event.getSource() & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK) {
-            mGameViewThread.queueEvent(new UIEvent(UIEventType.Joystick, event));
+            if (mJoystickHistory) {
+                // Batched samples the system collected since the last event, oldest first
+                for (int pos = 0; pos < event.getHistorySize(); pos++) {
+                    UIEvent slot = claimEvent();
+                    if (slot != null) {
+                        slot.setJoystickHistorical(event, pos);
+                        mGameViewThread.commitEvent();
+                    }
+                }
+            }
+            UIEvent slot = claimEvent();
+            if (slot != null) {
+                slot.setJoystick(event);
+                mGameViewThread.commitEvent();
+            }
             return true;
         }
         return super.onGenericMotionEvent(event);
@@ -155,16 +249,179 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         mGameLogicService = gs;
     }
 
+    /**
+     * Set how many times per second the game world is updated.  See
+     * {@link GameViewThread#setUpdateRate(int)}.
+     *
+     * @param updatesPerSecond desired number of world updates per second, eg 60 or 120
+     */
+    public void setUpdateRate(int updatesPerSecond) {
+        mUpdateRate = updatesPerSecond;
+        if (mGameViewThread != null) {
+            mGameViewThread.setUpdateRate(updatesPerSecond);
+        }
+    }
 
-    public void onResume() {
+    /**
+     * Set how many world updates may run back-to-back after a slow frame.  See
+     * {@link GameViewThread#setMaxStepsPerFrame(int)}.
+     *
+     * @param maxSteps maximum number of update() calls per redraw
+     */
+    public void setMaxStepsPerFrame(int maxSteps) {
+        mMaxStepsPerFrame = maxSteps;
+        if (mGameViewThread != null) {
+            mGameViewThread.setMaxStepsPerFrame(maxSteps);
+        }
+    }
 
+    /**
+     * Choose whether the game world is drawn on its own render thread.  See
+     * {@link GameViewThread#setRenderThreadMode(boolean)}.  Must be called before the game
+     * thread starts (see {@link #prewarm()}).
+     *
+     * @param enabled {@code true} to update and draw on separate threads
+     */
+    public void setRenderThreadMode(boolean enabled) {
+        mRenderThreadMode = enabled;
+    }
+
+    /**
+     * Choose whether bursts of scroll and joystick events are merged before the game sees them.
+     * See {@link GameViewThread#setInputCoalescing(boolean)}.  On by default.
+     *
+     * @param enabled {@code true} to merge consecutive scroll and joystick events
+     */
+    public void setInputCoalescing(boolean enabled) {
+        mCoalesceInput = enabled;
+        if (mGameViewThread != null) {
+            mGameViewThread.setInputCoalescing(enabled);
+        }
+    }
+
+    /**
+     * Choose whether every batched joystick sample is delivered, rather than only the latest.
+     * <p>
+     * Android collects several joystick readings into each event.  Normally only the newest one
+     * matters, but games that integrate stick movement over time may want all of them.  Joystick
+     * events are never merged while this is on.
+     * </p>
+     *
+     * @param enabled {@code true} to deliver historical joystick samples
+     */
+    public void setJoystickHistory(boolean enabled) {
+        mJoystickHistory = enabled;
+        if (mGameViewThread != null) {
+            mGameViewThread.setJoystickHistory(enabled);
+        }
+    }
+
+    /**
+     * Get the per-phase frame timing histograms for the game thread.  The numbers start over
+     * when the game thread starts, which is when the view first gets a surface or
+     * {@link #prewarm()} is called, and again if the view is detached and reattached.  They
+     * keep counting across pauses and surface changes.
+     *
+     * @return the frame timing recorder
+     */
+    public FrameStats getFrameStats() {
+        return mFrameStats;
+    }
+
+    /**
+     * Ask for the frame timing histograms to be written to a file whenever the game goes to
+     * sleep (paused, or the surface is gone) and when the view is detached, eg for collecting
+     * results from soak tests.  Can be changed at any time.
+     *
+     * @param file the file to write, or {@code null} to stop writing it
+     */
+    public void setFrameStatsFile(File file) {
+        mFrameStatsFile = file;
+        if (mGameViewThread != null) {
+            mGameViewThread.setFrameStatsFile(file);
+        }
+    }
+
+    /**
+     * Start recording all user input to a file so the session can be replayed with an
+     * {@link InputReplayer}.  Any recording already in progress is finished first.
+     * <p>
+     * This reseeds {@link Rand} on the game thread before its next update, so start recording
+     * when the game is in a known state, such as just before setting the first level.
+     * </p>
+     *
+     * @param file the file to record to
+     * @throws IOException if the file can't be created
+     */
+    public void startInputRecording(File file) throws IOException {
+        stopInputRecording();
+        mRecorder = new InputRecorder(file, (mUpdateRate > 0)
+                ? GameViewThread.stepMillisFor(mUpdateRate) : GameViewThread.DEFAULT_STEP_MILLIS);
+        if (mGameViewThread != null) {
+            mGameViewThread.setInputRecorder(mRecorder);
+        }
+    }
+
+    /**
+     * Finish the recording started by {@link #startInputRecording(File)}, if any.
+     */
+    public void stopInputRecording() {
+        if (mRecorder != null) {
+            if (mGameViewThread != null) {
+                mGameViewThread.setInputRecorder(null);
+            }
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to finish input recording", e);
+            }
+            mRecorder = null;
+        }
+    }
+
+    /**
+     * Start the game thread ahead of time, so it is ready the moment the surface appears.
+     * <p>
+     * The thread is normally started by the first surfaceChanged() call.  Calling this once the
+     * redraw and game logic services are set moves that startup cost out of the first frame.
+     * The thread sleeps until it has a surface to draw on.
+     * </p>
+     */
+    public void prewarm() {
+        ensureGameThread();
+    }
+
+    public void onResume() {
+        if (mGameViewThread != null) {
+            mGameViewThread.resumeGame();
+        }
     }
 
     public void onPause() {
         if (mGameViewThread != null) {
-            mGameViewThread.gracefulStop();
-            mGameViewThread = null;
+            mGameViewThread.pauseGame();
+        }
+    }
+
+    /**
+     * Create and start the long-lived game thread if it isn't running yet.
+     */
+    private GameViewThread ensureGameThread() {
+        if (mGameViewThread == null) {
+            Log.d(TAG, "launching thread");
+            mGameViewThread = new GameViewThread(mGameLogicService, mRedrawService);
+            if (mUpdateRate > 0) {
+                mGameViewThread.setUpdateRate(mUpdateRate);
+            }
+            mGameViewThread.setMaxStepsPerFrame(mMaxStepsPerFrame);
+            mGameViewThread.setRenderThreadMode(mRenderThreadMode);
+            mGameViewThread.setInputCoalescing(mCoalesceInput);
+            mGameViewThread.setJoystickHistory(mJoystickHistory);
+            mGameViewThread.setFrameStats(mFrameStats, mFrameStatsFile);
+            mGameViewThread.setInputRecorder(mRecorder);
+            mGameViewThread.start();
         }
+        return mGameViewThread;
     }
 
     @Override
@@ -174,57 +431,124 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-        if (mGameViewThread != null) {
-            mGameViewThread.gracefulStop();
-            mGameViewThread = null;
-        }
         if (holder != null) {
-            Log.d(TAG, "surfaceChanged, launching thread");
-            mGameViewThread = new GameViewThread(holder, mGameLogicService, mRedrawService);
+            Log.d(TAG, "surfaceChanged, handing surface to thread");
             if (width == 0 || height == 0) {
                 Log.e(TAG, "Illegal width/height: " + width + ", " + height);
-            } else {
-                mGameViewThread.setEventScalingFactors(1.0f / width, 1.0f / height);
             }
-            mGameViewThread.start();
+            ensureGameThread().setSurface(holder, width, height);
         }
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
+        if (mGameViewThread != null) {
+            mGameViewThread.setSurface(null, 0, 0);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
         if (mGameViewThread != null) {
             mGameViewThread.gracefulStop();
             mGameViewThread = null;
         }
+        if (mGameLogicService instanceof GameObjectManager) {
+            // Otherwise its worker threads would outlive this view
+            ((GameObjectManager) mGameLogicService).release();
+        }
     }
 
     public enum UIEventType {
         Down, ShowPress, SingleTapUp, Scroll, LongPress, Fling, Joystick, ButtonDown, ButtonUp,
     }
 
-    public class UIEvent {
-        UIEvent(UIEventType type, MotionEvent event1) {
-            this.type = type;
-            this.event1 = event1;
+    /**
+     * A single user input event, copied out of the Android event objects so it can be handed to
+     * the game thread.
+     * <p>
+     * These records are preallocated and reused by {@link InputEventRing}, so hold on to the
+     * values rather than the record itself.
+     * </p>
+     */
+    public static class UIEvent {
+        UIEventType type;
+        public float x, y;          // Location of the event, or where a scroll/fling started
+        public float x2, y2;        // Current location for scrolls and flings
+        public float dx, dy;        // Holds Velocity for flings, distance for scrolls
+        int keyCode;
+        boolean finished;           // Scroll ended with the finger lifting
+        float leftStickX, leftStickY, rightStickX, rightStickY;
+        int historySize;
+
+        void set(UIEventType type, MotionEvent event1) {
+            clear(type);
+            this.x = event1.getX();
+            this.y = event1.getY();
         }
 
-        UIEvent(UIEventType type, int keyCode) {
-            this.type = type;
+        void set(UIEventType type, int keyCode) {
+            clear(type);
             this.keyCode = keyCode;
         }
 
-        UIEvent(UIEventType type, MotionEvent event1, MotionEvent event2, float dx, float dy) {
-            this.type = type;
-            this.event1 = event1;
-            this.event2 = event2;
+        void set(UIEventType type, MotionEvent event1, MotionEvent event2, float dx, float dy) {
+            clear(type);
+            // Some Android versions report a null starting event for scrolls and flings
+            if (event1 != null) {
+                this.x = event1.getX();
+                this.y = event1.getY();
+            }
+            this.x2 = event2.getX();
+            this.y2 = event2.getY();
             this.dx = dx;
             this.dy = dy;
+            this.finished = event2.getAction() == MotionEvent.ACTION_UP;
         }
 
-        UIEventType type;
-        public MotionEvent event1, event2;
-        public float dx, dy;        // Holds Velocity for flings, distance for scrolls
-        int keyCode;
+        void setJoystick(MotionEvent event) {
+            clear(UIEventType.Joystick);
+            this.leftStickX = event.getAxisValue(MotionEvent.AXIS_X);
+            this.leftStickY = event.getAxisValue(MotionEvent.AXIS_Y);
+            this.rightStickX = event.getAxisValue(MotionEvent.AXIS_Z);
+            this.rightStickY = event.getAxisValue(MotionEvent.AXIS_RZ);
+            this.historySize = event.getHistorySize();
+        }
+
+        void setJoystickHistorical(MotionEvent event, int pos) {
+            clear(UIEventType.Joystick);
+            this.leftStickX = event.getHistoricalAxisValue(MotionEvent.AXIS_X, pos);
+            this.leftStickY = event.getHistoricalAxisValue(MotionEvent.AXIS_Y, pos);
+            this.rightStickX = event.getHistoricalAxisValue(MotionEvent.AXIS_Z, pos);
+            this.rightStickY = event.getHistoricalAxisValue(MotionEvent.AXIS_RZ, pos);
+        }
+
+        void copyFrom(UIEvent other) {
+            type = other.type;
+            x = other.x;
+            y = other.y;
+            x2 = other.x2;
+            y2 = other.y2;
+            dx = other.dx;
+            dy = other.dy;
+            keyCode = other.keyCode;
+            finished = other.finished;
+            leftStickX = other.leftStickX;
+            leftStickY = other.leftStickY;
+            rightStickX = other.rightStickX;
+            rightStickY = other.rightStickY;
+            historySize = other.historySize;
+        }
+
+        private void clear(UIEventType type) {
+            this.type = type;
+            x = y = x2 = y2 = dx = dy = 0.0f;
+            keyCode = 0;
+            finished = false;
+            leftStickX = leftStickY = rightStickX = rightStickY = 0.0f;
+            historySize = 0;
+        }
     }
 }
 
@@ -26,8 +26,11 @@ import android.graphics.Canvas;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <h1>[internal] This is the thread where all update() and draw() calls are done for every game
@@ -35,8 +38,9 @@ import java.util.concurrent.LinkedBlockingQueue;
  * <p>
  * <p>
  * It is prohibited to run CPU-intensive work on the UI Thread in Android, so we launch
- * this separate thread whenever the UI is ready, and take it down any time the UI becomes
- * un-ready.
+ * this separate thread once and keep it for the life of the {@link GameView}.  Whenever the UI
+ * becomes un-ready (paused, or the surface is going away) the thread sleeps, and it wakes up
+ * again as soon as it is given a surface or resumed.
  * </p>
  * <p>
  * The main Game Activity for the app is responsible for configuring this thread with
@@ -49,12 +53,35 @@ public class GameViewThread extends Thread {
     final private String TAG = "GameViewThread";
     private GameView.IGameLogicService mGameLogic;
     private GameView.IRedrawService mRedrawService;
+    private InputEventRing mEvents = new InputEventRing(InputEventRing.DEFAULT_CAPACITY);
+    private volatile float mXFactor = 1.0f, mYFactor = 1.0f;
+
+    // Lifecycle state, all guarded by mLock
+    private final Object mLock = new Object();
     private SurfaceHolder mHolder;
-    private BlockingQueue<GameView.UIEvent> mEvents = new LinkedBlockingQueue<>();
-    private float mXFactor = 1.0f, mYFactor = 1.0f;
+    private boolean mPaused;
+    private boolean mQuit;
+    private boolean mMainParked = true;     // This thread is not updating or drawing
+    private boolean mRenderParked = true;   // The render thread (if any) is not drawing
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    static final int DEFAULT_STEP_MILLIS = 16;
+    static final int DEFAULT_MAX_STEPS_PER_FRAME = 5;
+    private volatile int mStepMillis = DEFAULT_STEP_MILLIS;
+    private volatile int mMaxStepsPerFrame = DEFAULT_MAX_STEPS_PER_FRAME;
+    private long mPrevious;
+    private long mAccumulator;
+    private boolean mRenderThreadMode;
+    private volatile boolean mCoalesceInput = true;
+    private volatile boolean mJoystickHistory;
+    private FrameStats mFrameStats = new FrameStats();
+    private volatile File mFrameStatsFile;
+    private volatile InputRecorder mRecorder;
+    private final GameView.UIEvent mPending = new GameView.UIEvent();
+    private boolean mHasPending;
 
-    public GameViewThread(SurfaceHolder holder, GameView.IGameLogicService gameLogic, GameView.IRedrawService redrawService) {
-        mHolder = holder;
+    public GameViewThread(GameView.IGameLogicService gameLogic, GameView.IRedrawService redrawService) {
+        super("GameViewThread");
         mGameLogic = gameLogic;
         mRedrawService = redrawService;
     }
@@ -68,54 +95,569 @@ public class GameViewThread extends Thread {
     }
 
     /**
-     * UI Events arrive on the UI thread and must be handed off to the worker thread
+     * Give the thread a new surface to draw on, or take its surface away.
+     * <p>
+     * The thread keeps running across surface changes (rotation, resizing, going to the
+     * background), so nothing has to be restarted and no queued input is lost.  While there is
+     * no surface the thread sleeps.  Providing a surface also undoes {@link #pauseGame()}, since
+     * a new surface means the game is visible again.
+     * </p>
+     * <p>
+     * When the surface is taken away this waits until the thread has finished drawing its
+     * current frame, so the caller may let the old surface be destroyed as soon as it returns.
+     * </p>
+     *
+     * @param holder the surface to draw on, or {@code null} if there is none
+     * @param width  width of the surface in pixels
+     * @param height height of the surface in pixels
+     */
+    public void setSurface(SurfaceHolder holder, int width, int height) {
+        synchronized (mLock) {
+            if (holder != null && width > 0 && height > 0) {
+                setEventScalingFactors(1.0f / width, 1.0f / height);
+            }
+            mHolder = holder;
+            if (holder != null) {
+                mPaused = false;
+            }
+            mLock.notifyAll();
+            if (holder == null) {
+                while (!(mRenderThreadMode ? mRenderParked : mMainParked)) {
+                    waitForLock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop updating and drawing until {@link #resumeGame()} (or a new surface) arrives.  Returns
+     * once any update or draw in progress has finished.
+     */
+    public void pauseGame() {
+        synchronized (mLock) {
+            mPaused = true;
+            mLock.notifyAll();
+            while (!(mMainParked && mRenderParked)) {
+                waitForLock();
+            }
+        }
+    }
+
+    /**
+     * Continue after {@link #pauseGame()}.  The thread picks up again immediately if it has a
+     * surface.
+     */
+    public void resumeGame() {
+        synchronized (mLock) {
+            mPaused = false;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait on mLock from the UI thread, which must not be interrupted out of a lifecycle change.
      */
-    public void queueEvent(GameView.UIEvent e) {
-        mEvents.add(e);
+    private void waitForLock() {
+        try {
+            mLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by the worker threads between frames.  Parks the calling thread while the game is
+     * paused or has no surface.
+     *
+     * @param render {@code true} if called by the render thread
+     * @return the surface to use for the next frame, or {@code null} if the thread should exit
+     */
+    private SurfaceHolder awaitRunnable(boolean render) {
+        if (!render) {
+            boolean sleeping;
+            synchronized (mLock) {
+                sleeping = !mQuit && (mPaused || mHolder == null);
+            }
+            if (sleeping) {
+                // The game may not come back (eg the app is killed in the background), so save
+                // the stats now
+                writeFrameStats();
+            }
+        }
+        synchronized (mLock) {
+            if (!mQuit && (mPaused || mHolder == null)) {
+                setParked(render, true);
+                try {
+                    while (!mQuit && (mPaused || mHolder == null)) {
+                        mLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    mQuit = true;
+                }
+                if (!render) {
+                    // Don't try to simulate the time we spent asleep
+                    mPrevious = System.nanoTime();
+                    mAccumulator = 0;
+                }
+            }
+            if (mQuit) {
+                setParked(render, true);
+                return null;
+            }
+            setParked(render, false);
+            return mHolder;
+        }
+    }
+
+    private void setParked(boolean render, boolean parked) {
+        if (render) {
+            mRenderParked = parked;
+        } else {
+            mMainParked = parked;
+        }
+        mLock.notifyAll();
+    }
+
+    /**
+     * Set how often the game world is updated, independent of how often the screen is redrawn.
+     * <p>
+     * Every call to update() advances the world by the same whole number of milliseconds, so the
+     * actual rate is rounded to the nearest whole step (60Hz runs as 17msec steps, 120Hz as 8msec).
+     * </p>
+     *
+     * @param updatesPerSecond desired number of world updates per second, eg 60 or 120
+     */
+    public void setUpdateRate(int updatesPerSecond) {
+        if (updatesPerSecond <= 0) {
+            throw new IllegalArgumentException("updatesPerSecond must be positive: " + updatesPerSecond);
+        }
+        mStepMillis = stepMillisFor(updatesPerSecond);
+    }
+
+    /**
+     * @return the whole-millisecond update step closest to the given update rate
+     */
+    static int stepMillisFor(int updatesPerSecond) {
+        return Math.max(1, Math.round(1000.0f / updatesPerSecond));
+    }
+
+    /**
+     * Limit how many world updates may run back-to-back to catch up after a slow frame.
+     * <p>
+     * If the thread falls further behind than this, the extra time is dropped and the game
+     * runs slower for a moment instead of spending ever longer catching up.
+     * </p>
+     *
+     * @param maxSteps maximum number of update() calls per redraw, at least 1
+     */
+    public void setMaxStepsPerFrame(int maxSteps) {
+        if (maxSteps <= 0) {
+            throw new IllegalArgumentException("maxSteps must be positive: " + maxSteps);
+        }
+        mMaxStepsPerFrame = maxSteps;
+    }
+
+    /**
+     * UI Events arrive on the UI thread and must be handed off to the worker thread.
+     * <p>
+     * Returns a reusable event record for the UI thread to fill in, followed by a call to
+     * {@link #commitEvent()}.  Returns {@code null} if the queue is full, in which case the
+     * event is dropped.
+     * </p>
+     */
+    GameView.UIEvent claimEvent() {
+        return mEvents.claim();
+    }
+
+    /**
+     * Pass the event record from {@link #claimEvent()} on to the worker thread.
+     */
+    void commitEvent() {
+        mEvents.commit();
+    }
+
+    /**
+     * Use the given recorder for per-phase frame timings, so they survive the thread being
+     * replaced.  Must be called before the thread is started.
+     *
+     * @param stats where to record how long each phase of each frame takes
+     * @param dumpFile if not {@code null}, the stats are written here whenever the thread goes
+     *                 to sleep (paused, or the surface is gone) and when it stops
+     */
+    public void setFrameStats(FrameStats stats, File dumpFile) {
+        mFrameStats = stats;
+        mFrameStatsFile = dumpFile;
+    }
+
+    /**
+     * Change where the frame stats are written.  May be called while the thread is running.
+     *
+     * @param dumpFile the file to write, or {@code null} to stop writing it
+     */
+    public void setFrameStatsFile(File dumpFile) {
+        mFrameStatsFile = dumpFile;
+    }
+
+    /**
+     * Record every event delivered to the game logic, stamped with the update step it arrived
+     * before.
+     *
+     * @param recorder the recorder to write to, or {@code null} to stop recording
+     */
+    public void setInputRecorder(InputRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    /**
+     * Choose whether bursts of scroll and joystick events are merged before delivery.
+     * <p>
+     * A fast finger or a gamepad can produce dozens of these per frame.  When merging is on,
+     * consecutive scroll events are combined into one with the summed distance, and consecutive
+     * joystick events are reduced to the most recent stick positions.  Taps, flings, buttons and
+     * the final event of a scroll are always delivered individually and in order.
+     * </p>
+     *
+     * @param enabled {@code true} to merge consecutive scroll and joystick events
+     */
+    public void setInputCoalescing(boolean enabled) {
+        mCoalesceInput = enabled;
+    }
+
+    /**
+     * Tell the thread that historical joystick samples are being queued, so joystick events must
+     * not be merged.  See {@link GameView#setJoystickHistory(boolean)}.
+     *
+     * @param enabled {@code true} if every joystick sample should be delivered
+     */
+    public void setJoystickHistory(boolean enabled) {
+        mJoystickHistory = enabled;
+    }
+
+    /**
+     * Choose whether drawing happens on a separate render thread.
+     * <p>
+     * By default one thread processes events, updates the world and draws it.  In render thread
+     * mode this thread only runs the simulation and publishes a snapshot of the world after each
+     * batch of updates, while a second thread waits for the canvas and draws the most recent
+     * snapshot.  A slow lockCanvas() then no longer eats into simulation time.  The
+     * interpolation passed to draw() is how far real time has moved on since the snapshot's
+     * update.
+     * </p>
+     * <p>
+     * The game logic service must implement {@link GameView.ISnapshotPublisher}; if it doesn't,
+     * everything runs on this thread as usual.
+     * </p>
+     * <p>
+     * Must be called before the thread is started; it can't be changed while running.
+     * </p>
+     *
+     * @param enabled {@code true} to draw on a separate render thread
+     */
+    public void setRenderThreadMode(boolean enabled) {
+        mRenderThreadMode = enabled;
     }
 
     public void run() {
+        Log.d(TAG, "thread starting");
+        mFrameStats.reset();
+        mPrevious = System.nanoTime();
+        mAccumulator = 0;
+        if (mRenderThreadMode && mGameLogic instanceof GameView.ISnapshotPublisher) {
+            runSimulationOnly((GameView.ISnapshotPublisher) mGameLogic);
+        } else {
+            if (mRenderThreadMode) {
+                Log.w(TAG, "Game logic can't publish snapshots; drawing on the game thread");
+                synchronized (mLock) {
+                    mRenderThreadMode = false;
+                }
+            }
+            runCombined();
+        }
+        synchronized (mLock) {
+            setParked(false, true);
+        }
+        writeFrameStats();
+        Log.d(TAG, "thread terminating");
+    }
+
+    /**
+     * Write the frame stats to the file set for them, if any.
+     */
+    private void writeFrameStats() {
+        File file = mFrameStatsFile;
+        if (file != null) {
+            try {
+                mFrameStats.writeTo(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to write frame stats", e);
+            }
+        }
+    }
+
+    /**
+     * Single-threaded loop: events, updates and drawing all happen once per canvas.
+     */
+    private void runCombined() {
         int loops = 0;
         long lastLog = System.currentTimeMillis();
-        Log.d(TAG, "thread starting");
-        while (!isInterrupted()) {
-            Canvas c = mHolder.lockCanvas();
+        SurfaceHolder holder;
+        while ((holder = awaitRunnable(false)) != null) {
+            long t0 = System.nanoTime();
+            Canvas c = holder.lockCanvas();
             if (c == null) {
                 Log.d(TAG, "null canvas from mHolder");
             } else {
-                GameView.UIEvent e;
-
-                while ((e = mEvents.poll()) != null) {
-                    if (e.event1 != null && e.type != GameView.UIEventType.Joystick) {
-                        e.event1.setLocation(e.event1.getX() * mXFactor, e.event1.getY() * mYFactor);
-                        if (e.event2 != null) {
-                            e.event2.setLocation(e.event2.getX() * mXFactor, e.event2.getY() * mYFactor);
-                            e.dx *= mXFactor;
-                            e.dy *= mYFactor;
-                        }
-                    }
-                    mGameLogic.onMotionEvent(e);
-                }
-                mGameLogic.update(16);  // TODO: actual frame timing
-                mRedrawService.draw(c);
-                mHolder.unlockCanvasAndPost(c);
+                long t1 = System.nanoTime();
+                deliverEvents();
+                long t2 = System.nanoTime();
+                runUpdates();
+                long t3 = System.nanoTime();
+                mRedrawService.draw(c, (float) mAccumulator / (mStepMillis * NANOS_PER_MILLI));
+                long t4 = System.nanoTime();
+                holder.unlockCanvasAndPost(c);
+                long t5 = System.nanoTime();
+                mFrameStats.record(FrameStats.Phase.LockCanvas, t1 - t0);
+                mFrameStats.record(FrameStats.Phase.Events, t2 - t1);
+                mFrameStats.record(FrameStats.Phase.Update, t3 - t2);
+                mFrameStats.record(FrameStats.Phase.Draw, t4 - t3);
+                mFrameStats.record(FrameStats.Phase.Post, t5 - t4);
                 ++loops;
             }
 
             long now = System.currentTimeMillis();
             if (now - lastLog > 5000) {
-                float fps = loops * 1000.0f / (now - lastLog);
+                logStats(loops, now - lastLog);
                 lastLog = now;
                 loops = 0;
-                Log.d(TAG, "fps = " + fps);
             }
         }
-        Log.d(TAG, "thread terminating");
     }
 
+    /**
+     * Simulation half of render thread mode: updates run on their own clock and each batch of
+     * updates is published as a snapshot for the render thread.
+     */
+    private void runSimulationOnly(GameView.ISnapshotPublisher publisher) {
+        publisher.setSnapshotMode(true);
+        RenderThread renderThread = new RenderThread(publisher);
+        renderThread.start();
+        try {
+            while (awaitRunnable(false) != null) {
+                long t0 = System.nanoTime();
+                deliverEvents();
+                long t1 = System.nanoTime();
+                if (runUpdates() > 0) {
+                    // The last update brought the world up to this point in real time
+                    publisher.publishSnapshot(mPrevious - mAccumulator);
+                    mFrameStats.record(FrameStats.Phase.Update, System.nanoTime() - t1);
+                }
+                mFrameStats.record(FrameStats.Phase.Events, t1 - t0);
+                long wait = mStepMillis * NANOS_PER_MILLI - mAccumulator;
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+        } finally {
+            renderThread.interrupt();
+            try {
+                renderThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            publisher.setSnapshotMode(false);
+        }
+    }
+
+    private void logStats(int frames, long elapsedMillis) {
+        float fps = frames * 1000.0f / elapsedMillis;
+        Log.d(TAG, String.format(Locale.US, "fps = %.1f  %s", fps, mFrameStats.summary()));
+    }
+
+    /**
+     * Hand all queued UI events to the game logic, scaled into the range 0.0-1.0
+     */
+    private void deliverEvents() {
+        GameView.UIEvent e;
+        boolean coalesce = mCoalesceInput;
+        boolean mergeJoystick = coalesce && !mJoystickHistory;
+
+        while ((e = mEvents.peek()) != null) {
+            if (e.type != GameView.UIEventType.Joystick) {
+                e.x *= mXFactor;
+                e.y *= mYFactor;
+                if (e.type == GameView.UIEventType.Scroll || e.type == GameView.UIEventType.Fling) {
+                    e.x2 *= mXFactor;
+                    e.y2 *= mYFactor;
+                    e.dx *= mXFactor;
+                    e.dy *= mYFactor;
+                }
+            }
+
+            if (mHasPending && canMerge(mPending, e)) {
+                mergeInto(mPending, e);
+            } else {
+                flushPendingEvent();
+                if ((coalesce && e.type == GameView.UIEventType.Scroll)
+                        || (mergeJoystick && e.type == GameView.UIEventType.Joystick)) {
+                    mPending.copyFrom(e);
+                    mHasPending = true;
+                } else {
+                    dispatchEvent(e);
+                }
+            }
+            mEvents.release();
+        }
+        flushPendingEvent();
+
+        int dropped = mEvents.takeDroppedCount();
+        if (dropped > 0) {
+            Log.w(TAG, "input queue full, dropped " + dropped + " events");
+        }
+    }
+
+    /**
+     * Only events of the same mergeable kind are combined, and never across the end of a scroll.
+     */
+    private boolean canMerge(GameView.UIEvent pending, GameView.UIEvent e) {
+        if (pending.type != e.type) {
+            return false;
+        }
+        switch (e.type) {
+            case Scroll:
+                return !pending.finished;
+            case Joystick:
+                return !mJoystickHistory;
+            default:
+                return false;
+        }
+    }
+
+    private void mergeInto(GameView.UIEvent pending, GameView.UIEvent e) {
+        if (e.type == GameView.UIEventType.Scroll) {
+            // Keep the starting point, sum the distance moved, take the latest finger position
+            pending.x2 = e.x2;
+            pending.y2 = e.y2;
+            pending.dx += e.dx;
+            pending.dy += e.dy;
+            pending.finished = e.finished;
+        } else {
+            // Joystick positions are absolute, so the newest reading replaces the older ones
+            pending.copyFrom(e);
+        }
+    }
+
+    private void flushPendingEvent() {
+        if (mHasPending) {
+            mHasPending = false;
+            dispatchEvent(mPending);
+        }
+    }
+
+    private void dispatchEvent(GameView.UIEvent e) {
+        InputRecorder recorder = mRecorder;
+        if (recorder != null) {
+            try {
+                recorder.record(e);
+            } catch (IOException ex) {
+                Log.e(TAG, "Input recording failed, stopping it", ex);
+                mRecorder = null;
+            }
+        }
+        mGameLogic.onMotionEvent(e);
+    }
+
+    /**
+     * Fixed timestep: run as many whole steps as real time allows, carrying the remainder over
+     * to the next call.
+     *
+     * @return the number of update() calls made
+     */
+    private int runUpdates() {
+        int stepMillis = mStepMillis;
+        long stepNanos = stepMillis * NANOS_PER_MILLI;
+        long now = System.nanoTime();
+        mAccumulator += now - mPrevious;
+        mPrevious = now;
+        int steps = 0;
+        InputRecorder recorder = mRecorder;
+        if (recorder != null && mAccumulator >= stepNanos) {
+            // A new recording reseeds Rand here, between steps, so the replay matches
+            recorder.begin();
+        }
+        while (mAccumulator >= stepNanos && steps < mMaxStepsPerFrame) {
+            mGameLogic.update(stepMillis);
+            if (recorder != null) {
+                recorder.onStep();
+            }
+            mAccumulator -= stepNanos;
+            ++steps;
+        }
+        if (mAccumulator >= stepNanos) {
+            // Too far behind to catch up; drop the backlog rather than spiral.
+            mAccumulator %= stepNanos;
+        }
+        return steps;
+    }
+
+    /**
+     * Render half of render thread mode: draws whatever snapshot was most recently published
+     * every time the surface hands us a canvas.
+     */
+    private class RenderThread extends Thread {
+        private final GameView.ISnapshotPublisher mPublisher;
+
+        RenderThread(GameView.ISnapshotPublisher publisher) {
+            super("GameViewRenderThread");
+            mPublisher = publisher;
+        }
+
+        @Override
+        public void run() {
+            int loops = 0;
+            long lastLog = System.currentTimeMillis();
+            SurfaceHolder holder;
+            while ((holder = awaitRunnable(true)) != null) {
+                long t0 = System.nanoTime();
+                Canvas c = holder.lockCanvas();
+                if (c == null) {
+                    Log.d(TAG, "null canvas from mHolder");
+                } else {
+                    long t1 = System.nanoTime();
+                    // Snapshots hold the state as of the latest complete update, so interpolate
+                    // by how long ago in real time that update was due
+                    long publishedNanos = mPublisher.acquireSnapshot();
+                    long stepNanos = mStepMillis * NANOS_PER_MILLI;
+                    mRedrawService.draw(c, Math.min(1.0f,
+                            (float) (t1 - publishedNanos) / stepNanos));
+                    long t2 = System.nanoTime();
+                    holder.unlockCanvasAndPost(c);
+                    long t3 = System.nanoTime();
+                    mFrameStats.record(FrameStats.Phase.LockCanvas, t1 - t0);
+                    mFrameStats.record(FrameStats.Phase.Draw, t2 - t1);
+                    mFrameStats.record(FrameStats.Phase.Post, t3 - t2);
+                    ++loops;
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastLog > 5000) {
+                    logStats(loops, now - lastLog);
+                    lastLog = now;
+                    loops = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the thread for good and wait for it to exit.
+     */
     public void gracefulStop() {
         Log.d(TAG, "thread termination requested");
 
+        synchronized (mLock) {
+            mQuit = true;
+            mLock.notifyAll();
+        }
         this.interrupt();
         try {
             this.join();
@@ -0,0 +1,220 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.Canvas;
+
+/**
+ * <h1>Runs the game logic without a screen, as fast as it will go</h1>
+ * <p>
+ * Normally the game only advances when the {@link GameViewThread} gets a canvas from the
+ * display.  For balancing simulations, soak tests and benchmarks it is handy to run a level
+ * with no display at all.  This class calls the same {@link GameView.IGameLogicService#update}
+ * the game thread does, in fixed steps of a virtual clock that only advances when an update
+ * is done, and reports how much faster than real time the world ran.
+ * </p>
+ * <p>
+ * Drawing is optional: give it a {@link GameView.IRedrawService} and a canvas (for example one
+ * backed by an off-screen bitmap) to include drawing in the measurement, or leave it out to
+ * measure the simulation alone.  This class itself uses nothing from Android except the
+ * {@link Canvas} passed to the draw call, so it can drive any game logic that runs on a plain JVM.
+ * </p>
+ */
+
+public final class HeadlessRunner {
+    private final GameView.IGameLogicService mGameLogic;
+    private GameView.IRedrawService mRedrawService;
+    private Canvas mCanvas;
+    private int mStepMillis = GameViewThread.DEFAULT_STEP_MILLIS;
+    private int mDrawEvery = 0;
+    private float mMaxSpeed = 0.0f;
+    private volatile boolean mStopRequested;
+    private long mStepCount;
+    private InputSource mInputSource;
+
+    /**
+     * Supplies user input to a headless run, for example an {@link InputReplayer}.
+     */
+    public interface InputSource {
+        /**
+         * Deliver any input that belongs before the given update step.
+         *
+         * @param step      the number of update steps made so far in this run
+         * @param gameLogic the game logic to deliver events to
+         */
+        void deliverInput(long step, GameView.IGameLogicService gameLogic);
+    }
+
+    /**
+     * The outcome of a call to {@link #run}.
+     */
+    public static final class Result {
+        /**
+         * Number of update() calls made
+         */
+        public final long steps;
+        /**
+         * Amount of game time that passed, in milliseconds
+         */
+        public final long simulatedMillis;
+        /**
+         * Amount of real time the run took, in nanoseconds
+         */
+        public final long wallNanos;
+
+        Result(long steps, long simulatedMillis, long wallNanos) {
+            this.steps = steps;
+            this.simulatedMillis = simulatedMillis;
+            this.wallNanos = wallNanos;
+        }
+
+        /**
+         * @return how many seconds of game time were simulated per second of real time
+         */
+        public double getSimulatedSecondsPerWallSecond() {
+            return (wallNanos > 0) ? simulatedMillis * 1e6 / wallNanos : Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public String toString() {
+            return steps + " steps, " + simulatedMillis / 1000.0 + " simulated sec in "
+                    + wallNanos / 1e9 + " wall sec (" + getSimulatedSecondsPerWallSecond() + "x)";
+        }
+    }
+
+    /**
+     * @param gameLogic the game logic to drive, usually the {@link GameObjectManager}
+     */
+    public HeadlessRunner(GameView.IGameLogicService gameLogic) {
+        mGameLogic = gameLogic;
+    }
+
+    /**
+     * Set the length of each update step.
+     *
+     * @param stepMillis milliseconds of game time per update() call; 16 by default
+     */
+    public void setStepMillis(int stepMillis) {
+        if (stepMillis <= 0) {
+            throw new IllegalArgumentException("stepMillis must be positive: " + stepMillis);
+        }
+        mStepMillis = stepMillis;
+    }
+
+    /**
+     * Include drawing in the run.
+     *
+     * @param redrawService the object to draw, usually the {@link GameObjectManager}
+     * @param canvas        the canvas to draw onto
+     * @param everySteps    draw once per this many updates, or 0 to never draw
+     */
+    public void setRedrawService(GameView.IRedrawService redrawService, Canvas canvas, int everySteps) {
+        mRedrawService = redrawService;
+        mCanvas = canvas;
+        mDrawEvery = everySteps;
+    }
+
+    /**
+     * Feed input into the run before each update step.
+     *
+     * @param source where input comes from, or {@code null} for no input
+     */
+    public void setInputSource(InputSource source) {
+        mInputSource = source;
+    }
+
+    /**
+     * Limit how fast the game runs, eg 1.0 to run in real time.  By default there is no limit.
+     *
+     * @param simulatedSecondsPerWallSecond the speed limit, or 0 for as fast as possible
+     */
+    public void setMaxSpeed(float simulatedSecondsPerWallSecond) {
+        mMaxSpeed = simulatedSecondsPerWallSecond;
+    }
+
+    /**
+     * Ask a run in progress on another thread to stop after its current step.  If no run is in
+     * progress, the next one stops before its first step.
+     */
+    public void requestStop() {
+        mStopRequested = true;
+    }
+
+    /**
+     * @return the total number of update steps this runner has made so far, across all runs
+     */
+    public long getStepCount() {
+        return mStepCount;
+    }
+
+    /**
+     * Run the game for a given amount of game time.
+     *
+     * @param simulatedMillis how much game time to simulate, in milliseconds
+     * @return timing results for the run
+     */
+    public Result runFor(long simulatedMillis) {
+        return run((simulatedMillis + mStepMillis - 1) / mStepMillis);
+    }
+
+    /**
+     * Run the game for a given number of update steps, or until {@link #requestStop()}.
+     *
+     * @param steps how many times to call update()
+     * @return timing results for the run
+     */
+    public Result run(long steps) {
+        long start = System.nanoTime();
+        long done = 0;
+        try {
+            while (done < steps && !mStopRequested) {
+                if (mInputSource != null) {
+                    mInputSource.deliverInput(done, mGameLogic);
+                }
+                mGameLogic.update(mStepMillis);
+                ++done;
+                ++mStepCount;
+                if (mDrawEvery > 0 && mRedrawService != null && done % mDrawEvery == 0) {
+                    mRedrawService.draw(mCanvas, 0.0f);
+                }
+                if (mMaxSpeed > 0.0f) {
+                    long due = start + (long) (done * mStepMillis * 1e6 / mMaxSpeed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        try {
+                            Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+            }
+        } finally {
+            // The request has been dealt with; don't let it stop the next run too
+            mStopRequested = false;
+        }
+        return new Result(done, done * mStepMillis, System.nanoTime() - start);
+    }
+}
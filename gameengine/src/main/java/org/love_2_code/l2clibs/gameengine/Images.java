@@ -26,17 +26,20 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
-
-import java.util.HashMap;
-import java.util.Map;
+import android.util.SparseArray;
 
 /**
  * A very basic image cache so that when we create 100 frogs or cycle through an animation
  * we only have one shared copy of the bitmap.  No upper cache size for now.
+ * <p>
+ * The game thread, the render thread and the level loading thread can all use the cache at
+ * once, so it is guarded by a lock.  Decoding happens outside the lock.
+ * </p>
  */
 
 public final class Images {
-    private static Map<Integer, Bitmap> mCache = new HashMap<>();
+    // Keyed by plain int, so looking up an image every frame doesn't box the resource ID
+    private static final SparseArray<Bitmap> mCache = new SparseArray<>();
     private static Resources mResources;
     private static int mDefaultId;
 
@@ -49,22 +52,59 @@ public final class Images {
     }
 
     public static Bitmap get(int resourceId) {
-        Bitmap bmp = mCache.get(resourceId);
+        Bitmap bmp;
+        synchronized (mCache) {
+            bmp = mCache.get(resourceId);
+        }
         if (bmp == null) {
-            try {
-                bmp = BitmapFactory.decodeResource(mResources, resourceId);
-            } catch (Exception e) {
-                bmp = null;
-                Log.d("Images", "decodeResource: " + e.toString());
-            }
-            if (bmp == null) {
-                // Handle exception case or case where decodeResources returns null on its own
-                Log.d("Images", "Error decoding id " + resourceId);
-                bmp = BitmapFactory.decodeResource(mResources, mDefaultId);
-            }
-            mCache.put(resourceId, bmp);
+            bmp = putIfAbsent(resourceId, decode(resourceId));
         }
 
         return bmp;
     }
+
+    /**
+     * Checks whether an image has been loaded already.
+     */
+    static boolean isCached(int resourceId) {
+        synchronized (mCache) {
+            return mCache.get(resourceId) != null;
+        }
+    }
+
+    /**
+     * Decode an image without caching it, falling back to the default image if it can't be
+     * decoded.  Touches nothing shared, so it's safe to call from a loading thread.
+     */
+    static Bitmap decode(int resourceId) {
+        Bitmap bmp;
+        try {
+            bmp = BitmapFactory.decodeResource(mResources, resourceId);
+        } catch (Exception e) {
+            bmp = null;
+            Log.d("Images", "decodeResource: " + e.toString());
+        }
+        if (bmp == null) {
+            // Handle exception case or case where decodeResources returns null on its own
+            Log.d("Images", "Error decoding id " + resourceId);
+            bmp = BitmapFactory.decodeResource(mResources, mDefaultId);
+        }
+        return bmp;
+    }
+
+    /**
+     * Add an image decoded ahead of time, unless one is already loaded under that ID.
+     *
+     * @return the image now cached under that ID
+     */
+    static Bitmap putIfAbsent(int resourceId, Bitmap bmp) {
+        synchronized (mCache) {
+            Bitmap cached = mCache.get(resourceId);
+            if (cached != null) {
+                return cached;
+            }
+            mCache.put(resourceId, bmp);
+            return bmp;
+        }
+    }
 }
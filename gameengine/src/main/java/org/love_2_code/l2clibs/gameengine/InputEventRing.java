@@ -0,0 +1,109 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>[internal] Fixed-size queue that carries input events from the UI thread to the game
+ * thread</h1>
+ * <p>
+ * Every slot is a preallocated {@link GameView.UIEvent} that the UI thread fills in place, so
+ * queueing an event allocates nothing.  Exactly one thread may write (the UI thread) and exactly
+ * one thread may read (the game thread); neither ever blocks or waits for the other.
+ * </p>
+ * <p>
+ * If the game thread falls so far behind that the queue fills up, new events are dropped and
+ * counted rather than overwriting events the game thread has not seen yet.
+ * </p>
+ */
+
+final class InputEventRing {
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final GameView.UIEvent[] mSlots;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong();  // Next slot to read, advanced by reader
+    private final AtomicLong mTail = new AtomicLong();  // Next slot to write, advanced by writer
+    private final AtomicInteger mDropped = new AtomicInteger();
+
+    /**
+     * @param capacity number of events the queue can hold; rounded up to a power of two
+     */
+    InputEventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mSlots = new GameView.UIEvent[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new GameView.UIEvent();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * Get the next free slot for the writer to fill in, or {@code null} if the queue is full.
+     * Writer thread only; follow with {@link #commit()}.
+     */
+    GameView.UIEvent claim() {
+        long tail = mTail.get();
+        if (tail - mHead.get() == mSlots.length) {
+            mDropped.incrementAndGet();
+            return null;
+        }
+        return mSlots[(int) tail & mMask];
+    }
+
+    /**
+     * Make the slot returned by {@link #claim()} visible to the reader.  Writer thread only.
+     */
+    void commit() {
+        mTail.lazySet(mTail.get() + 1);
+    }
+
+    /**
+     * Get the oldest unread event without removing it, or {@code null} if the queue is empty.
+     * Reader thread only; follow with {@link #release()} once done with the event.
+     */
+    GameView.UIEvent peek() {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return null;
+        }
+        return mSlots[(int) head & mMask];
+    }
+
+    /**
+     * Hand the slot returned by {@link #peek()} back to the writer.  Reader thread only.
+     */
+    void release() {
+        mHead.lazySet(mHead.get() + 1);
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full since the last call
+     */
+    int takeDroppedCount() {
+        return mDropped.getAndSet(0);
+    }
+}
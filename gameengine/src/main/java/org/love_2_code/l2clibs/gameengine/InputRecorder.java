@@ -0,0 +1,185 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <h1>Records user input so a game session can be replayed exactly</h1>
+ * <p>
+ * Every event the game logic receives is written to a compact binary file, stamped with the
+ * number of the update step it arrived before.  The random number seed (see {@link Rand}) is
+ * saved when recording starts, and applied on the game thread between two update steps, just
+ * before the first step or event that is recorded.  Replaying the file with an {@link InputReplayer} on a
+ * {@link HeadlessRunner} then reproduces the same run, which makes performance runs comparable
+ * and regressions bisectable.
+ * </p>
+ * <p>
+ * For an exact replay, recording must start when the game is in a known state, for example
+ * just before {@link GameObjectManager#setLevel(GameLevel)}, and the replay must start from
+ * the same state.  Levels must also switch on the same frames both times, so turn off
+ * {@link GameObjectManager#setBackgroundLevelLoading(boolean)} for both.
+ * </p>
+ */
+
+public final class InputRecorder {
+    static final int MAGIC = 0x4c324349;    // "L2CI"
+    static final int VERSION = 2;       // 2 adds the step count after END_OF_RECORDING
+    static final int END_OF_RECORDING = -1;
+
+    private final DataOutputStream mOut;
+    private final long mSeed;
+    private int mStep;
+    private boolean mStarted;           // Rand has been reseeded and steps are being counted
+    private boolean mClosed;
+
+    /**
+     * Start a new recording.  {@link Rand} is reseeded by the game thread before its next
+     * update step.
+     *
+     * @param file       the file to write
+     * @param stepMillis the length of each update step, so the replay can use the same
+     * @throws IOException if the file can't be created
+     */
+    public InputRecorder(File file, int stepMillis) throws IOException {
+        long seed = System.nanoTime();
+        mSeed = seed;
+        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        mOut.writeInt(MAGIC);
+        mOut.writeShort(VERSION);
+        mOut.writeLong(seed);
+        mOut.writeInt(stepMillis);
+    }
+
+    /**
+     * Called by the game thread between update steps, before anything is recorded.  The first
+     * call reseeds {@link Rand} and starts counting steps from there.
+     */
+    synchronized void begin() {
+        if (!mStarted) {
+            mStarted = true;
+            mStep = 0;
+            Rand.setSeed(mSeed);
+        }
+    }
+
+    /**
+     * Called by the game thread with each event just before it is delivered to the game logic.
+     */
+    synchronized void record(GameView.UIEvent e) throws IOException {
+        if (mClosed) {
+            return;
+        }
+        begin();
+        mOut.writeInt(mStep);
+        mOut.writeByte(e.type.ordinal());
+        switch (e.type) {
+            case Scroll:
+            case Fling:
+                mOut.writeFloat(e.x);
+                mOut.writeFloat(e.y);
+                mOut.writeFloat(e.x2);
+                mOut.writeFloat(e.y2);
+                mOut.writeFloat(e.dx);
+                mOut.writeFloat(e.dy);
+                mOut.writeBoolean(e.finished);
+                break;
+            case Joystick:
+                mOut.writeFloat(e.leftStickX);
+                mOut.writeFloat(e.leftStickY);
+                mOut.writeFloat(e.rightStickX);
+                mOut.writeFloat(e.rightStickY);
+                break;
+            case ButtonDown:
+            case ButtonUp:
+                mOut.writeInt(e.keyCode);
+                break;
+            default:
+                mOut.writeFloat(e.x);
+                mOut.writeFloat(e.y);
+                break;
+        }
+    }
+
+    /**
+     * Called by the game thread after each update step, so later events get the next stamp.
+     */
+    synchronized void onStep() {
+        ++mStep;
+    }
+
+    /**
+     * Finish the recording and close the file.  Further events are ignored.  The number of
+     * update steps recorded so far is saved too, so a replay also runs the steps after the
+     * last event.
+     *
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void close() throws IOException {
+        if (!mClosed) {
+            mClosed = true;
+            mOut.writeInt(END_OF_RECORDING);
+            mOut.writeInt(mStarted ? mStep : 0);
+            mOut.close();
+        }
+    }
+
+    /**
+     * Read one event record written by {@link #record}.  The step and type have already been
+     * read by the caller.
+     */
+    static void readFields(DataInput in, GameView.UIEvent e) throws IOException {
+        switch (e.type) {
+            case Scroll:
+            case Fling:
+                e.x = in.readFloat();
+                e.y = in.readFloat();
+                e.x2 = in.readFloat();
+                e.y2 = in.readFloat();
+                e.dx = in.readFloat();
+                e.dy = in.readFloat();
+                e.finished = in.readBoolean();
+                break;
+            case Joystick:
+                e.leftStickX = in.readFloat();
+                e.leftStickY = in.readFloat();
+                e.rightStickX = in.readFloat();
+                e.rightStickY = in.readFloat();
+                break;
+            case ButtonDown:
+            case ButtonUp:
+                e.keyCode = in.readInt();
+                break;
+            default:
+                e.x = in.readFloat();
+                e.y = in.readFloat();
+                break;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>Plays back a recording made by {@link InputRecorder}</h1>
+ * <p>
+ * The whole recording is read into memory up front, so replaying does no file access.  Use
+ * {@link #replay(HeadlessRunner)} to run the game headless with exactly the recorded input,
+ * random seed and update step:
+ * </p>
+ * <pre>
+ *     InputReplayer replayer = new InputReplayer(file);
+ *     manager.setBackgroundLevelLoading(false);
+ *     manager.setLevel(new MyFirstLevel());
+ *     HeadlessRunner.Result result = replayer.replay(new HeadlessRunner(manager));
+ * </pre>
+ */
+
+public final class InputReplayer implements HeadlessRunner.InputSource {
+    private final long mSeed;
+    private final int mStepMillis;
+    private final int[] mSteps;
+    private final int mStepCount;
+    private final GameView.UIEvent[] mEvents;
+    private int mNext;
+
+    /**
+     * Load a recording.
+     *
+     * @param file a file written by {@link InputRecorder}
+     * @throws IOException if the file can't be read or isn't a recording
+     */
+    public InputReplayer(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != InputRecorder.MAGIC) {
+                throw new IOException(file + " is not an input recording");
+            }
+            int version = in.readShort();
+            if (version < 1 || version > InputRecorder.VERSION) {
+                throw new IOException("Unsupported input recording version " + version);
+            }
+            mSeed = in.readLong();
+            mStepMillis = in.readInt();
+
+            List<Integer> steps = new ArrayList<>();
+            List<GameView.UIEvent> events = new ArrayList<>();
+            GameView.UIEventType[] types = GameView.UIEventType.values();
+            int stepCount = 0;
+            try {
+                int step;
+                while ((step = in.readInt()) != InputRecorder.END_OF_RECORDING) {
+                    GameView.UIEvent e = new GameView.UIEvent();
+                    e.type = types[in.readUnsignedByte()];
+                    InputRecorder.readFields(in, e);
+                    steps.add(step);
+                    events.add(e);
+                }
+                if (version >= 2) {
+                    stepCount = in.readInt();
+                }
+            } catch (EOFException e) {
+                // The recording wasn't closed properly (eg the app was killed); keep what we have.
+            }
+
+            mSteps = new int[steps.size()];
+            for (int i = 0; i < mSteps.length; i++) {
+                mSteps[i] = steps.get(i);
+            }
+            // Without a saved count, run at least until the last event has been delivered
+            if (mSteps.length > 0) {
+                stepCount = Math.max(stepCount, mSteps[mSteps.length - 1] + 1);
+            }
+            mStepCount = stepCount;
+            mEvents = events.toArray(new GameView.UIEvent[events.size()]);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the random seed the recording was made with
+     */
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * @return the update step length the recording was made with, in milliseconds
+     */
+    public int getStepMillis() {
+        return mStepMillis;
+    }
+
+    /**
+     * @return the number of recorded events
+     */
+    public int getEventCount() {
+        return mEvents.length;
+    }
+
+    /**
+     * @return the number of update steps recorded, including those after the last event.  For a
+     * recording that wasn't closed properly, the steps needed to deliver every recorded event.
+     */
+    public int getStepCount() {
+        return mStepCount;
+    }
+
+    /**
+     * Rewind to the start of the recording and reseed {@link Rand} to match it.
+     */
+    public void rewind() {
+        mNext = 0;
+        Rand.setSeed(mSeed);
+    }
+
+    /**
+     * Called by the {@link HeadlessRunner} before each update to deliver the events that were
+     * recorded before the same update step.
+     */
+    @Override
+    public void deliverInput(long step, GameView.IGameLogicService gameLogic) {
+        while (mNext < mSteps.length && mSteps[mNext] <= step) {
+            gameLogic.onMotionEvent(mEvents[mNext]);
+            ++mNext;
+        }
+    }
+
+    /**
+     * Rewind and replay the whole recording on {@code runner}, using the recorded step length.
+     *
+     * @param runner a runner for the game logic, set up in the same state as when recording began
+     * @return timing results for the replay
+     */
+    public HeadlessRunner.Result replay(HeadlessRunner runner) {
+        rewind();
+        runner.setStepMillis(mStepMillis);
+        runner.setInputSource(this);
+        try {
+            return runner.run(getStepCount());
+        } finally {
+            runner.setInputSource(null);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <h1>[internal] Index of named objects by name, for fast prefix searches</h1>
+ * <p>
+ * Each node is one character of a name.  Finding every object whose name starts with a prefix
+ * means walking down the prefix and then collecting everything below that node, so the cost
+ * depends on how many objects match rather than how many there are.  Nodes left empty by a
+ * removal are pruned, so the trie doesn't keep growing as uniquely-named objects come and go.
+ * </p>
+ */
+
+final class NameTrie {
+    private static final class Node {
+        final Node parent;
+        final char key;
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        int childCount;
+        GameObject value;
+
+        Node(Node parent, char key) {
+            this.parent = parent;
+            this.key = key;
+        }
+
+        Node child(char c) {
+            for (int i = 0; i < childCount; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            Node node = new Node(this, c);
+            keys[childCount] = c;
+            children[childCount++] = node;
+            return node;
+        }
+
+        void removeChild(Node node) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i] == node) {
+                    --childCount;
+                    keys[i] = keys[childCount];
+                    children[i] = children[childCount];
+                    children[childCount] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final Node mRoot = new Node(null, '\0');
+
+    /**
+     * File an object under its name, replacing any object already filed there.
+     */
+    void put(String name, GameObject obj) {
+        Node node = mRoot;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            Node next = node.child(c);
+            node = (next != null) ? next : node.addChild(c);
+        }
+        node.value = obj;
+    }
+
+    /**
+     * Take an object out, if it is the one filed under the name.
+     */
+    void remove(String name, GameObject obj) {
+        Node node = find(name);
+        if (node == null || node.value != obj) {
+            return;
+        }
+        node.value = null;
+        while (node != mRoot && node.value == null && node.childCount == 0) {
+            node.parent.removeChild(node);
+            node = node.parent;
+        }
+    }
+
+    GameObject get(String name) {
+        Node node = find(name);
+        return (node != null) ? node.value : null;
+    }
+
+    /**
+     * Add every object whose name starts with {@code prefix} to {@code out}.
+     */
+    void collect(String prefix, List<GameObject> out) {
+        Node node = find(prefix);
+        if (node != null) {
+            collect(node, out);
+        }
+    }
+
+    void clear() {
+        mRoot.keys = new char[0];
+        mRoot.children = new Node[0];
+        mRoot.childCount = 0;
+        mRoot.value = null;
+    }
+
+    private Node find(String name) {
+        Node node = mRoot;
+        for (int i = 0; i < name.length() && node != null; i++) {
+            node = node.child(name.charAt(i));
+        }
+        return node;
+    }
+
+    private static void collect(Node node, List<GameObject> out) {
+        if (node.value != null) {
+            out.add(node.value);
+        }
+        for (int i = 0; i < node.childCount; i++) {
+            collect(node.children[i], out);
+        }
+    }
+}
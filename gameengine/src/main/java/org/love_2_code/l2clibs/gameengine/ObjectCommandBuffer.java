@@ -0,0 +1,99 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.Arrays;
+
+/**
+ * <h1>[internal] Changes to the set of managed objects, saved up to apply after the update</h1>
+ * <p>
+ * While the {@link GameObjectManager} is looping over its objects to update them, game code
+ * may spawn new objects, remove old ones, or change their solidity, z-order or tags.  Changing the
+ * manager's collections in the middle of that loop isn't safe, so each change is written down
+ * here and the manager applies them all in one pass once the loop is over.
+ * </p>
+ * <p>
+ * Commands are stored in parallel arrays that only grow, so recording them doesn't allocate
+ * once the buffer has reached its working size.
+ * </p>
+ */
+
+final class ObjectCommandBuffer {
+    static final int ADD = 0;
+    static final int REMOVE = 1;
+    static final int SET_SOLID = 2;
+    static final int UPDATE_Z_ORDER = 3;
+    static final int SYNC_TAG = 4;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] mOps = new int[INITIAL_CAPACITY];
+    private GameObject[] mObjects = new GameObject[INITIAL_CAPACITY];
+    private int[] mArgs = new int[INITIAL_CAPACITY];
+    private int mSize;
+    private int mAddCount;
+
+    void add(int op, GameObject obj, int arg) {
+        if (mSize == mOps.length) {
+            int capacity = mSize * 2;
+            mOps = Arrays.copyOf(mOps, capacity);
+            mObjects = Arrays.copyOf(mObjects, capacity);
+            mArgs = Arrays.copyOf(mArgs, capacity);
+        }
+        mOps[mSize] = op;
+        mObjects[mSize] = obj;
+        mArgs[mSize] = arg;
+        mSize++;
+        if (op == ADD) {
+            mAddCount++;
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return how many of the recorded commands add an object
+     */
+    int getAddCount() {
+        return mAddCount;
+    }
+
+    int getOp(int i) {
+        return mOps[i];
+    }
+
+    GameObject getObject(int i) {
+        return mObjects[i];
+    }
+
+    int getArg(int i) {
+        return mArgs[i];
+    }
+
+    void clear() {
+        Arrays.fill(mObjects, 0, mSize, null);
+        mSize = 0;
+        mAddCount = 0;
+    }
+}
@@ -0,0 +1,111 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * <h1>A live, read-only list of the managed objects that have one tag</h1>
+ * <p>
+ * Returned by {@link GameObjectManager#getObjectsTagged(String)}.  The manager keeps the list
+ * up to date as objects come and go and as tags are added or removed, so it can be fetched once
+ * and read every frame.  Reading it with {@link #size()} and {@link #get(int)} never allocates.
+ * </p>
+ * <p>
+ * The order of the objects is not meaningful and changes as objects are removed.  Changes
+ * made during the update are applied after it, so it's safe to read this from a game object's
+ * update().
+ * </p>
+ */
+
+public final class ObjectGroup extends AbstractList<GameObject> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int mTagId;
+    private GameObject[] mItems = new GameObject[INITIAL_CAPACITY];
+    private int mSize;
+
+    ObjectGroup(int tagId) {
+        mTagId = tagId;
+    }
+
+    /**
+     * @return the number of the tag this group is for
+     */
+    public int getTagId() {
+        return mTagId;
+    }
+
+    @Override
+    public GameObject get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        return mItems[index];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    boolean has(GameObject obj) {
+        return obj.groupSlot(mTagId) >= 0;
+    }
+
+    void addMember(GameObject obj) {
+        if (has(obj)) {
+            return;
+        }
+        if (mSize == mItems.length) {
+            mItems = Arrays.copyOf(mItems, mSize * 2);
+        }
+        obj.setGroupSlot(mTagId, mSize);
+        mItems[mSize++] = obj;
+        modCount++;
+    }
+
+    void removeMember(GameObject obj) {
+        int slot = obj.groupSlot(mTagId);
+        if (slot < 0) {
+            return;
+        }
+        GameObject moved = mItems[--mSize];
+        mItems[slot] = moved;
+        moved.setGroupSlot(mTagId, slot);
+        mItems[mSize] = null;
+        obj.setGroupSlot(mTagId, -1);
+        modCount++;
+    }
+
+    void removeAll() {
+        for (int i = 0; i < mSize; i++) {
+            mItems[i].setGroupSlot(mTagId, -1);
+            mItems[i] = null;
+        }
+        mSize = 0;
+        modCount++;
+    }
+}
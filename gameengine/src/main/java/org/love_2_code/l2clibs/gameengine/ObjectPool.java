@@ -0,0 +1,234 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * <h1>Keeps removed game objects of one type so they can be used again</h1>
+ * <p>
+ * Games that fire lots of bullets, drop coins or show particle effects create and throw away
+ * many short-lived objects, and the garbage collector eventually stops the game to clean them
+ * up.  A pool avoids that: get objects with {@link #acquire()} instead of {@code new}, set them
+ * up and add them to the game as usual, and when they are removed (for example by
+ * {@link GameObject#requestRemoval()}) the {@link GameObjectManager} puts them back here
+ * instead of dropping them.  Objects that were acquired but never added can be handed back
+ * with {@link #release}.
+ * </p>
+ * <p>
+ * Objects are reset with {@link GameObject#onReset()} when they come back, and
+ * {@link GameObject#onReuse()} is called when they are handed out again.  Only objects that
+ * came from a pool ever go back to it.  Pools are created with
+ * {@link GameObjectManager#createPool}.
+ * </p>
+ *
+ * @param <T> the type of object kept in this pool
+ */
+
+public final class ObjectPool<T extends GameObject> {
+    /**
+     * Default limit on the number of idle objects kept, see {@link #setMaxIdle(int)}.
+     */
+    public static final int DEFAULT_MAX_IDLE = 1024;
+
+    /**
+     * Makes new objects when the pool is empty.
+     *
+     * @param <T> the type of object made
+     */
+    public interface Factory<T extends GameObject> {
+        /**
+         * @return a new object, ready to be set up and added to the game
+         */
+        T create();
+    }
+
+    private final Class<T> mType;
+    private final Factory<T> mFactory;
+    private final ArrayList<T> mIdle = new ArrayList<>();
+    private int mMaxIdle = DEFAULT_MAX_IDLE;
+    private long mHits;
+    private long mMisses;
+    private long mReturned;
+    private long mDropped;
+
+    ObjectPool(Class<T> type, Factory<T> factory) {
+        mType = type;
+        mFactory = factory;
+    }
+
+    /**
+     * @return the type of object kept in this pool
+     */
+    public Class<T> getType() {
+        return mType;
+    }
+
+    /**
+     * Get an object from the pool, or a new one if the pool is empty.  The object is not part
+     * of the game until it is passed to {@link GameObjectManager#addObject}.
+     *
+     * @return an object ready to be set up
+     */
+    public T acquire() {
+        int last = mIdle.size() - 1;
+        if (last >= 0) {
+            T obj = mIdle.remove(last);
+            obj.inPool = false;
+            mHits++;
+            obj.onReuse();
+            return obj;
+        }
+        T obj = mFactory.create();
+        obj.pool = this;
+        mMisses++;
+        return obj;
+    }
+
+    /**
+     * Give back an object from {@link #acquire()}.  It is reset and kept for reuse.  If it is in
+     * the game it is removed first, at the end of the current (or next) update, just as
+     * {@link GameObjectManager#release} does.
+     *
+     * @param obj an object from this pool
+     * @throws IllegalArgumentException if {@code obj} didn't come from this pool
+     */
+    public void release(T obj) {
+        if (obj.pool != this) {
+            throw new IllegalArgumentException(obj + " did not come from the "
+                    + mType.getSimpleName() + " pool");
+        }
+        if (obj.manager != null) {
+            obj.manager.release(obj);
+        } else {
+            recycle(obj);
+        }
+    }
+
+    /**
+     * Create objects ahead of time, so the first ones needed during play don't have to be.
+     *
+     * @param count the number of idle objects to have ready
+     */
+    public void prefill(int count) {
+        count = Math.min(count, mMaxIdle);
+        while (mIdle.size() < count) {
+            T obj = mFactory.create();
+            obj.pool = this;
+            obj.inPool = true;
+            mIdle.add(obj);
+        }
+    }
+
+    /**
+     * Set how many idle objects the pool keeps.  Objects returned beyond this are left for the
+     * garbage collector.
+     *
+     * @param maxIdle the most idle objects to keep
+     */
+    public void setMaxIdle(int maxIdle) {
+        mMaxIdle = Math.max(0, maxIdle);
+        for (int i = mIdle.size() - 1; i >= mMaxIdle; i--) {
+            mIdle.remove(i).inPool = false;
+        }
+    }
+
+    /**
+     * @return the number of objects waiting to be reused
+     */
+    public int getIdleCount() {
+        return mIdle.size();
+    }
+
+    /**
+     * @return how many times {@link #acquire()} reused an object
+     */
+    public long getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return how many times {@link #acquire()} had to create a new object
+     */
+    public long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * @return how many objects have come back to the pool, including those then dropped
+     */
+    public long getReturned() {
+        return mReturned;
+    }
+
+    /**
+     * @return how many returned objects were dropped because the pool was full
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return the fraction of {@link #acquire()} calls that reused an object, from 0 to 1
+     */
+    public float getHitRate() {
+        long total = mHits + mMisses;
+        return (total == 0) ? 0.0f : (float) mHits / total;
+    }
+
+    /**
+     * Set the statistics back to zero.
+     */
+    public void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+        mReturned = 0;
+        mDropped = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s pool: %d idle, %d hits, %d misses (%.1f%%), "
+                        + "%d returned, %d dropped", mType.getSimpleName(), mIdle.size(), mHits,
+                mMisses, getHitRate() * 100.0f, mReturned, mDropped);
+    }
+
+    /**
+     * Take back an object that has left the game.  Called by the {@link GameObjectManager}.
+     */
+    void recycle(GameObject obj) {
+        if (obj.pool != this || obj.inPool) {
+            return;
+        }
+        obj.onReset();
+        mReturned++;
+        if (mIdle.size() < mMaxIdle) {
+            obj.inPool = true;
+            mIdle.add(mType.cast(obj));
+        } else {
+            mDropped++;
+        }
+    }
+}
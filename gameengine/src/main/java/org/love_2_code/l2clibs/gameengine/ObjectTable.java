@@ -0,0 +1,189 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <h1>[internal] The set of objects a {@link GameObjectManager} is looking after</h1>
+ * <p>
+ * Objects are kept in a dense array for fast looping, and each one gets an integer handle made
+ * of a slot number and a generation count.  When an object is removed its slot's generation
+ * goes up, so an old handle to it stops matching instead of finding whatever object takes the
+ * slot next.  Adding, finding by handle and removing are all constant time and don't hash or
+ * build any strings.
+ * </p>
+ * <p>
+ * Only objects that were given a name are entered in the name index (a {@link NameTrie}), so
+ * spawning anonymous objects never touches it.
+ * </p>
+ */
+
+final class ObjectTable {
+    /**
+     * A handle that never refers to an object
+     */
+    static final int NO_HANDLE = 0;
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - INDEX_BITS)) - 1;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private GameObject[] mDense = new GameObject[INITIAL_CAPACITY];
+    private int mSize;
+
+    // Slot table for handles.  Free slots are chained through mNextFree.
+    private GameObject[] mSlots = new GameObject[INITIAL_CAPACITY];
+    private int[] mGenerations = new int[INITIAL_CAPACITY];
+    private int[] mNextFree = new int[INITIAL_CAPACITY];
+    private int mSlotCount;
+    private int mFreeSlot = -1;
+
+    private final NameTrie mNamed = new NameTrie();
+
+    /**
+     * Start tracking an object, giving it a new handle.
+     */
+    void add(GameObject obj) {
+        int slot;
+        if (mFreeSlot >= 0) {
+            slot = mFreeSlot;
+            mFreeSlot = mNextFree[slot];
+        } else {
+            if (mSlotCount == mSlots.length) {
+                if (mSlotCount > INDEX_MASK) {
+                    throw new IllegalStateException("Too many game objects");
+                }
+                int capacity = mSlotCount * 2;
+                mSlots = Arrays.copyOf(mSlots, capacity);
+                mGenerations = Arrays.copyOf(mGenerations, capacity);
+                mNextFree = Arrays.copyOf(mNextFree, capacity);
+            }
+            slot = mSlotCount++;
+            mGenerations[slot] = 1;
+        }
+        mSlots[slot] = obj;
+        obj.handle = (mGenerations[slot] << INDEX_BITS) | slot;
+
+        ensureCapacity(mSize + 1);
+        obj.denseIndex = mSize;
+        mDense[mSize++] = obj;
+
+        if (!obj.isAnonymous()) {
+            mNamed.put(obj.name, obj);
+        }
+    }
+
+    /**
+     * Stop tracking an object.  Its handle becomes stale.  The last object in the dense array
+     * takes its place.
+     */
+    void remove(GameObject obj) {
+        if (!contains(obj)) {
+            return;
+        }
+        int slot = obj.handle & INDEX_MASK;
+        mSlots[slot] = null;
+        // Generation 0 is skipped so that no valid handle is ever NO_HANDLE
+        int generation = (mGenerations[slot] + 1) & GENERATION_MASK;
+        mGenerations[slot] = (generation == 0) ? 1 : generation;
+        mNextFree[slot] = mFreeSlot;
+        mFreeSlot = slot;
+
+        int last = --mSize;
+        GameObject moved = mDense[last];
+        mDense[obj.denseIndex] = moved;
+        moved.denseIndex = obj.denseIndex;
+        mDense[last] = null;
+
+        if (!obj.isAnonymous()) {
+            mNamed.remove(obj.name, obj);
+        }
+        obj.handle = NO_HANDLE;
+        obj.denseIndex = -1;
+    }
+
+    boolean contains(GameObject obj) {
+        return obj.handle != NO_HANDLE && get(obj.handle) == obj;
+    }
+
+    /**
+     * @return the object with this handle, or {@code null} if it has been removed
+     */
+    GameObject get(int handle) {
+        int slot = handle & INDEX_MASK;
+        if (handle == NO_HANDLE || slot >= mSlotCount
+                || mGenerations[slot] != (handle >>> INDEX_BITS)) {
+            return null;
+        }
+        return mSlots[slot];
+    }
+
+    GameObject getByName(String name) {
+        return mNamed.get(name);
+    }
+
+    /**
+     * Add every named object whose name starts with {@code prefix} to {@code out}.
+     */
+    void collectByPrefix(String prefix, List<GameObject> out) {
+        mNamed.collect(prefix, out);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return the object at a position in the dense array, from 0 to size() - 1
+     */
+    GameObject getAt(int i) {
+        return mDense[i];
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > mDense.length) {
+            mDense = Arrays.copyOf(mDense, Math.max(capacity, mDense.length * 2));
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mDense[i].handle = NO_HANDLE;
+            mDense[i].denseIndex = -1;
+            mDense[i] = null;
+        }
+        mSize = 0;
+        // Keep the generations so handles from before the clear stay stale
+        mFreeSlot = -1;
+        for (int slot = mSlotCount - 1; slot >= 0; slot--) {
+            mSlots[slot] = null;
+            int generation = (mGenerations[slot] + 1) & GENERATION_MASK;
+            mGenerations[slot] = (generation == 0) ? 1 : generation;
+            mNextFree[slot] = mFreeSlot;
+            mFreeSlot = slot;
+        }
+        mNamed.clear();
+    }
+}
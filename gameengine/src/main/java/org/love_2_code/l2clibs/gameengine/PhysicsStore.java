@@ -0,0 +1,376 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>[internal] Position, size and motion of many objects, stored in parallel arrays</h1>
+ * <p>
+ * Used by the {@link GameObjectManager} when batch physics is turned on.  Objects that use the
+ * standard {@link GameObject#update} (that is, don't override it) are moved in here, and
+ * {@link #integrate} then does the work of all their update() calls in one loop over plain float
+ * arrays, instead of one virtual call per object with each object's numbers scattered around
+ * memory.  Objects keep their {@code boundingRect} up to date so drawing and collision checks
+ * work unchanged, and their getters and setters read and write these arrays.
+ * </p>
+ * <p>
+ * The step is split into phases: the arithmetic and the search for solid objects in the way,
+ * which only read shared state, and then applying the results and making the collision
+ * callbacks in order.  Given a {@link WorkerPool}, the first phases run on all threads at once,
+ * each thread taking a range of objects.  The phases are the same with or without threads, so
+ * the outcome doesn't depend on how many there are.
+ * </p>
+ */
+
+final class PhysicsStore {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int FLAG_GRAVITY = 1;
+    private static final int FLAG_AUTO_DIE = 2;
+    private static final int FLAG_MOVING = 4;
+    private static final int FLAG_EXPIRED = 8;
+    // Fewer objects than this per chunk aren't worth handing to another thread
+    private static final int MIN_CHUNK_SIZE = 128;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final Map<Class<?>, Boolean> sEligibleClasses = new HashMap<>();
+
+    // Center, size, velocity and acceleration, in world units and seconds
+    float[] x = new float[INITIAL_CAPACITY];
+    float[] y = new float[INITIAL_CAPACITY];
+    float[] w = new float[INITIAL_CAPACITY];
+    float[] h = new float[INITIAL_CAPACITY];
+    float[] vx = new float[INITIAL_CAPACITY];
+    float[] vy = new float[INITIAL_CAPACITY];
+    float[] ax = new float[INITIAL_CAPACITY];
+    float[] ay = new float[INITIAL_CAPACITY];
+    long[] life = new long[INITIAL_CAPACITY];
+    long[] maxLife = new long[INITIAL_CAPACITY];
+    private int[] mFlags = new int[INITIAL_CAPACITY];
+    // Where each object is heading this step, before solid objects get a say
+    private float[] mNextX = new float[INITIAL_CAPACITY];
+    private float[] mNextY = new float[INITIAL_CAPACITY];
+    private GameObject[] mOwners = new GameObject[INITIAL_CAPACITY];
+    // Number of solid objects each object was found touching, listed in its chunk's contact list
+    private int[] mContactCounts = new int[INITIAL_CAPACITY];
+    private final List<ArrayList<GameObject>> mChunkContacts = new ArrayList<>();
+    private int mSize;
+
+    // The step being run in parallel
+    private int mStepMsec;
+    private GameObjectManager mStepManager;
+    private boolean mStepHasSolids;
+    private final WorkerPool.Job mParallelStep = new WorkerPool.Job() {
+        @Override
+        public void runChunk(int chunk, int chunkCount) {
+            int from = chunkStart(chunk, chunkCount);
+            int to = chunkStart(chunk + 1, chunkCount);
+            integrateRange(from, to, mStepMsec);
+            if (mStepHasSolids) {
+                findContacts(from, to, mStepManager, mChunkContacts.get(chunk));
+            }
+        }
+    };
+
+    /**
+     * Checks whether an object can be batched: only objects whose update() is the standard one
+     * in {@link GameObject}, since their update does nothing but what {@link #integrate} does.
+     */
+    static boolean isEligible(GameObject obj) {
+        Class<?> cls = obj.getClass();
+        Boolean eligible = sEligibleClasses.get(cls);
+        if (eligible == null) {
+            try {
+                eligible = cls.getMethod("update", int.class).getDeclaringClass()
+                        == GameObject.class;
+            } catch (NoSuchMethodException e) {
+                eligible = false;
+            }
+            sEligibleClasses.put(cls, eligible);
+        }
+        return eligible;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Move an object's state in here.
+     */
+    void attach(GameObject obj) {
+        if (mSize == mOwners.length) {
+            grow(mSize * 2);
+        }
+        int i = mSize++;
+        mOwners[i] = obj;
+        RectF r = obj.boundingRect;
+        x[i] = r.centerX();
+        y[i] = r.centerY();
+        w[i] = r.width();
+        h[i] = r.height();
+        // Read the object's own fields before it starts pointing at us
+        vx[i] = obj.getdX();
+        vy[i] = obj.getdY();
+        ax[i] = obj.getAccelX();
+        ay[i] = obj.getAccelY();
+        life[i] = obj.getTimeOnScreen();
+        maxLife[i] = obj.getMaxTimeOnScreen();
+        mFlags[i] = (obj.feelsGravity() ? FLAG_GRAVITY : 0)
+                | (Boolean.TRUE.equals(obj.getAutoDieOffscreen()) ? FLAG_AUTO_DIE : 0);
+        obj.attachPhysics(this, i);
+    }
+
+    /**
+     * Move an object's state back into the object.  The last object takes its slot.
+     */
+    void detach(GameObject obj) {
+        int i = obj.physicsIndex();
+        if (i < 0 || i >= mSize || mOwners[i] != obj) {
+            return;
+        }
+        obj.detachPhysics();
+        int last = --mSize;
+        if (i != last) {
+            x[i] = x[last];
+            y[i] = y[last];
+            w[i] = w[last];
+            h[i] = h[last];
+            vx[i] = vx[last];
+            vy[i] = vy[last];
+            ax[i] = ax[last];
+            ay[i] = ay[last];
+            life[i] = life[last];
+            maxLife[i] = maxLife[last];
+            mFlags[i] = mFlags[last];
+            mOwners[i] = mOwners[last];
+            mOwners[i].attachPhysics(this, i);
+        }
+        mOwners[last] = null;
+    }
+
+    void detachAll() {
+        while (mSize > 0) {
+            detach(mOwners[mSize - 1]);
+        }
+    }
+
+    boolean feelsGravity(int i) {
+        return (mFlags[i] & FLAG_GRAVITY) != 0;
+    }
+
+    void setFeelsGravity(int i, boolean gravity) {
+        mFlags[i] = gravity ? (mFlags[i] | FLAG_GRAVITY) : (mFlags[i] & ~FLAG_GRAVITY);
+    }
+
+    boolean autoDies(int i) {
+        return (mFlags[i] & FLAG_AUTO_DIE) != 0;
+    }
+
+    void setAutoDies(int i, boolean autoDie) {
+        mFlags[i] = autoDie ? (mFlags[i] | FLAG_AUTO_DIE) : (mFlags[i] & ~FLAG_AUTO_DIE);
+    }
+
+    /**
+     * Re-read an object's bounding box after it was moved or resized.
+     */
+    void boundsChanged(int i, RectF r) {
+        x[i] = r.centerX();
+        y[i] = r.centerY();
+        w[i] = r.width();
+        h[i] = r.height();
+    }
+
+    /**
+     * Do one update step for every object in the store: the same thing
+     * {@link GameObject#update} does for a single object.
+     *
+     * @param msec      length of the step in milliseconds
+     * @param manager   the manager, for collisions and the world boundary
+     * @param hasSolids {@code false} to skip looking for solid objects in the way
+     * @param pool      threads to share the work with, or {@code null} to do it all here
+     */
+    void integrate(int msec, GameObjectManager manager, boolean hasSolids, WorkerPool pool) {
+        int chunkCount = 1;
+        if (pool != null) {
+            chunkCount = Math.min(pool.getThreadCount() * CHUNKS_PER_THREAD,
+                    (mSize + MIN_CHUNK_SIZE - 1) / MIN_CHUNK_SIZE);
+        }
+        chunkCount = Math.max(1, chunkCount);
+
+        // Phases one and two, on every thread: move, and find the solids each object touches.
+        // Solids are found where they were at the start of the step, so the outcome doesn't
+        // depend on how the objects were split up, or whether they were split at all.
+        while (mChunkContacts.size() < chunkCount) {
+            mChunkContacts.add(new ArrayList<GameObject>());
+        }
+        mStepMsec = msec;
+        mStepManager = manager;
+        mStepHasSolids = hasSolids;
+        try {
+            if (chunkCount == 1) {
+                mParallelStep.runChunk(0, 1);
+            } else {
+                pool.run(mParallelStep, chunkCount);
+            }
+        } finally {
+            mStepManager = null;
+        }
+
+        // Phase three, here: land on the solids and make the callbacks, in the usual order.
+        // Objects added or removed by the callbacks wait for the end of the update, so the
+        // chunks stay as they were.
+        RectF world = manager.getWorldBoundary();
+        float fracsec = msec / 1000.0f;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            ArrayList<GameObject> contacts = mChunkContacts.get(chunk);
+            int nextContact = 0;
+            int to = chunkStart(chunk + 1, chunkCount);
+            for (int i = chunkStart(chunk, chunkCount); i < to; i++) {
+                int count = hasSolids ? mContactCounts[i] : 0;
+                float startX = x[i];
+                if (count == 0) {
+                    finishStep(i, startX, mNextY[i], fracsec, manager, world);
+                    continue;
+                }
+                ArrayList<GameObject> solids = manager.acquireQueryList();
+                for (int k = 0; k < count; k++) {
+                    solids.add(contacts.get(nextContact++));
+                }
+                float nextY = mOwners[i].landOnSolids(startX, y[i], mNextX[i], mNextY[i], solids);
+                manager.releaseQueryList(solids);
+                finishStep(i, startX, nextY, fracsec, manager, world);
+            }
+            contacts.clear();
+        }
+    }
+
+    private void integrateRange(int from, int to, int msec) {
+        float fracsec = msec / 1000.0f;
+        for (int i = from; i < to; i++) {
+            int flags = mFlags[i] & ~(FLAG_MOVING | FLAG_EXPIRED);
+            life[i] += msec;
+            if (maxLife[i] > 0 && life[i] > maxLife[i]) {
+                flags |= FLAG_EXPIRED;
+            }
+            if ((flags & FLAG_GRAVITY) != 0) {
+                vx[i] += ax[i] * fracsec;
+                vy[i] += ay[i] * fracsec;
+            }
+            if (vx[i] != 0.0f || vy[i] != 0.0f) {
+                flags |= FLAG_MOVING;
+                mNextX[i] = x[i] + vx[i] * fracsec;
+                mNextY[i] = y[i] + vy[i] * fracsec;
+            }
+            mFlags[i] = flags;
+        }
+    }
+
+    /**
+     * List the solid objects each moving object in a range is touching.  Only reads shared
+     * state, so several ranges can be searched at once.
+     */
+    private void findContacts(int from, int to, GameObjectManager manager,
+                              ArrayList<GameObject> contacts) {
+        for (int i = from; i < to; i++) {
+            mContactCounts[i] = 0;
+            if ((mFlags[i] & FLAG_MOVING) == 0) {
+                continue;
+            }
+            GameObject obj = mOwners[i];
+            int start = contacts.size();
+            manager.querySolidsTouching(obj, contacts);
+            // Keep only the ones that really overlap, as GameObject would check anyway
+            int kept = start;
+            for (int k = start; k < contacts.size(); k++) {
+                GameObject other = contacts.get(k);
+                if (other != obj && obj.intersects(other)) {
+                    contacts.set(kept++, other);
+                }
+            }
+            for (int k = contacts.size() - 1; k >= kept; k--) {
+                contacts.remove(k);
+            }
+            mContactCounts[i] = kept - start;
+        }
+    }
+
+    /**
+     * Apply the outcome of a step to one object: its new position and whether it should go.
+     * As in {@link GameObject#update}, the horizontal move uses the velocity after any
+     * onCollision callbacks, which may have changed it.
+     *
+     * @param startX the object's x position before the callbacks
+     */
+    private void finishStep(int i, float startX, float nextY, float fracsec,
+                            GameObjectManager manager, RectF world) {
+        int flags = mFlags[i];
+        GameObject obj = mOwners[i];
+        if ((flags & FLAG_EXPIRED) != 0) {
+            obj.requestRemoval();
+        }
+        if ((flags & FLAG_MOVING) != 0) {
+            x[i] = startX + vx[i] * fracsec;
+            y[i] = nextY;
+            float halfW = w[i] / 2;
+            float halfH = h[i] / 2;
+            obj.boundingRect.set(x[i] - halfW, y[i] - halfH, x[i] + halfW, y[i] + halfH);
+            // Read back what the box rounded to, as GameObject.getX() and getY() would
+            boundsChanged(i, obj.boundingRect);
+            manager.objectMoved(obj);
+        }
+        if ((flags & FLAG_AUTO_DIE) != 0) {
+            if (!RectF.intersects(obj.boundingRect, world)) {
+                obj.requestRemoval();
+            }
+        }
+    }
+
+    private int chunkStart(int chunk, int chunkCount) {
+        return (int) ((long) mSize * chunk / chunkCount);
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        w = Arrays.copyOf(w, capacity);
+        h = Arrays.copyOf(h, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        ax = Arrays.copyOf(ax, capacity);
+        ay = Arrays.copyOf(ay, capacity);
+        life = Arrays.copyOf(life, capacity);
+        maxLife = Arrays.copyOf(maxLife, capacity);
+        mFlags = Arrays.copyOf(mFlags, capacity);
+        mNextX = Arrays.copyOf(mNextX, capacity);
+        mNextY = Arrays.copyOf(mNextY, capacity);
+        mOwners = Arrays.copyOf(mOwners, capacity);
+        mContactCounts = Arrays.copyOf(mContactCounts, capacity);
+    }
+}
@@ -22,17 +22,45 @@
 
 package org.love_2_code.l2clibs.gameengine;
 
-import java.util.Random;
-
 /**
  * <h1>Helper functions for using random numbers in your game</h1>
+ * <p>
+ * Uses the same generator as java.util.Random, so a seed gives the same numbers it always
+ * has, but keeps its state where a {@link WorldSnapshot} can save and restore it.
+ * </p>
  */
 
 final public class Rand {
     final private static String TAG = "Rand";
     final private static int FPS = 60;
 
-    private static Random mRand = new Random();
+    // java.util.Random's linear congruential generator
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private static long mSeed = System.nanoTime();
+    private static long mState = scramble(mSeed);
+
+    /**
+     * Restart the random number sequence from a known seed, so that a run of the game can be
+     * repeated exactly (see {@link InputRecorder}).
+     *
+     * @param seed the seed to start from
+     */
+    public static void setSeed(long seed) {
+        mSeed = seed;
+        mState = scramble(seed);
+    }
+
+    /**
+     * Get the seed most recently used to start the random number sequence.
+     *
+     * @return the seed
+     */
+    public static long getSeed() {
+        return mSeed;
+    }
 
     /**
      * Returns a random number between {@code min} and {@code max}
@@ -45,7 +73,7 @@ final public class Rand {
      * @return integer in the range min..max
      */
     public static int between(int min, int max) {
-        return min + mRand.nextInt(max - min + 1);
+        return min + nextInt(max - min + 1);
     }
 
     /**
@@ -56,7 +84,48 @@ final public class Rand {
      */
     public static boolean onceEvery(float seconds) {
         int ticks = (int) (seconds * FPS);
-        int prob = mRand.nextInt(ticks);
+        int prob = nextInt(ticks);
         return prob == 0;
     }
+
+    /**
+     * @return where the generator is in its sequence, for {@link WorldSnapshot}
+     */
+    static long getState() {
+        return mState;
+    }
+
+    /**
+     * Continue the sequence from a state returned by {@link #getState()}.
+     */
+    static void setState(long state) {
+        mState = state & MASK;
+    }
+
+    private static long scramble(long seed) {
+        return (seed ^ MULTIPLIER) & MASK;
+    }
+
+    private static int next(int bits) {
+        mState = (mState * MULTIPLIER + ADDEND) & MASK;
+        return (int) (mState >>> (48 - bits));
+    }
+
+    /**
+     * Same as java.util.Random.nextInt(int).
+     */
+    private static int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        if ((bound & -bound) == bound) {
+            return (int) ((bound * (long) next(31)) >> 31);
+        }
+        int bits, val;
+        do {
+            bits = next(31);
+            val = bits % bound;
+        } while (bits - val + (bound - 1) < 0);
+        return val;
+    }
 }
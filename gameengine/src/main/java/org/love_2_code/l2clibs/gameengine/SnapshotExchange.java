@@ -0,0 +1,80 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>[internal] Triple buffer that hands {@link FrameSnapshot}s from the simulation thread to
+ * the render thread</h1>
+ * <p>
+ * The writer always has a buffer of its own to fill and the reader always has a buffer of its
+ * own to draw, so neither side ever waits for the other.  The third buffer holds the most
+ * recently published snapshot and is swapped atomically with whichever side wants it next.
+ * </p>
+ */
+
+final class SnapshotExchange {
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final FrameSnapshot[] mBuffers = {
+            new FrameSnapshot(), new FrameSnapshot(), new FrameSnapshot()};
+    private int mBack = 0;      // Only touched by the writer
+    private int mFront = 1;     // Only touched by the reader
+    private final AtomicInteger mMiddle = new AtomicInteger(2);
+
+    /**
+     * Get the buffer the writer should fill next.  Writer thread only.
+     */
+    FrameSnapshot beginWrite() {
+        return mBuffers[mBack];
+    }
+
+    /**
+     * Make the buffer returned by {@link #beginWrite()} available to the reader.  Writer thread
+     * only.
+     */
+    void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Get the most recently published snapshot, or the previous one again if nothing new has
+     * been published since.  Reader thread only.
+     */
+    FrameSnapshot acquireLatest() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        }
+        return mBuffers[mFront];
+    }
+
+    /**
+     * Get the snapshot last returned by {@link #acquireLatest()}.  Reader thread only.
+     */
+    FrameSnapshot current() {
+        return mBuffers[mFront];
+    }
+}
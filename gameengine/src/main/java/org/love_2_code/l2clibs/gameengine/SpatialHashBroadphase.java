@@ -0,0 +1,348 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <h1>[internal] Broadphase that sorts objects into a uniform grid of square cells</h1>
+ * <p>
+ * Every object is listed in each grid cell its bounding box touches, and a query only looks at
+ * the cells the query area touches.  The world isn't limited in size: cells are mapped into a
+ * fixed table of buckets by hashing their coordinates, so far-apart cells may share a bucket,
+ * which costs a little extra checking but is never wrong.
+ * </p>
+ * <p>
+ * Works best when most objects are no bigger than a few cells.  Pick a cell size around the
+ * size of a typical moving object.  An object covering more cells than there are buckets is
+ * simply listed in every bucket.
+ * </p>
+ */
+
+final class SpatialHashBroadphase extends Broadphase {
+    static final float DEFAULT_CELL_SIZE = 100.0f;
+    private static final int BUCKET_COUNT = 4096;   // Must be a power of two
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+    // Cell coordinates are clamped to this, so ranges can't overflow and loops always end
+    private static final int MAX_CELL = 1 << 30;
+
+    private final float mCellSize;
+    private final GameObject[][] mBuckets = new GameObject[BUCKET_COUNT][];
+    private final int[] mBucketSizes = new int[BUCKET_COUNT];
+    // Proxies of removed objects, kept for the next objects added
+    private final ArrayList<Proxy> mFreeProxies = new ArrayList<>();
+    // Buckets already visited by the current insert() or erase() hold the current stamp
+    private final int[] mBucketStamps = new int[BUCKET_COUNT];
+    private int mStamp;
+
+    /**
+     * The range of cells an object was filed under, kept in {@link GameObject#broadphaseData}
+     */
+    private static final class Proxy {
+        int minX, minY, maxX, maxY;
+    }
+
+    SpatialHashBroadphase(float cellSize) {
+        if (!(cellSize > 0.0f)) {
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        }
+        mCellSize = cellSize;
+    }
+
+    float getCellSize() {
+        return mCellSize;
+    }
+
+    @Override
+    public void add(GameObject obj) {
+        int free = mFreeProxies.size();
+        Proxy proxy = (free > 0) ? mFreeProxies.remove(free - 1) : new Proxy();
+        setRange(proxy, obj);
+        obj.broadphaseData = proxy;
+        insert(obj, proxy);
+    }
+
+    @Override
+    public void remove(GameObject obj) {
+        if (!(obj.broadphaseData instanceof Proxy)) {
+            return;
+        }
+        Proxy proxy = (Proxy) obj.broadphaseData;
+        erase(obj, proxy);
+        obj.broadphaseData = null;
+        mFreeProxies.add(proxy);
+    }
+
+    @Override
+    public void update(GameObject obj) {
+        if (!(obj.broadphaseData instanceof Proxy)) {
+            return;
+        }
+        Proxy proxy = (Proxy) obj.broadphaseData;
+        int minX = cell(obj.boundingRect.left);
+        int minY = cell(obj.boundingRect.top);
+        int maxX = cell(obj.boundingRect.right);
+        int maxY = cell(obj.boundingRect.bottom);
+        if (minX == proxy.minX && minY == proxy.minY && maxX == proxy.maxX && maxY == proxy.maxY) {
+            return;
+        }
+        if (isOversized(proxy) && isOversized(minX, minY, maxX, maxY)) {
+            // Listed in every bucket either way
+            proxy.minX = minX;
+            proxy.minY = minY;
+            proxy.maxX = maxX;
+            proxy.maxY = maxY;
+            return;
+        }
+        erase(obj, proxy);
+        proxy.minX = minX;
+        proxy.minY = minY;
+        proxy.maxX = maxX;
+        proxy.maxY = maxY;
+        insert(obj, proxy);
+    }
+
+    @Override
+    public void query(float left, float top, float right, float bottom, boolean solidOnly,
+                      List<GameObject> out) {
+        int qMinX = cell(left);
+        int qMinY = cell(top);
+        int qMaxX = cell(right);
+        int qMaxY = cell(bottom);
+        if (isOversized(qMinX, qMinY, qMaxX, qMaxY)) {
+            // Covers more cells than there are buckets, like a zoomed-out camera view, so it's
+            // quicker to look at every bucket once
+            queryAllBuckets(qMinX, qMinY, qMaxX, qMaxY, left, top, right, bottom, solidOnly, out);
+            return;
+        }
+        for (int cy = qMinY; cy <= qMaxY; cy++) {
+            for (int cx = qMinX; cx <= qMaxX; cx++) {
+                int b = bucket(cx, cy);
+                GameObject[] bucket = mBuckets[b];
+                int size = mBucketSizes[b];
+                for (int i = 0; i < size; i++) {
+                    GameObject obj = bucket[i];
+                    Proxy proxy = (Proxy) obj.broadphaseData;
+                    // An object spanning several cells is reported only from the first cell
+                    // shared by it and the query, so it is never reported twice.  This also
+                    // skips objects that are only here because their cell hashed to this bucket.
+                    if (cx != Math.max(qMinX, proxy.minX) || cy != Math.max(qMinY, proxy.minY)
+                            || cx > proxy.maxX || cy > proxy.maxY) {
+                        continue;
+                    }
+                    if (solidOnly && !obj.isSolid()) {
+                        continue;
+                    }
+                    if (overlaps(obj, left, top, right, bottom)) {
+                        out.add(obj);
+                    }
+                }
+            }
+        }
+    }
+
+    private void queryAllBuckets(int qMinX, int qMinY, int qMaxX, int qMaxY, float left,
+                                 float top, float right, float bottom, boolean solidOnly,
+                                 List<GameObject> out) {
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            GameObject[] bucket = mBuckets[b];
+            int size = mBucketSizes[b];
+            for (int i = 0; i < size; i++) {
+                GameObject obj = bucket[i];
+                Proxy proxy = (Proxy) obj.broadphaseData;
+                // Same rule as query(): report from the first cell shared with the query
+                int cx = Math.max(qMinX, proxy.minX);
+                int cy = Math.max(qMinY, proxy.minY);
+                if (cx > Math.min(qMaxX, proxy.maxX) || cy > Math.min(qMaxY, proxy.maxY)
+                        || bucket(cx, cy) != b) {
+                    continue;
+                }
+                if (solidOnly && !obj.isSolid()) {
+                    continue;
+                }
+                if (overlaps(obj, left, top, right, bottom)) {
+                    out.add(obj);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void findPairs(boolean solidOnly, PairListener listener) {
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            GameObject[] bucket = mBuckets[b];
+            int size = mBucketSizes[b];
+            for (int i = 0; i < size; i++) {
+                GameObject a = bucket[i];
+                Proxy pa = (Proxy) a.broadphaseData;
+                for (int j = i + 1; j < size; j++) {
+                    GameObject o = bucket[j];
+                    if (solidOnly && !a.isSolid() && !o.isSolid()) {
+                        continue;
+                    }
+                    // Like query(), report the pair only from the first cell the two share
+                    Proxy po = (Proxy) o.broadphaseData;
+                    int cx = Math.max(pa.minX, po.minX);
+                    int cy = Math.max(pa.minY, po.minY);
+                    if (cx > Math.min(pa.maxX, po.maxX) || cy > Math.min(pa.maxY, po.maxY)
+                            || bucket(cx, cy) != b) {
+                        continue;
+                    }
+                    if (overlaps(a, o)) {
+                        listener.onPair(a, o);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            GameObject[] bucket = mBuckets[b];
+            for (int i = 0; i < mBucketSizes[b]; i++) {
+                bucket[i].broadphaseData = null;
+                bucket[i] = null;
+            }
+            mBucketSizes[b] = 0;
+        }
+    }
+
+    /**
+     * The cell a coordinate is in.  NaN goes in cell 0, and huge or infinite coordinates in the
+     * last cell in that direction.
+     */
+    private int cell(float coord) {
+        if (coord != coord) {
+            return 0;
+        }
+        double c = Math.floor(coord / mCellSize);
+        return (int) Math.max(-MAX_CELL, Math.min(MAX_CELL, c));
+    }
+
+    /**
+     * True if the range covers more cells than there are buckets.
+     */
+    private static boolean isOversized(int minX, int minY, int maxX, int maxY) {
+        return ((long) maxX - minX + 1) * ((long) maxY - minY + 1) > BUCKET_COUNT;
+    }
+
+    private static boolean isOversized(Proxy proxy) {
+        return isOversized(proxy.minX, proxy.minY, proxy.maxX, proxy.maxY);
+    }
+
+    private static int bucket(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & (BUCKET_COUNT - 1);
+    }
+
+    private void setRange(Proxy proxy, GameObject obj) {
+        proxy.minX = cell(obj.boundingRect.left);
+        proxy.minY = cell(obj.boundingRect.top);
+        proxy.maxX = cell(obj.boundingRect.right);
+        proxy.maxY = cell(obj.boundingRect.bottom);
+    }
+
+    /**
+     * File the object under every cell in its range, but only once per bucket even if two of
+     * its cells hash to the same bucket.
+     */
+    private void insert(GameObject obj, Proxy proxy) {
+        if (isOversized(proxy)) {
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                insertInto(b, obj);
+            }
+            return;
+        }
+        int stamp = nextStamp();
+        for (int cy = proxy.minY; cy <= proxy.maxY; cy++) {
+            for (int cx = proxy.minX; cx <= proxy.maxX; cx++) {
+                int b = bucket(cx, cy);
+                if (mBucketStamps[b] != stamp) {
+                    mBucketStamps[b] = stamp;
+                    insertInto(b, obj);
+                }
+            }
+        }
+    }
+
+    private void insertInto(int b, GameObject obj) {
+        GameObject[] bucket = mBuckets[b];
+        int size = mBucketSizes[b];
+        if (bucket == null) {
+            bucket = mBuckets[b] = new GameObject[INITIAL_BUCKET_CAPACITY];
+        } else if (size == bucket.length) {
+            GameObject[] grown = new GameObject[size * 2];
+            System.arraycopy(bucket, 0, grown, 0, size);
+            bucket = mBuckets[b] = grown;
+        }
+        bucket[size] = obj;
+        mBucketSizes[b] = size + 1;
+    }
+
+    private void erase(GameObject obj, Proxy proxy) {
+        if (isOversized(proxy)) {
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                eraseFrom(b, obj);
+            }
+            return;
+        }
+        int stamp = nextStamp();
+        for (int cy = proxy.minY; cy <= proxy.maxY; cy++) {
+            for (int cx = proxy.minX; cx <= proxy.maxX; cx++) {
+                int b = bucket(cx, cy);
+                if (mBucketStamps[b] != stamp) {
+                    mBucketStamps[b] = stamp;
+                    eraseFrom(b, obj);
+                }
+            }
+        }
+    }
+
+    private void eraseFrom(int b, GameObject obj) {
+        GameObject[] bucket = mBuckets[b];
+        int last = mBucketSizes[b] - 1;
+        for (int i = 0; i <= last; i++) {
+            if (bucket[i] == obj) {
+                bucket[i] = bucket[last];
+                bucket[last] = null;
+                mBucketSizes[b] = last;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return a stamp no bucket holds yet
+     */
+    private int nextStamp() {
+        if (++mStamp == 0) {
+            // Wrapped around, so old stamps could match again
+            Arrays.fill(mBucketStamps, 0);
+            mStamp = 1;
+        }
+        return mStamp;
+    }
+}
@@ -29,6 +29,7 @@ import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.RectF;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -51,13 +52,15 @@ import java.util.Map;
 
 public class Sprite extends GameObject {
     final static String DEFAULT_STATE_NAME = "default";
+    final static int NO_IMAGE = 0;
     protected String mMotionState = DEFAULT_STATE_NAME;
     protected Map<String, MotionSequence> mMotionSequences = new HashMap<>();
-    private long timeInThisMotionState;
+    private long motionStateStartTime;  // getTimeOnScreen() when the current motion state began
     private Matrix mMatrix;
     private boolean mFlipX;
     private boolean mFlipY;
     private float mRotation;
+    private DebugPaints mDebugPaints;   // Created the first time this sprite draws in debug mode
 
     /**
      * Returns a Sprite game object with the given name and location/size on the screen.
@@ -118,9 +121,64 @@ public class Sprite extends GameObject {
     public void setMotionState(String motionState, boolean restartIfSame) {
         if (mMotionState != motionState) {
             mMotionState = motionState;
-            timeInThisMotionState = 0;
+            motionStateStartTime = getTimeOnScreen();
         } else if (restartIfSame) {
-            timeInThisMotionState = 0;
+            motionStateStartTime = getTimeOnScreen();
+        }
+    }
+
+    /**
+     * Also goes back to the default motion state, unflipped and unrotated.  The motion sequences
+     * are kept, so a pooled sprite doesn't have to load its images again.
+     */
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mMotionState = DEFAULT_STATE_NAME;
+        motionStateStartTime = 0;
+        mFlipX = false;
+        mFlipY = false;
+        mRotation = 0.0f;
+    }
+
+    @Override
+    protected void writeState(ByteBuffer out) {
+        super.writeState(out);
+        WorldSnapshot.putString(out, mMotionState);
+        out.putLong(motionStateStartTime);
+        out.put((byte) ((mFlipX ? 1 : 0) | (mFlipY ? 2 : 0)));
+        out.putFloat(mRotation);
+        MotionSequence ms = mMotionSequences.get(DEFAULT_STATE_NAME);
+        out.putInt((ms != null && ms.resourceIds.size() == 1) ? ms.resourceIds.get(0) : NO_IMAGE);
+    }
+
+    @Override
+    protected void readState(ByteBuffer in) {
+        super.readState(in);
+        String state = WorldSnapshot.getString(in);
+        // Motion states are compared by identity, so use the key the sequence was stored under
+        if (DEFAULT_STATE_NAME.equals(state)) {
+            state = DEFAULT_STATE_NAME;
+        } else {
+            for (String key : mMotionSequences.keySet()) {
+                if (key.equals(state)) {
+                    state = key;
+                    break;
+                }
+            }
+        }
+        mMotionState = state;
+        motionStateStartTime = in.getLong();
+        int flips = in.get();
+        mFlipX = (flips & 1) != 0;
+        mFlipY = (flips & 2) != 0;
+        mRotation = in.getFloat();
+        int image = in.getInt();
+        MotionSequence ms = mMotionSequences.get(DEFAULT_STATE_NAME);
+        if (image != NO_IMAGE && (ms == null || ms.resourceIds.size() != 1
+                || ms.resourceIds.get(0) != image)) {
+            // Changed with loadImage() since the factory made it
+            setDefaultImage(image);
         }
     }
 
@@ -145,21 +203,6 @@ public class Sprite extends GameObject {
         super.onFling(x, y, dx, dy);
     }
 
-    /**
-     * Called once per screen refresh to do whatever modifications are desired to the sprite's
-     * location, size, etc.
-     * <p>
-     * By default, sprites have no behavior - they just sit in one place.
-     * Override this method if desired to make your sprite move.
-     *
-     * @param msec number of milliseconds since the last screen update.
-     */
-    @Override
-    public void update(int msec) {
-        super.update(msec);
-        timeInThisMotionState += msec;
-    }
-
     /**
      * Called by the Game Engine to draw this sprite onto the screen every frame.  Do not call
      * this routine yourself.
@@ -169,13 +212,44 @@ public class Sprite extends GameObject {
      * @param yScale horizontal scale factor between world and screen coordinates
      */
     public void draw(Canvas c, float xScale, float yScale) {
-        MotionSequence ms = mMotionSequences.get(mMotionState);
-        if (ms == null || ms.resourceIds.isEmpty()) {
+        int imageId = currentImageId();
+        if (imageId == NO_IMAGE) {
             // No image has been requested, or someone put is in a bad state.  Draw nothing.
             return;
         }
+        drawImage(c, boundingRect, imageId, mFlipX, mFlipY, mRotation, xScale, yScale);
+    }
+
+    @Override
+    protected void captureSnapshot(FrameSnapshot.Entry entry) {
+        super.captureSnapshot(entry);
+        entry.imageId = currentImageId();
+        entry.flipX = mFlipX;
+        entry.flipY = mFlipY;
+        entry.rotation = mRotation;
+    }
+
+    @Override
+    protected void drawSnapshot(Canvas c, FrameSnapshot.Entry entry, float xScale, float yScale) {
+        if (entry.imageId == NO_IMAGE) {
+            return;
+        }
+        drawImage(c, entry.rect, entry.imageId, entry.flipX, entry.flipY, entry.rotation, xScale, yScale);
+    }
+
+    /**
+     * Work out which image of the current motion sequence should be showing right now.
+     *
+     * @return the image resource ID, or {@link #NO_IMAGE} if there is nothing to draw
+     */
+    private int currentImageId() {
+        MotionSequence ms = mMotionSequences.get(mMotionState);
+        if (ms == null || ms.resourceIds.isEmpty()) {
+            return NO_IMAGE;
+        }
 
         // Loop through resourceIDs, spending specified time on each frame.
+        long timeInThisMotionState = getTimeOnScreen() - motionStateStartTime;
         int frameIndex = (int) (timeInThisMotionState / ms.msecPerFrame) % ms.resourceIds.size();
         int resourceID = ms.resourceIds.get(frameIndex);
 
@@ -184,10 +258,13 @@ public class Sprite extends GameObject {
         if (resourceID == -1) {
             setMotionState(DEFAULT_STATE_NAME);
             // Call recursively to make sure everything gets checked again.
-            draw(c, xScale, yScale);
-            return;
+            return currentImageId();
         }
-        int imageId = ms.resourceIds.get(frameIndex);
+        return resourceID;
+    }
+
+    private void drawImage(Canvas c, RectF rect, int imageId, boolean flipX, boolean flipY,
+                           float rotation, float xScale, float yScale) {
         Bitmap image = Images.get(imageId);
 
         // Log.d("gameobject", "Drawing " + name + " at " + x + ", " + y);
@@ -196,50 +273,68 @@ public class Sprite extends GameObject {
             mMatrix = new Matrix();
         }
         mMatrix.setTranslate(-image.getWidth() / 2.0f, -image.getHeight() / 2.0f);
-        if (mFlipX) {
+        if (flipX) {
             mMatrix.postScale(-1.0f, 1.0f);
         }
-        if (mFlipY) {
+        if (flipY) {
             mMatrix.postScale(1.0f, -1.0f);
         }
-        if (mRotation != 0.0f) {
-            mMatrix.postRotate(mRotation);
+        if (rotation != 0.0f) {
+            mMatrix.postRotate(rotation);
         }
-        mMatrix.postScale(boundingRect.width() * xScale / image.getWidth(), boundingRect.height() * yScale / image.getHeight());
-        mMatrix.postTranslate(boundingRect.centerX() * xScale, boundingRect.centerY() * yScale);
+        mMatrix.postScale(rect.width() * xScale / image.getWidth(), rect.height() * yScale / image.getHeight());
+        mMatrix.postTranslate(rect.centerX() * xScale, rect.centerY() * yScale);
 
-        // RectF screenRect = new RectF(boundingRect.left * xScale, boundingRect.top * yScale, boundingRect.right * xScale, boundingRect.bottom * yScale);
+        // RectF screenRect = new RectF(rect.left * xScale, rect.top * yScale, rect.right * xScale, rect.bottom * yScale);
         if (this.debugMode) {
-            c.drawRect(boundingRect.left * xScale, boundingRect.top * yScale, boundingRect.right * xScale, boundingRect.bottom * yScale, new Paint());
+            if (mDebugPaints == null) {
+                mDebugPaints = new DebugPaints();
+            }
+            c.drawRect(rect.left * xScale, rect.top * yScale, rect.right * xScale, rect.bottom * yScale, mDebugPaints.box);
         }
         c.drawBitmap(image, mMatrix, null);
 
         if (this.debugMode) {
-            Paint red = new Paint();
-            red.setARGB(200, 255, 0, 0);
-            red.setStrokeWidth((float) 5.0);
-            Paint purple = new Paint();
-            purple.setARGB(200, 200, 0, 200);
-            purple.setStrokeWidth((float) 3.0);
-            purple.setStyle(Paint.Style.STROKE);
+            Paint red = mDebugPaints.red;
+            Paint purple = mDebugPaints.purple;
             if (this.complexShape != null) {
-                Path collisionPath = new Path();
+                float x = rect.centerX();
+                float y = rect.centerY();
+                Path collisionPath = mDebugPaints.path;
                 collisionPath.reset();
-                collisionPath.moveTo((float) (this.getX() + this.complexShape.verticies[0].x) * xScale,
-                        (float) (this.getY() + this.complexShape.verticies[0].y) * yScale);
+                collisionPath.moveTo((float) (x + this.complexShape.verticies[0].x) * xScale,
+                        (float) (y + this.complexShape.verticies[0].y) * yScale);
                 for (int i = 1; i < this.complexShape.verticies.length; i++) {
-                    collisionPath.lineTo((float) (this.getX() + this.complexShape.verticies[i].x) * xScale,
-                            (float) (this.getY() + this.complexShape.verticies[i].y) * yScale);
+                    collisionPath.lineTo((float) (x + this.complexShape.verticies[i].x) * xScale,
+                            (float) (y + this.complexShape.verticies[i].y) * yScale);
                 }
                 collisionPath.close();
                 c.drawPath(collisionPath, purple);
                 for (CollisionVertex vert : this.complexShape.verticies) {
-                    c.drawPoint((float) (this.getX() + vert.x) * xScale, (float) (this.getY() + vert.y) * yScale, red);
+                    c.drawPoint((float) (x + vert.x) * xScale, (float) (y + vert.y) * yScale, red);
                 }
             }
         }
     }
 
+    /**
+     * What debug mode draws with, made once rather than every frame.
+     */
+    private static class DebugPaints {
+        final Paint box = new Paint();
+        final Paint red = new Paint();
+        final Paint purple = new Paint();
+        final Path path = new Path();
+
+        DebugPaints() {
+            red.setARGB(200, 255, 0, 0);
+            red.setStrokeWidth((float) 5.0);
+            purple.setARGB(200, 200, 0, 200);
+            purple.setStrokeWidth((float) 3.0);
+            purple.setStyle(Paint.Style.STROKE);
+        }
+    }
+
     private class MotionSequence {
         public int msecPerFrame;
         public List<Integer> resourceIds;
@@ -0,0 +1,428 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>[internal] Broadphase that keeps object edges sorted along each axis</h1>
+ * <p>
+ * The left and right edges of every object are kept in one sorted list, and the top and bottom
+ * edges in another.  When an object moves, its edges are slid along the lists one neighbor at a
+ * time (an insertion sort), and every time one of its edges passes another object's edge the
+ * pair either starts or stops overlapping.  Each object keeps the list of objects it currently
+ * overlaps, so asking what an object touches costs nothing more than reading that list.
+ * </p>
+ * <p>
+ * Objects only move a little between frames, so the lists are nearly sorted already and each
+ * update is only a few swaps.  Works best when objects are spread out along the x axis, as in
+ * a side-scroller.  Adding objects, and area queries that aren't for a tracked object, are
+ * slower than with the other broadphases, especially when there are very wide objects.
+ * </p>
+ */
+
+final class SweepAndPruneBroadphase extends Broadphase {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_OVERLAP_CAPACITY = 4;
+
+    private final Axis mX = new Axis();
+    private final Axis mY = new Axis();
+    private int mNextId;
+    // Proxies of removed objects, kept for the next objects added
+    private final ArrayList<Proxy> mFreeProxies = new ArrayList<>();
+    private float mMaxWidth;
+
+    /**
+     * An object's edges, where they sit in the sorted lists, and what it overlaps.  Kept in
+     * {@link GameObject#broadphaseData}.
+     */
+    private static final class Proxy {
+        GameObject obj;
+        int id;
+        float minX, minY, maxX, maxY;
+        // Index of each edge in its axis
+        int minXIndex, maxXIndex, minYIndex, maxYIndex;
+        Proxy[] overlaps = new Proxy[INITIAL_OVERLAP_CAPACITY];
+        int overlapCount;
+
+        Proxy(GameObject obj, int id) {
+            this.obj = obj;
+            this.id = id;
+        }
+
+        boolean overlaps(Proxy other) {
+            return minX < other.maxX && other.minX < maxX
+                    && minY < other.maxY && other.minY < maxY;
+        }
+
+        boolean hasOverlap(Proxy other) {
+            for (int i = 0; i < overlapCount; i++) {
+                if (overlaps[i] == other) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void addOverlap(Proxy other) {
+            if (overlapCount == overlaps.length) {
+                Proxy[] grown = new Proxy[overlapCount * 2];
+                System.arraycopy(overlaps, 0, grown, 0, overlapCount);
+                overlaps = grown;
+            }
+            overlaps[overlapCount++] = other;
+        }
+
+        void removeOverlap(Proxy other) {
+            for (int i = 0; i < overlapCount; i++) {
+                if (overlaps[i] == other) {
+                    overlaps[i] = overlaps[--overlapCount];
+                    overlaps[overlapCount] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The sorted edges along one axis.  At equal positions a max edge sorts before a min edge,
+     * which matches {@link RectF#intersects} treating boxes that only touch as not overlapping:
+     * two objects overlap on this axis exactly when each one's min edge comes before the other's
+     * max edge.
+     */
+    private final class Axis {
+        float[] values = new float[INITIAL_CAPACITY];
+        Proxy[] owners = new Proxy[INITIAL_CAPACITY];
+        boolean[] isMax = new boolean[INITIAL_CAPACITY];
+        int size;
+
+        boolean before(int i, int j) {
+            return values[i] < values[j] || (values[i] == values[j] && isMax[i] && !isMax[j]);
+        }
+
+        /**
+         * Put a new edge straight into its sorted place.  Doesn't touch any overlaps.
+         */
+        void insert(Proxy owner, float value, boolean max) {
+            if (size == values.length) {
+                int capacity = size * 2;
+                float[] v = new float[capacity];
+                Proxy[] o = new Proxy[capacity];
+                boolean[] m = new boolean[capacity];
+                System.arraycopy(values, 0, v, 0, size);
+                System.arraycopy(owners, 0, o, 0, size);
+                System.arraycopy(isMax, 0, m, 0, size);
+                values = v;
+                owners = o;
+                isMax = m;
+            }
+            // Find the first edge that should come after the new one
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < value || (values[mid] == value && isMax[mid] && !max)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            System.arraycopy(values, lo, values, lo + 1, size - lo);
+            System.arraycopy(owners, lo, owners, lo + 1, size - lo);
+            System.arraycopy(isMax, lo, isMax, lo + 1, size - lo);
+            values[lo] = value;
+            owners[lo] = owner;
+            isMax[lo] = max;
+            size++;
+            for (int i = lo; i < size; i++) {
+                setIndex(i);
+            }
+        }
+
+        /**
+         * Insertion-sort one edge into place after its value changed, updating overlaps for
+         * every edge it passes.
+         */
+        void sort(int i) {
+            while (i > 0 && before(i, i - 1)) {
+                // Our edge moves left past edge i - 1
+                edgePassed(owners[i], isMax[i], owners[i - 1], isMax[i - 1]);
+                swap(i, i - 1);
+                i--;
+            }
+            while (i < size - 1 && before(i + 1, i)) {
+                // Our edge moves right past edge i + 1, which is the same as it moving left
+                edgePassed(owners[i + 1], isMax[i + 1], owners[i], isMax[i]);
+                swap(i, i + 1);
+                i++;
+            }
+        }
+
+        /**
+         * Take out both of an object's edges.
+         */
+        void remove(int minIndex, int maxIndex) {
+            int first = Math.min(minIndex, maxIndex);
+            int second = Math.max(minIndex, maxIndex);
+            System.arraycopy(values, second + 1, values, second, size - second - 1);
+            System.arraycopy(owners, second + 1, owners, second, size - second - 1);
+            System.arraycopy(isMax, second + 1, isMax, second, size - second - 1);
+            size--;
+            System.arraycopy(values, first + 1, values, first, size - first - 1);
+            System.arraycopy(owners, first + 1, owners, first, size - first - 1);
+            System.arraycopy(isMax, first + 1, isMax, first, size - first - 1);
+            size--;
+            owners[size] = null;
+            owners[size + 1] = null;
+            for (int i = first; i < size; i++) {
+                setIndex(i);
+            }
+        }
+
+        /**
+         * @return index of the first edge at or after {@code value}
+         */
+        int lowerBound(float value) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private void swap(int i, int j) {
+            float v = values[i];
+            values[i] = values[j];
+            values[j] = v;
+            Proxy o = owners[i];
+            owners[i] = owners[j];
+            owners[j] = o;
+            boolean m = isMax[i];
+            isMax[i] = isMax[j];
+            isMax[j] = m;
+            setIndex(i);
+            setIndex(j);
+        }
+
+        private void setIndex(int i) {
+            Proxy owner = owners[i];
+            if (this == mX) {
+                if (isMax[i]) {
+                    owner.maxXIndex = i;
+                } else {
+                    owner.minXIndex = i;
+                }
+            } else {
+                if (isMax[i]) {
+                    owner.maxYIndex = i;
+                } else {
+                    owner.minYIndex = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Edge {@code a} of one object has just moved to before edge {@code b} of another.  A min
+     * edge passing a max edge may start an overlap; a max edge passing a min edge ends one.
+     */
+    private static void edgePassed(Proxy a, boolean aIsMax, Proxy b, boolean bIsMax) {
+        if (a == b || aIsMax == bIsMax) {
+            return;
+        }
+        if (aIsMax) {
+            if (a.hasOverlap(b)) {
+                a.removeOverlap(b);
+                b.removeOverlap(a);
+            }
+        } else if (a.overlaps(b) && !a.hasOverlap(b)) {
+            a.addOverlap(b);
+            b.addOverlap(a);
+        }
+    }
+
+    @Override
+    public void add(GameObject obj) {
+        int free = mFreeProxies.size();
+        Proxy proxy;
+        if (free > 0) {
+            proxy = mFreeProxies.remove(free - 1);
+            proxy.obj = obj;
+            proxy.id = mNextId++;
+        } else {
+            proxy = new Proxy(obj, mNextId++);
+        }
+        setBounds(proxy, obj.boundingRect);
+        // Find what it overlaps before its own edges are in the lists
+        int start = mX.lowerBound(proxy.minX - mMaxWidth);
+        for (int i = start; i < mX.size && mX.values[i] < proxy.maxX; i++) {
+            Proxy other = mX.owners[i];
+            if (!mX.isMax[i] && proxy.overlaps(other)) {
+                proxy.addOverlap(other);
+                other.addOverlap(proxy);
+            }
+        }
+        mX.insert(proxy, proxy.minX, false);
+        mX.insert(proxy, proxy.maxX, true);
+        mY.insert(proxy, proxy.minY, false);
+        mY.insert(proxy, proxy.maxY, true);
+        obj.broadphaseData = proxy;
+    }
+
+    @Override
+    public void remove(GameObject obj) {
+        if (!(obj.broadphaseData instanceof Proxy)) {
+            return;
+        }
+        Proxy proxy = (Proxy) obj.broadphaseData;
+        for (int i = 0; i < proxy.overlapCount; i++) {
+            proxy.overlaps[i].removeOverlap(proxy);
+            proxy.overlaps[i] = null;
+        }
+        proxy.overlapCount = 0;
+        mX.remove(proxy.minXIndex, proxy.maxXIndex);
+        mY.remove(proxy.minYIndex, proxy.maxYIndex);
+        obj.broadphaseData = null;
+        proxy.obj = null;
+        mFreeProxies.add(proxy);
+    }
+
+    @Override
+    public void update(GameObject obj) {
+        if (!(obj.broadphaseData instanceof Proxy)) {
+            return;
+        }
+        Proxy proxy = (Proxy) obj.broadphaseData;
+        RectF r = obj.boundingRect;
+        if (r.left == proxy.minX && r.top == proxy.minY
+                && r.right == proxy.maxX && r.bottom == proxy.maxY) {
+            return;
+        }
+        boolean minXUp = r.left > proxy.minX;
+        boolean minYUp = r.top > proxy.minY;
+        setBounds(proxy, r);
+        mX.values[proxy.minXIndex] = proxy.minX;
+        mX.values[proxy.maxXIndex] = proxy.maxX;
+        mY.values[proxy.minYIndex] = proxy.minY;
+        mY.values[proxy.maxYIndex] = proxy.maxY;
+        // An edge can't slide past the object's own other edge, so move the one that leads
+        // first: the max edge when the min edge went up, otherwise the min edge.
+        if (minXUp) {
+            mX.sort(proxy.maxXIndex);
+            mX.sort(proxy.minXIndex);
+        } else {
+            mX.sort(proxy.minXIndex);
+            mX.sort(proxy.maxXIndex);
+        }
+        if (minYUp) {
+            mY.sort(proxy.maxYIndex);
+            mY.sort(proxy.minYIndex);
+        } else {
+            mY.sort(proxy.minYIndex);
+            mY.sort(proxy.maxYIndex);
+        }
+    }
+
+    @Override
+    public void query(float left, float top, float right, float bottom, boolean solidOnly,
+                      List<GameObject> out) {
+        // Nothing wider than mMaxWidth can start further left than this and still reach left
+        int start = mX.lowerBound(left - mMaxWidth);
+        for (int i = start; i < mX.size && mX.values[i] < right; i++) {
+            if (mX.isMax[i]) {
+                continue;
+            }
+            GameObject obj = mX.owners[i].obj;
+            if ((!solidOnly || obj.isSolid()) && overlaps(obj, left, top, right, bottom)) {
+                out.add(obj);
+            }
+        }
+    }
+
+    @Override
+    public void queryTouching(GameObject obj, boolean solidOnly, List<GameObject> out) {
+        if (!(obj.broadphaseData instanceof Proxy)) {
+            super.queryTouching(obj, solidOnly, out);
+            return;
+        }
+        Proxy proxy = (Proxy) obj.broadphaseData;
+        for (int i = 0; i < proxy.overlapCount; i++) {
+            GameObject other = proxy.overlaps[i].obj;
+            if ((!solidOnly || other.isSolid()) && overlaps(obj, other)) {
+                out.add(other);
+            }
+        }
+    }
+
+    @Override
+    public void findPairs(boolean solidOnly, PairListener listener) {
+        for (int i = 0; i < mX.size; i++) {
+            if (mX.isMax[i]) {
+                continue;
+            }
+            Proxy proxy = mX.owners[i];
+            for (int j = 0; j < proxy.overlapCount; j++) {
+                Proxy other = proxy.overlaps[j];
+                if (other.id < proxy.id) {
+                    continue;
+                }
+                GameObject a = proxy.obj;
+                GameObject b = other.obj;
+                if ((!solidOnly || a.isSolid() || b.isSolid()) && overlaps(a, b)) {
+                    listener.onPair(a, b);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mX.size; i++) {
+            mX.owners[i].obj.broadphaseData = null;
+            mX.owners[i] = null;
+        }
+        for (int i = 0; i < mY.size; i++) {
+            mY.owners[i] = null;
+        }
+        mX.size = 0;
+        mY.size = 0;
+        mMaxWidth = 0.0f;
+    }
+
+    private void setBounds(Proxy proxy, RectF r) {
+        proxy.minX = r.left;
+        proxy.minY = r.top;
+        proxy.maxX = r.right;
+        proxy.maxY = r.bottom;
+        mMaxWidth = Math.max(mMaxWidth, r.right - r.left);
+    }
+}
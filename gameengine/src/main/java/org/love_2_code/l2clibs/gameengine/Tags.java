@@ -0,0 +1,100 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <h1>Turns tag names like "enemy" into small numbers for fast grouping</h1>
+ * <p>
+ * Game objects can be given tags (see {@link GameObject#addTag(String)}) so that the
+ * {@link GameObjectManager} can hand back every object with a tag without searching.  Each
+ * distinct tag name is given a number the first time it is seen, and each object keeps its
+ * tags as bits in a {@code long}, so there can be at most {@link #MAX_TAGS} different tags in a
+ * game.  Looking a name up costs a hash, so in code that runs every frame, look the number up
+ * once and keep it:
+ * </p>
+ * <pre>
+ *     static final int ENEMY = Tags.id("enemy");
+ * </pre>
+ */
+
+public final class Tags {
+    /**
+     * The most different tags a game can use
+     */
+    public static final int MAX_TAGS = 64;
+
+    private static final Map<String, Integer> sIds = new HashMap<>();
+    private static final String[] sNames = new String[MAX_TAGS];
+    private static int sCount;
+
+    private Tags() {
+    }
+
+    /**
+     * Get the number for a tag name, assigning the next free one if the name is new.
+     *
+     * @param tag the tag name
+     * @return a number from 0 to {@link #MAX_TAGS} - 1
+     * @throws IllegalStateException if there are already {@link #MAX_TAGS} tags
+     */
+    public static synchronized int id(String tag) {
+        Integer id = sIds.get(tag);
+        if (id != null) {
+            return id;
+        }
+        if (sCount == MAX_TAGS) {
+            throw new IllegalStateException("Too many different tags (max " + MAX_TAGS + "): " + tag);
+        }
+        sNames[sCount] = tag;
+        sIds.put(tag, sCount);
+        return sCount++;
+    }
+
+    /**
+     * Check that a tag number fits in an object's tag bits.
+     *
+     * @param id the tag number
+     * @return the bit for that tag
+     * @throws IllegalArgumentException if {@code id} isn't from 0 to {@link #MAX_TAGS} - 1
+     */
+    static long bit(int id) {
+        if (id < 0 || id >= MAX_TAGS) {
+            throw new IllegalArgumentException("Tag id out of range (0-" + (MAX_TAGS - 1) + "): "
+                    + id);
+        }
+        return 1L << id;
+    }
+
+    /**
+     * Get the name a tag number was assigned to.
+     *
+     * @param id a number returned by {@link #id(String)}
+     * @return the tag name, or {@code null} if the number hasn't been assigned
+     */
+    public static synchronized String name(int id) {
+        return (id >= 0 && id < sCount) ? sNames[id] : null;
+    }
+}
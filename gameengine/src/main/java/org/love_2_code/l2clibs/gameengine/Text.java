@@ -26,6 +26,8 @@ import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.RectF;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by Holden Matheson on 3/1/2017.
  * <p>
@@ -54,6 +56,18 @@ public class Text extends GameObject {
         this.text = text;
     }
 
+    @Override
+    protected void writeState(ByteBuffer out) {
+        super.writeState(out);
+        WorldSnapshot.putString(out, text);
+    }
+
+    @Override
+    protected void readState(ByteBuffer in) {
+        super.readState(in);
+        text = WorldSnapshot.getString(in);
+    }
+
     /**
      * Sets the color of the text
      *
@@ -94,4 +108,15 @@ public class Text extends GameObject {
     public void draw(Canvas c, float xScale, float yScale) {
         c.drawText(this.text, boundingRect.left, boundingRect.bottom, paint);
     }
+
+    @Override
+    protected void captureSnapshot(FrameSnapshot.Entry entry) {
+        super.captureSnapshot(entry);
+        entry.extra = this.text;
+    }
+
+    @Override
+    protected void drawSnapshot(Canvas c, FrameSnapshot.Entry entry, float xScale, float yScale) {
+        c.drawText((String) entry.extra, entry.rect.left, entry.rect.bottom, paint);
+    }
 }
@@ -0,0 +1,207 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+
+package org.love_2_code.l2clibs.gameengine;
+
+/**
+ * <h1>[internal] A fixed set of threads that share out the chunks of a job</h1>
+ * <p>
+ * Used by the {@link GameObjectManager} for parallel updates.  {@link #run} splits a job into
+ * chunks, hands them out to the worker threads and the calling thread alike, and returns once
+ * every chunk is done.  Nothing is allocated per run, so it is cheap enough to use several
+ * times a frame.
+ * </p>
+ */
+
+final class WorkerPool {
+    private static final String TAG = "WorkerPool";
+
+    /**
+     * A piece of work that can be split into independent chunks.
+     */
+    interface Job {
+        /**
+         * Do one chunk of the work.  Different chunks run at the same time on different threads.
+         *
+         * @param chunk      which chunk to do, from 0 to {@code chunkCount - 1}
+         * @param chunkCount how many chunks the job was split into
+         */
+        void runChunk(int chunk, int chunkCount);
+    }
+
+    private final Object mLock = new Object();
+    private final Thread[] mThreads;
+    private Job mJob;
+    private int mChunkCount;
+    private int mNextChunk;
+    private int mUnfinished;
+    private int mGeneration;
+    private Throwable mFailure;
+    private boolean mShutdown;
+
+    /**
+     * @param threadCount total number of threads to work with, including the one calling
+     *                    {@link #run}
+     */
+    WorkerPool(int threadCount) {
+        mThreads = new Thread[Math.max(0, threadCount - 1)];
+        for (int i = 0; i < mThreads.length; i++) {
+            mThreads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, TAG + "-" + (i + 1));
+            mThreads[i].setDaemon(true);
+            mThreads[i].start();
+        }
+    }
+
+    /**
+     * @return number of threads that work on each job, including the calling thread
+     */
+    int getThreadCount() {
+        return mThreads.length + 1;
+    }
+
+    /**
+     * Run every chunk of a job, spread over the pool, and wait for them all to finish.
+     * Exceptions thrown by the job are passed on to the caller once all chunks are done.
+     *
+     * @param job        the work to do
+     * @param chunkCount how many chunks to split it into
+     */
+    void run(Job job, int chunkCount) {
+        if (chunkCount <= 1 || mThreads.length == 0) {
+            for (int i = 0; i < chunkCount; i++) {
+                job.runChunk(i, chunkCount);
+            }
+            return;
+        }
+        int generation;
+        synchronized (mLock) {
+            mJob = job;
+            mChunkCount = chunkCount;
+            mNextChunk = 0;
+            mUnfinished = chunkCount;
+            mFailure = null;
+            generation = ++mGeneration;
+            mLock.notifyAll();
+        }
+        work(job, generation);
+        Throwable failure;
+        synchronized (mLock) {
+            boolean interrupted = false;
+            while (mUnfinished > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    // The chunks still running use shared state, so we can't leave without them
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            mJob = null;
+            failure = mFailure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Stop the worker threads once they finish what they are doing.  The pool can't be used
+     * afterwards.
+     */
+    void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private void workerLoop() {
+        int seen = 0;
+        while (true) {
+            Job job;
+            synchronized (mLock) {
+                while (!mShutdown && (mGeneration == seen || mJob == null)) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mShutdown) {
+                    return;
+                }
+                seen = mGeneration;
+                job = mJob;
+            }
+            work(job, seen);
+        }
+    }
+
+    /**
+     * Keep taking chunks of the given run of a job until there are none left.
+     */
+    private void work(Job job, int generation) {
+        int chunkCount;
+        int chunk;
+        synchronized (mLock) {
+            chunkCount = mChunkCount;
+            chunk = claimChunk(generation);
+        }
+        while (chunk >= 0) {
+            Throwable failure = null;
+            try {
+                job.runChunk(chunk, chunkCount);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            synchronized (mLock) {
+                if (failure != null && mFailure == null) {
+                    mFailure = failure;
+                }
+                if (--mUnfinished == 0) {
+                    mLock.notifyAll();
+                }
+                chunk = claimChunk(generation);
+            }
+        }
+    }
+
+    /**
+     * Must hold mLock.  Returns -1 when the run is over or already handed out.
+     */
+    private int claimChunk(int generation) {
+        if (generation != mGeneration || mNextChunk >= mChunkCount) {
+            return -1;
+        }
+        return mNextChunk++;
+    }
+}
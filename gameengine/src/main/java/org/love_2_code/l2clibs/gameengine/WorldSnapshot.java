@@ -0,0 +1,365 @@
+//   MIT License
+//
+//   Copyright (c) 2017 Love-2-Code.org
+//
+//   Permission is hereby granted, free of charge, to any person obtaining a copy
+//   of this software and associated documentation files (the "Software"), to deal
+//   in the Software without restriction, including without limitation the rights
+//   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+//   copies of the Software, and to permit persons to whom the Software is
+//   furnished to do so, subject to the following conditions:
+//
+//   The above copyright notice and this permission notice shall be included in all
+//   copies or substantial portions of the Software.
+//
+//   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+//   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+//   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+//   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+//   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+//   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+//   SOFTWARE.
+
+package org.love_2_code.l2clibs.gameengine;
+
+import android.util.SparseArray;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <h1>A saved copy of everything in the game, to go back to later</h1>
+ * <p>
+ * {@link #capture} writes every object's type, position, motion, timers, motion state and
+ * z-order, along with the camera, the game clock, {@link Rand} and whatever the level saves
+ * itself, into a compact binary buffer.  {@link #restore} throws away the objects in the game
+ * and puts back the saved ones.  Keep one snapshot to quick-save and resume, or capture every
+ * few frames to roll back.  The buffer is reused by the next capture, so capturing over and over
+ * doesn't make garbage once the buffer is big enough, and objects with a pool come from it when
+ * restored.  {@link #writeTo} and {@link #readFrom} move a snapshot to and from a file.
+ * </p>
+ * <p>
+ * Each class of object in the game needs a type id and a factory that makes one like the level
+ * would, with its images and sizes set up:
+ * </p>
+ * <pre>
+ *     mSnapshot = new WorldSnapshot();
+ *     mSnapshot.registerType(1, Ship.class, new ObjectPool.Factory&lt;Ship&gt;() {
+ *         public Ship create() {
+ *             return new Ship();
+ *         }
+ *     });
+ * </pre>
+ * <p>
+ * Objects save their state with {@link GameObject#writeState}; a subclass with state of its
+ * own overrides it and {@link GameObject#readState}.  Type ids are written instead of class
+ * names, so keep them the same between versions of your game if old save files should still
+ * load.
+ * </p>
+ * <p>
+ * The state of a {@link ChunkStreamer} isn't saved, so don't restore a world that streams
+ * chunks.
+ * </p>
+ */
+
+public final class WorldSnapshot {
+    private static final int MAGIC = 0x4C324353;    // "L2CS"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 6;      // Magic and version
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private static final int RECORD_UPDATED = 1;        // In the manager's update list
+    private static final int RECORD_CAMERA_TARGET = 2;  // Followed by the camera
+
+    private final Map<Class<?>, Integer> mTypeIds = new HashMap<>();
+    private final SparseArray<Class<? extends GameObject>> mTypes = new SparseArray<>();
+    private final SparseArray<ObjectPool.Factory<?>> mFactories = new SparseArray<>();
+    private ByteBuffer mBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private int mSize;                  // Bytes in use, 0 if nothing has been captured
+
+    /**
+     * Give a class of object a type id, and a way to make new ones when restoring.
+     *
+     * @param typeId  a number from 0 to 32767, different for each class
+     * @param type    the class of object
+     * @param factory makes a new object of that class, set up like the level would
+     * @param <T>     the class of object
+     * @throws IllegalArgumentException if the type id is out of range or already taken
+     */
+    public <T extends GameObject> void registerType(int typeId, Class<T> type,
+                                                    ObjectPool.Factory<T> factory) {
+        if (typeId < 0 || typeId > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Type id out of range: " + typeId);
+        }
+        if (mTypes.get(typeId) != null) {
+            throw new IllegalArgumentException("Type id " + typeId + " is already used by "
+                    + mTypes.get(typeId).getName());
+        }
+        mTypeIds.put(type, typeId);
+        mTypes.put(typeId, type);
+        mFactories.put(typeId, factory);
+    }
+
+    /**
+     * Save the state of the game, replacing whatever this snapshot held before.  Call it
+     * between frames, not from an object's update().
+     *
+     * @param manager the game to save
+     * @throws IllegalStateException if the game is in the middle of an update, or has an
+     *                               object whose class wasn't registered
+     */
+    public void capture(GameObjectManager manager) {
+        if (manager.isUpdating()) {
+            throw new IllegalStateException("Can't capture a snapshot during an update");
+        }
+        while (true) {
+            try {
+                write(manager, mBuffer);
+                return;
+            } catch (BufferOverflowException e) {
+                mBuffer = ByteBuffer.allocate(mBuffer.capacity() * 2);
+            }
+        }
+    }
+
+    private void write(GameObjectManager manager, ByteBuffer out) {
+        mSize = 0;
+        out.clear();
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.putLong(manager.getUpdateClock());
+        out.putLong(Rand.getState());
+
+        // In the order they're updated, then the sleeping ones, so that after a restore
+        // objects are updated (and use Rand) in the same order as before
+        GameObject target = manager.getCamera().getTarget();
+        int countPosition = out.position();
+        out.putInt(0);
+        int count = 0;
+        manager.prepareDrawOrder();
+        for (int i = 0; i < manager.getAwakeObjectCount(); i++) {
+            GameObject obj = manager.getAwakeAt(i);
+            if (!obj.removalRequested()) {
+                writeObject(out, obj,
+                        RECORD_UPDATED | ((obj == target) ? RECORD_CAMERA_TARGET : 0));
+                count++;
+            }
+        }
+        for (int i = 0; i < manager.getObjectCount(); i++) {
+            GameObject obj = manager.getObjectAt(i);
+            if (obj.activeIndex < 0 && !obj.removalRequested()) {
+                writeObject(out, obj, (obj == target) ? RECORD_CAMERA_TARGET : 0);
+                count++;
+            }
+        }
+        out.putInt(countPosition, count);
+
+        manager.getCamera().writeState(out);
+        GameLevel level = manager.getLevel();
+        int lengthPosition = out.position();
+        out.putInt(0);
+        if (level != null) {
+            level.writeState(out);
+        }
+        out.putInt(lengthPosition, out.position() - lengthPosition - 4);
+        mSize = out.position();
+    }
+
+    private void writeObject(ByteBuffer out, GameObject obj, int flags) {
+        Integer typeId = mTypeIds.get(obj.getClass());
+        if (typeId == null) {
+            throw new IllegalStateException("No type id for " + obj.getClass().getName()
+                    + " (object " + obj.name + "); call registerType() first");
+        }
+        out.putShort(typeId.shortValue());
+        out.put((byte) flags);
+        out.putInt(obj.drawIndex);      // Place in the draw list, or -1 if not drawn
+        int lengthPosition = out.position();
+        out.putInt(0);
+        obj.writeState(out);
+        out.putInt(lengthPosition, out.position() - lengthPosition - 4);
+    }
+
+    /**
+     * Put the game back the way it was when this snapshot was captured.  Every object in the
+     * game now is taken out (pooled ones go back to their pools) and the saved objects are
+     * added in their place, so don't keep references to objects across a restore.  Call it
+     * between frames, not from an object's update().
+     *
+     * @param manager the game to restore into
+     * @throws IllegalStateException if nothing has been captured, the game is in the middle of
+     *                               an update, or an object's type isn't registered
+     */
+    public void restore(GameObjectManager manager) {
+        if (mSize == 0) {
+            throw new IllegalStateException("Nothing has been captured");
+        }
+        if (manager.isUpdating()) {
+            throw new IllegalStateException("Can't restore a snapshot during an update");
+        }
+        ByteBuffer in = mBuffer;
+        in.clear();
+        in.limit(mSize);
+        in.position(HEADER_SIZE);
+
+        manager.clearObjects();
+        manager.setUpdateClock(in.getLong());
+        Rand.setState(in.getLong());
+
+        GameObject target = null;
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            int typeId = in.getShort();
+            int flags = in.get();
+            int drawIndex = in.getInt();
+            int length = in.getInt();
+            int start = in.position();
+            GameObject obj = create(manager, typeId);
+            obj.readState(in);
+            if (in.position() != start + length) {
+                throw new IllegalStateException(obj.getClass().getName() + " read "
+                        + (in.position() - start) + " bytes of state but wrote " + length
+                        + "; check its readState() matches writeState()");
+            }
+            if ((flags & RECORD_UPDATED) != 0 && obj.isAsleep()) {
+                // Put to sleep during the last update; it leaves the update list in the next one
+                obj.setAsleepFlag(false);
+                manager.addObject(obj);
+                obj.setAsleepFlag(true);
+            } else {
+                manager.addObject(obj);
+            }
+            if (drawIndex < 0) {
+                manager.removeObjectFromZOrder(obj);
+            } else {
+                // Everything else was cleared out, so the old places sort ahead of any new objects
+                obj.drawSequence = drawIndex;
+            }
+            if ((flags & RECORD_CAMERA_TARGET) != 0) {
+                target = obj;
+            }
+        }
+        manager.drawOrderChanged();
+
+        manager.getCamera().readState(in, target);
+        GameLevel level = manager.getLevel();
+        int length = in.getInt();
+        int start = in.position();
+        if (level != null) {
+            level.readState(in);
+        }
+        if (in.position() != start + length) {
+            throw new IllegalStateException("The level read " + (in.position() - start)
+                    + " bytes of state but wrote " + length
+                    + "; check its readState() matches writeState()");
+        }
+    }
+
+    private GameObject create(GameObjectManager manager, int typeId) {
+        Class<? extends GameObject> type = mTypes.get(typeId);
+        if (type == null) {
+            throw new IllegalStateException("No type registered for type id " + typeId);
+        }
+        ObjectPool<? extends GameObject> pool = manager.getPool(type);
+        if (pool != null) {
+            return pool.acquire();
+        }
+        return mFactories.get(typeId).create();
+    }
+
+    /**
+     * @return the number of bytes the last capture took, or 0 if nothing has been captured
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Write this snapshot to a stream, for example a save file.  The stream isn't closed.
+     *
+     * @param out where to write
+     * @throws IOException           if writing fails
+     * @throws IllegalStateException if nothing has been captured
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (mSize == 0) {
+            throw new IllegalStateException("Nothing has been captured");
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(mSize);
+        data.write(mBuffer.array(), 0, mSize);
+        data.flush();
+    }
+
+    /**
+     * Read a snapshot written by {@link #writeTo}, replacing whatever this snapshot held before.
+     * The stream isn't closed.
+     *
+     * @param in where to read from
+     * @throws IOException if reading fails, or the data isn't a snapshot this version can read
+     */
+    public void readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int size = data.readInt();
+        if (size < HEADER_SIZE) {
+            throw new IOException("Not a world snapshot");
+        }
+        if (mBuffer.capacity() < size) {
+            mBuffer = ByteBuffer.allocate(size);
+        }
+        mSize = 0;
+        data.readFully(mBuffer.array(), 0, size);
+        if (mBuffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a world snapshot");
+        }
+        short version = mBuffer.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Can't read world snapshot version " + version);
+        }
+        mSize = size;
+    }
+
+    /**
+     * Write a string that {@link #getString} can read back, for use in
+     * {@link GameObject#writeState} and {@link GameLevel#writeState}.
+     *
+     * @param out where to write
+     * @param s   the string, which may be {@code null}
+     */
+    public static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        int length = s.length();
+        out.putInt(length);
+        for (int i = 0; i < length; i++) {
+            out.putChar(s.charAt(i));
+        }
+    }
+
+    /**
+     * Read a string written by {@link #putString}.
+     *
+     * @param in where to read from
+     * @return the string, or {@code null} if {@code null} was written
+     */
+    public static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+}